@@ -0,0 +1,662 @@
+package com.highbar.tools.mri;
+
+import com.highbar.tools.mri.jaxb.XExecutionNode;
+import com.highbar.tools.mri.jaxb.XMethodSummary;
+import com.highbar.tools.mri.jaxb.XTrigger;
+import com.highbar.tools.mri.monitor.ExecutionNode;
+import com.highbar.tools.mri.report.MRIReportComparison;
+import com.highbar.tools.mri.report.MRIReportScanner;
+import com.highbar.tools.mri.report.ReportHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Summarises a report on the command line, for servers without a display: the time spent in each type of call,
+ *   the top methods and triggers, the invocations of each trigger and the slowest threads.  The report is read as
+ *   a stream and only the top rows of each section are kept, so a report of any size is summarised in the same
+ *   memory on the server that wrote it.
+ * <p/>
+ *   Given a baseline report, such as one taken before a JPO or trigger was tuned, the report is compared with it
+ *   instead: the methods whose net time grew the most, those whose net time fell the most, and the triggers
+ *   whose invocations changed.
+ * <pre>
+ * MRIReportAnalyzer [options] &lt;report file&gt;
+ *   -top &lt;rows&gt;             the number of rows in each section, 20 by default
+ *   -sort &lt;key&gt;              net, invocations, average, p99 or max; the order of the methods and triggers,
+ *                            net time by default
+ *   -min-time &lt;ms&gt;           leave out methods and threads that took less time
+ *   -min-invocations &lt;n&gt;     leave out methods and triggers invoked fewer times
+ *   -baseline &lt;report file&gt;  compare the report with this one; -min-time then applies to the change in
+ *                            net time and -min-invocations to the change in a trigger's invocations
+ * </pre>
+ *   Both xml and binary (.mri) reports can be read.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class MRIReportAnalyzer extends ReportHandler
+{
+    private static final String USAGE =
+            "Usage: MRIReportAnalyzer [-top <rows>] [-sort net|invocations|average|p99|max] [-min-time <ms>] " +
+            "[-min-invocations <n>] [-baseline <report file>] <report file>";
+
+    /**
+     * The orders the methods and triggers can be listed in, longest or most first
+     */
+    public enum SortKey
+    {
+        NET { long getValue( XMethodSummary m ) { return m.getTotalTime(); } },
+        INVOCATIONS { long getValue( XMethodSummary m ) { return m.getInvocations(); } },
+        AVERAGE { long getValue( XMethodSummary m ) { return m.getAverageTime(); } },
+        P99 { long getValue( XMethodSummary m ) { return m.getP99(); } },
+        MAX { long getValue( XMethodSummary m ) { return m.getMaxTime(); } };
+
+        abstract long getValue( XMethodSummary m );
+    }
+
+    private int top = 20;
+    private SortKey sortKey = SortKey.NET;
+    private long minTime;
+    private int minInvocations;
+
+    private final Map<ExecutionNode.Type, TypeTotals> types =
+            new EnumMap<ExecutionNode.Type, TypeTotals>( ExecutionNode.Type.class );
+    private long netTime;
+    private int methodCount;
+    private long callCount;
+    private int threadCount;
+
+    private TopRows<XMethodSummary> topMethods;
+    private TopRows<XMethodSummary> topTriggers;
+    private TopRows<XTrigger> topTriggerInvocations;
+    private TopRows<ThreadTotals> slowestThreads;
+
+    /**
+     * The totals of the thread being read
+     */
+    private ThreadTotals thread = new ThreadTotals();
+
+    public static void main( String... args )
+    {
+        MRIReportAnalyzer analyzer = new MRIReportAnalyzer();
+        File reportFile = null;
+        File baseline = null;
+
+        try
+        {
+            for ( int i = 0; i < args.length; i++ )
+            {
+                if ( "-top".equals( args[i] ) && i + 1 < args.length )
+                {
+                    analyzer.setTop( Integer.parseInt( args[++i] ) );
+                }
+                else if ( "-sort".equals( args[i] ) && i + 1 < args.length )
+                {
+                    analyzer.setSortKey( getSortKey( args[++i] ) );
+                }
+                else if ( "-min-time".equals( args[i] ) && i + 1 < args.length )
+                {
+                    analyzer.setMinTime( (long)( Double.parseDouble( args[++i] ) * 1000000 ) );
+                }
+                else if ( "-min-invocations".equals( args[i] ) && i + 1 < args.length )
+                {
+                    analyzer.setMinInvocations( Integer.parseInt( args[++i] ) );
+                }
+                else if ( "-baseline".equals( args[i] ) && i + 1 < args.length )
+                {
+                    baseline = new File( args[++i] );
+                }
+                else if ( reportFile == null && !args[i].startsWith( "-" ) )
+                {
+                    reportFile = new File( args[i] );
+                }
+                else
+                {
+                    throw new IllegalArgumentException( "Unexpected argument: " + args[i] );
+                }
+            }
+        }
+        catch( IllegalArgumentException e )
+        {
+            // includes the NumberFormatException of a bad number
+            System.err.println( e.getMessage() );
+            reportFile = null;
+        }
+
+        if ( reportFile == null )
+        {
+            System.err.println( USAGE );
+            System.exit( 1 );
+        }
+
+        try
+        {
+            if ( baseline != null )
+            {
+                analyzer.compare( baseline, reportFile, System.out );
+            }
+            else
+            {
+                analyzer.analyze( reportFile, System.out );
+            }
+        }
+        catch( Exception e )
+        {
+            e.printStackTrace();
+            System.exit( 1 );
+        }
+    }
+
+    /**
+     * Reads a report and prints its summary
+     * @param reportFile an xml report, or a binary report ending in .mri
+     * @param out where to print the summary
+     * @throws IOException if the report cannot be read
+     */
+    public void analyze( File reportFile, PrintStream out ) throws IOException
+    {
+        Comparator<XMethodSummary> methodOrder = new Comparator<XMethodSummary>()
+        {
+            public int compare( XMethodSummary one, XMethodSummary two )
+            {
+                return compareLongs( sortKey.getValue( one ), sortKey.getValue( two ) );
+            }
+        };
+
+        types.clear();
+        netTime = 0;
+        methodCount = 0;
+        callCount = 0;
+        threadCount = 0;
+        thread = new ThreadTotals();
+        topMethods = new TopRows<XMethodSummary>( top, methodOrder );
+        topTriggers = new TopRows<XMethodSummary>( top, methodOrder );
+        topTriggerInvocations = new TopRows<XTrigger>( top, new Comparator<XTrigger>()
+        {
+            public int compare( XTrigger one, XTrigger two )
+            {
+                return compareLongs( one.getInvocations(), two.getInvocations() );
+            }
+        } );
+        slowestThreads = new TopRows<ThreadTotals>( top, new Comparator<ThreadTotals>()
+        {
+            public int compare( ThreadTotals one, ThreadTotals two )
+            {
+                return compareLongs( one.totalTime, two.totalTime );
+            }
+        } );
+
+        MRIReportScanner.scan( reportFile, this );
+
+        out.println( "Report:  " + reportFile );
+        out.println( "Threads: " + threadCount + "   Calls: " + callCount + "   Methods: " + methodCount +
+                "   Net time: " + toMillis( netTime ) + " ms" );
+
+        printTypes( out );
+        printMethods( out, "Top Methods by " + getSortName(), topMethods.getRows() );
+        printMethods( out, "Top Triggers by " + getSortName(), topTriggers.getRows() );
+        printTriggerInvocations( out );
+        printThreads( out );
+    }
+
+    /**
+     * Compares a report with a baseline and prints the methods and triggers that changed the most
+     * @param baseline the report to compare against
+     * @param reportFile the report to compare
+     * @param out where to print the comparison
+     * @throws IOException if either report cannot be read
+     */
+    public void compare( File baseline, File reportFile, PrintStream out ) throws IOException
+    {
+        MRIReportComparison comparison = MRIReportComparison.compare( baseline, reportFile );
+
+        out.println( "Baseline: " + baseline + "   Net time: " + toMillis( comparison.getNetTimeBefore() ) + " ms" );
+        out.println( "Report:   " + reportFile + "   Net time: " + toMillis( comparison.getNetTimeAfter() ) +
+                " ms (" + toChange( comparison.getNetTimeAfter() - comparison.getNetTimeBefore() ) + " ms)" );
+
+        List<MRIReportComparison.MethodDelta> regressions = new ArrayList<MRIReportComparison.MethodDelta>();
+        List<MRIReportComparison.MethodDelta> improvements = new ArrayList<MRIReportComparison.MethodDelta>();
+        for ( MRIReportComparison.MethodDelta delta : comparison.getMethodDeltas() )
+        {
+            if ( Math.abs( delta.getNetTimeChange() ) < Math.max( minTime, 1 ) ||
+                 Math.max( delta.getInvocationsBefore(), delta.getInvocationsAfter() ) < minInvocations )
+            {
+                continue;
+            }
+
+            // the deltas are in order of their change, so the largest regressions are first and improvements last
+            if ( delta.getNetTimeChange() > 0 && regressions.size() < top )
+            {
+                regressions.add( delta );
+            }
+            else if ( delta.getNetTimeChange() < 0 )
+            {
+                improvements.add( 0, delta );
+                if ( improvements.size() > top )
+                {
+                    improvements.remove( top );
+                }
+            }
+        }
+
+        printMethodDeltas( out, "Regressions by Net Time", regressions );
+        printMethodDeltas( out, "Improvements by Net Time", improvements );
+        printTriggerDeltas( out, comparison.getTriggerDeltas() );
+    }
+
+    @Override
+    public void methodSummary( XMethodSummary summary )
+    {
+        ExecutionNode.Type type = getType( summary.getType() );
+        TypeTotals totals = types.get( type );
+        if ( totals == null )
+        {
+            totals = new TypeTotals();
+            types.put( type, totals );
+        }
+        totals.methods++;
+        totals.invocations += summary.getInvocations();
+        totals.netTime += summary.getTotalTime();
+
+        methodCount++;
+        netTime += summary.getTotalTime();
+
+        if ( summary.getTotalTime() >= minTime && summary.getInvocations() >= minInvocations )
+        {
+            // the histogram isn't printed and is most of the summary's size
+            summary.setHistogram( null );
+            topMethods.add( summary );
+
+            if ( isTrigger( type ) )
+            {
+                topTriggers.add( summary );
+            }
+        }
+    }
+
+    @Override
+    public void trigger( XTrigger trigger, boolean active )
+    {
+        if ( trigger.getInvocations() >= minInvocations )
+        {
+            topTriggerInvocations.add( trigger );
+        }
+    }
+
+    @Override
+    public void executionNode( XExecutionNode node )
+    {
+        callCount++;
+        thread.calls++;
+
+        if ( node.getDepth() == 1 )
+        {
+            thread.topLevelCalls++;
+            if ( thread.slowestCall == null || node.getTotalTime() > thread.slowestCallTime )
+            {
+                thread.slowestCall = getLabel( node.getName(), node.getMethod() );
+                thread.slowestCallTime = node.getTotalTime();
+            }
+        }
+    }
+
+    @Override
+    public void threadEnded( String threadId, long totalTime )
+    {
+        threadCount++;
+        thread.threadId = threadId;
+        thread.totalTime = totalTime;
+
+        if ( totalTime >= minTime )
+        {
+            slowestThreads.add( thread );
+        }
+        thread = new ThreadTotals();
+    }
+
+    /**
+     * @param top the number of rows in each section
+     */
+    public void setTop( int top )
+    {
+        if ( top < 1 )
+        {
+            throw new IllegalArgumentException( "At least one row is needed: " + top );
+        }
+        this.top = top;
+    }
+
+    /**
+     * @param sortKey the order the methods and triggers are listed in
+     */
+    public void setSortKey( SortKey sortKey )
+    {
+        this.sortKey = sortKey;
+    }
+
+    /**
+     * @param minTime the shortest net time, in nanoseconds, of a method or thread that is listed
+     */
+    public void setMinTime( long minTime )
+    {
+        this.minTime = minTime;
+    }
+
+    /**
+     * @param minInvocations the fewest invocations of a method or trigger that is listed
+     */
+    public void setMinInvocations( int minInvocations )
+    {
+        this.minInvocations = minInvocations;
+    }
+
+    private void printTypes( PrintStream out )
+    {
+        List<Map.Entry<ExecutionNode.Type, TypeTotals>> sorted =
+                new ArrayList<Map.Entry<ExecutionNode.Type, TypeTotals>>( types.entrySet() );
+        Collections.sort( sorted, new Comparator<Map.Entry<ExecutionNode.Type, TypeTotals>>()
+        {
+            public int compare( Map.Entry<ExecutionNode.Type, TypeTotals> one,
+                                Map.Entry<ExecutionNode.Type, TypeTotals> two )
+            {
+                return compareLongs( two.getValue().netTime, one.getValue().netTime );
+            }
+        } );
+
+        out.println();
+        out.println( "Time by Type" );
+        out.println( String.format( "%-18s %8s %12s %14s %8s %12s", "Type", "Methods", "Invocations", "Net (ms)",
+                "Net %", "Avg (ms)" ) );
+        for ( Map.Entry<ExecutionNode.Type, TypeTotals> entry : sorted )
+        {
+            TypeTotals totals = entry.getValue();
+            out.println( String.format( "%-18s %8d %12d %14s %8s %12s", entry.getKey().toDisplayString(),
+                    totals.methods, totals.invocations, toMillis( totals.netTime ),
+                    toPercent( totals.netTime, netTime ),
+                    toMillis( totals.invocations == 0 ? 0 : totals.netTime / totals.invocations ) ) );
+        }
+    }
+
+    private void printMethods( PrintStream out, String title, List<XMethodSummary> methods )
+    {
+        out.println();
+        out.println( title );
+        out.println( String.format( "%12s %14s %8s %12s %12s %12s  %-16s %s", "Invocations", "Net (ms)", "Net %",
+                "Avg (ms)", "P99 (ms)", "Max (ms)", "Type", "Method" ) );
+        for ( XMethodSummary m : methods )
+        {
+            out.println( String.format( "%12d %14s %8s %12s %12s %12s  %-16s %s", m.getInvocations(),
+                    toMillis( m.getTotalTime() ), toPercent( m.getTotalTime(), netTime ),
+                    toMillis( m.getAverageTime() ), toMillis( m.getP99() ), toMillis( m.getMaxTime() ),
+                    getType( m.getType() ).toDisplayString(), getLabel( m.getName(), m.getMethod() ) ) );
+        }
+    }
+
+    private void printTriggerInvocations( PrintStream out )
+    {
+        out.println();
+        out.println( "Trigger Invocations" );
+        out.println( String.format( "%12s  %-32s %-12s %-32s %s", "Invocations", "Name", "Revision", "Program",
+                "Method" ) );
+        for ( XTrigger t : topTriggerInvocations.getRows() )
+        {
+            out.println( String.format( "%12d  %-32s %-12s %-32s %s", t.getInvocations(), t.getName(),
+                    t.getRevision(), t.getProgram(), t.getMethod() ) );
+        }
+    }
+
+    private void printMethodDeltas( PrintStream out, String title, List<MRIReportComparison.MethodDelta> deltas )
+    {
+        out.println();
+        out.println( title );
+        out.println( String.format( "%14s %14s %14s %8s %12s %12s %14s  %-16s %s", "Net Before", "Net After",
+                "Change (ms)", "Change", "Inv. Before", "Inv. After", "Total Change", "Type", "Method" ) );
+        for ( MRIReportComparison.MethodDelta d : deltas )
+        {
+            String percent = d.isAdded() ? "new" :
+                    ( d.isRemoved() ? "gone" : toChange( d.getNetTimeChangePercent() ) + "%" );
+
+            out.println( String.format( "%14s %14s %14s %8s %12d %12d %14s  %-16s %s", toMillis( d.getNetTimeBefore() ),
+                    toMillis( d.getNetTimeAfter() ), toChange( d.getNetTimeChange() ), percent,
+                    d.getInvocationsBefore(), d.getInvocationsAfter(), toChange( d.getTotalTimeChange() ),
+                    getType( d.getType() ).toDisplayString(), getLabel( d.getName(), d.getMethod() ) ) );
+        }
+    }
+
+    private void printTriggerDeltas( PrintStream out, List<MRIReportComparison.TriggerDelta> deltas )
+    {
+        List<MRIReportComparison.TriggerDelta> changed = new ArrayList<MRIReportComparison.TriggerDelta>();
+        for ( MRIReportComparison.TriggerDelta delta : deltas )
+        {
+            if ( delta.getInvocationChange() != 0 && Math.abs( delta.getInvocationChange() ) >= minInvocations )
+            {
+                changed.add( delta );
+            }
+        }
+
+        // the largest changes either way
+        Collections.sort( changed, new Comparator<MRIReportComparison.TriggerDelta>()
+        {
+            public int compare( MRIReportComparison.TriggerDelta one, MRIReportComparison.TriggerDelta two )
+            {
+                return compareLongs( Math.abs( two.getInvocationChange() ), Math.abs( one.getInvocationChange() ) );
+            }
+        } );
+
+        out.println();
+        out.println( "Trigger Invocation Changes" );
+        out.println( String.format( "%12s %12s %12s  %-32s %-12s %-32s %s", "Inv. Before", "Inv. After", "Change",
+                "Name", "Revision", "Program", "Method" ) );
+        for ( MRIReportComparison.TriggerDelta t : changed.subList( 0, Math.min( top, changed.size() ) ) )
+        {
+            out.println( String.format( "%12d %12d %12s  %-32s %-12s %-32s %s", t.getInvocationsBefore(),
+                    t.getInvocationsAfter(), ( t.getInvocationChange() > 0 ? "+" : "" ) + t.getInvocationChange(),
+                    t.getName(), t.getRevision(), t.getProgram(), t.getMethod() ) );
+        }
+    }
+
+    private void printThreads( PrintStream out )
+    {
+        out.println();
+        out.println( "Slowest Threads" );
+        out.println( String.format( "%14s %10s %10s %14s  %-32s %s", "Total (ms)", "Calls", "Top-Level",
+                "Slowest (ms)", "Thread", "Slowest Call" ) );
+        for ( ThreadTotals t : slowestThreads.getRows() )
+        {
+            out.println( String.format( "%14s %10d %10d %14s  %-32s %s", toMillis( t.totalTime ), t.calls,
+                    t.topLevelCalls, toMillis( t.slowestCallTime ), t.threadId,
+                    t.slowestCall == null ? "" : t.slowestCall ) );
+        }
+    }
+
+    private static SortKey getSortKey( String name )
+    {
+        for ( SortKey key : SortKey.values() )
+        {
+            if ( key.name().equalsIgnoreCase( name ) )
+            {
+                return key;
+            }
+        }
+        throw new IllegalArgumentException( "Unknown sort key: " + name );
+    }
+
+    private String getSortName()
+    {
+        switch ( sortKey )
+        {
+            case INVOCATIONS: return "Invocations";
+            case AVERAGE: return "Average Time";
+            case P99: return "99th Percentile Time";
+            case MAX: return "Max. Time";
+            default: return "Net Time";
+        }
+    }
+
+    // reports written by older versions record Java triggers as the deprecated TRIGGER type
+    @SuppressWarnings( "deprecation" )
+    private static boolean isTrigger( ExecutionNode.Type type )
+    {
+        return type == ExecutionNode.Type.JAVA_TRIGGER || type == ExecutionNode.Type.TCL_TRIGGER ||
+               type == ExecutionNode.Type.TRIGGER;
+    }
+
+    /**
+     * @return the type with the given name, or ROOT for a type this version doesn't know
+     */
+    private static ExecutionNode.Type getType( String type )
+    {
+        try
+        {
+            return ExecutionNode.Type.valueOf( type );
+        }
+        catch( RuntimeException e )
+        {
+            return ExecutionNode.Type.ROOT;
+        }
+    }
+
+    private static String getLabel( String name, String method )
+    {
+        return method == null || method.length() == 0 ? name : name + "." + method;
+    }
+
+    private static int compareLongs( long one, long two )
+    {
+        return one < two ? -1 : ( one == two ? 0 : 1 );
+    }
+
+    private static String toMillis( long nanos )
+    {
+        return new DecimalFormat( "0.00" ).format( nanos / 1000000d );
+    }
+
+    /**
+     * @return the change in milliseconds, with its sign
+     */
+    private static String toChange( long nanos )
+    {
+        return ( nanos > 0 ? "+" : "" ) + toMillis( nanos );
+    }
+
+    private static String toChange( double percent )
+    {
+        return ( percent > 0 ? "+" : "" ) + new DecimalFormat( "0.0" ).format( percent );
+    }
+
+    private static String toPercent( long part, long whole )
+    {
+        return new DecimalFormat( "0.0" ).format( whole == 0 ? 0 : part * 100d / whole );
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   Keeps the largest rows added to it, in a heap that is never bigger than the number of rows wanted
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private static class TopRows<T>
+    {
+        private final int size;
+        private final Comparator<T> order;
+        private final PriorityQueue<T> rows;
+
+        TopRows( int size, Comparator<T> order )
+        {
+            this.size = size;
+            this.order = order;
+            this.rows = new PriorityQueue<T>( size + 1, order );
+        }
+
+        void add( T row )
+        {
+            // the head of the heap is the smallest row kept
+            if ( rows.size() < size )
+            {
+                rows.add( row );
+            }
+            else if ( order.compare( row, rows.peek() ) > 0 )
+            {
+                rows.poll();
+                rows.add( row );
+            }
+        }
+
+        /**
+         * @return the rows kept, largest first
+         */
+        List<T> getRows()
+        {
+            List<T> sorted = new ArrayList<T>( rows );
+            Collections.sort( sorted, Collections.reverseOrder( order ) );
+            return sorted;
+        }
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   The methods, invocations and net time of a type of call
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private static class TypeTotals
+    {
+        private int methods;
+        private long invocations;
+        private long netTime;
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   The calls of a thread and the slowest of its top-level calls
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private static class ThreadTotals
+    {
+        private String threadId;
+        private long totalTime;
+        private long calls;
+        private int topLevelCalls;
+        private String slowestCall;
+        private long slowestCallTime;
+    }
+}
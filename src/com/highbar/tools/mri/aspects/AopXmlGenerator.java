@@ -0,0 +1,319 @@
+package com.highbar.tools.mri.aspects;
+
+import com.highbar.tools.mri.monitor.ExecutionNode;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Generates the aop.xml that tells the AspectJ weaver what to profile from a properties file mapping method
+ *   patterns to execution node categories:
+ * <pre>
+ *   # category[.n] = AspectJ method pattern, matched with execution()
+ *   MX_API.1 = public * matrix.db.BusinessObject*.*(..)
+ *   MX_API.2 = public * matrix.db.Relationship*.*(..)
+ *   LG_CNS_API = public * lge.gpdm.bom..*.*(..)
+ *
+ *   # optional weaver settings, the type patterns are comma separated
+ *   weaver.options = -verbose
+ *   weaver.include = lge.gpdm.bom..*, matrix.db..*, org.apache.jsp..*, *_mxJPO*
+ *   weaver.exclude = lge.gpdm.bom.util..*
+ * </pre>
+ *   Each category becomes a concrete {@link ConfigurableAspect} whose scope is the union of its patterns.  The
+ *   {@link MRIAspect} is always declared.  Limiting the weaver to the packages of interest with weaver.include
+ *   keeps both weaving time and advice overhead down, but the include list must then also cover the classes
+ *   MRIAspect advises.  The weaver section also lists the packages commonly excluded at Matrix sites as
+ *   commented out exclude elements, so they can be switched on in the generated file.
+ * <p/>
+ *   Usage: AopXmlGenerator &lt;properties file> &lt;aop.xml>
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class AopXmlGenerator
+{
+    private static final String WEAVER_OPTIONS = "weaver.options";
+    private static final String WEAVER_INCLUDE = "weaver.include";
+    private static final String WEAVER_EXCLUDE = "weaver.exclude";
+    private static final String INDENT = "  ";
+    private static final String NEWLINE = "\n";
+
+    /**
+     * Packages that are commonly not woven, written to the weaver section commented out
+     */
+    private static final String[] SUGGESTED_EXCLUDES = {
+            "org..* AND !org.apache.jsp..*",
+            "java..*",
+            "javax..*",
+            "sun..*",
+            "com.sun..*",
+            "lge.gpdm..*",
+            "com.matrixone.MCADIntegration..*",
+            "matrix.db..* AND !matrix.db.JPO*",
+            "com.matrixone.jdl..*",
+            "com.matrixone.jni..*",
+            "com.matrixone.apps.document.findMissing.MxDebug"
+    };
+
+    private final Map<ExecutionNode.Type, List<String>> patterns =
+            new EnumMap<ExecutionNode.Type, List<String>>( ExecutionNode.Type.class );
+    private final Properties weaver = new Properties();
+
+    private XMLStreamWriter writer;
+    private int depth;
+
+    public static void main( String... args )
+    {
+        if ( args.length != 2 )
+        {
+            System.err.println( "Usage: AopXmlGenerator <properties file> <aop.xml>" );
+            System.exit( 1 );
+        }
+
+        try
+        {
+            AopXmlGenerator generator = new AopXmlGenerator();
+            generator.load( args[0] );
+            generator.write( args[1] );
+        }
+        catch( Exception e )
+        {
+            e.printStackTrace();
+            System.exit( 1 );
+        }
+    }
+
+    /**
+     * Reads the categories and weaver settings from a properties file
+     * @param fileName the name of the properties file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a key is not a category or weaver setting
+     */
+    public void load( String fileName ) throws IOException
+    {
+        Properties properties = new Properties();
+        InputStream in = new BufferedInputStream( new FileInputStream( fileName ) );
+        try
+        {
+            properties.load( in );
+        }
+        finally
+        {
+            in.close();
+        }
+
+        // sorted so the generated file doesn't change from run to run
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for ( String key : properties.stringPropertyNames() )
+        {
+            sorted.put( key, properties.getProperty( key ).trim() );
+        }
+
+        for ( Map.Entry<String, String> entry : sorted.entrySet() )
+        {
+            String key = entry.getKey();
+
+            if ( key.equals( WEAVER_OPTIONS ) || key.equals( WEAVER_INCLUDE ) || key.equals( WEAVER_EXCLUDE ) )
+            {
+                weaver.setProperty( key, entry.getValue() );
+            }
+            else
+            {
+                addPattern( getCategory( key ), entry.getValue() );
+            }
+        }
+    }
+
+    /**
+     * Adds a method pattern to a category
+     * @param type the category
+     * @param pattern an AspectJ method pattern, e.g. public * matrix.db.BusinessObject*.*(..)
+     */
+    public void addPattern( ExecutionNode.Type type, String pattern )
+    {
+        if ( type == ExecutionNode.Type.ROOT )
+        {
+            throw new IllegalArgumentException( "ROOT is not a category that can be profiled" );
+        }
+
+        List<String> list = patterns.get( type );
+        if ( list == null )
+        {
+            list = new ArrayList<String>();
+            patterns.put( type, list );
+        }
+        list.add( pattern );
+    }
+
+    /**
+     * Writes the aop.xml
+     * @param fileName the name of the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write( String fileName ) throws IOException
+    {
+        OutputStream out = new FileOutputStream( fileName );
+        try
+        {
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter( out, "UTF-8" );
+            depth = 0;
+
+            startElement( "aspectj" );
+            startElement( "aspects" );
+            emptyElement( "aspect" );
+            writer.writeAttribute( "name", MRIAspect.class.getName() );
+
+            for ( Map.Entry<ExecutionNode.Type, List<String>> entry : patterns.entrySet() )
+            {
+                startElement( "concrete-aspect" );
+                writer.writeAttribute( "name", ConfigurableAspect.NAME_PREFIX + entry.getKey() );
+                writer.writeAttribute( "extends", ConfigurableAspect.class.getName() );
+                emptyElement( "pointcut" );
+                writer.writeAttribute( "name", "scope" );
+                writer.writeAttribute( "expression", getExpression( entry.getValue() ) );
+                endElement();
+            }
+
+            endElement();
+            startElement( "weaver" );
+            if ( weaver.getProperty( WEAVER_OPTIONS ) != null )
+            {
+                writer.writeAttribute( "options", weaver.getProperty( WEAVER_OPTIONS ) );
+            }
+
+            comment( " Do not weave anything in these packages " );
+            for ( String typePattern : SUGGESTED_EXCLUDES )
+            {
+                comment( "<exclude within=\"" + typePattern + "\"/>" );
+            }
+            writeWithin( "exclude", weaver.getProperty( WEAVER_EXCLUDE ) );
+
+            comment( " Include these packages " );
+            writeWithin( "include", weaver.getProperty( WEAVER_INCLUDE ) );
+            endElement();
+            endElement();
+
+            writer.writeCharacters( NEWLINE );
+            writer.writeEndDocument();
+            writer.close();
+        }
+        catch( XMLStreamException e )
+        {
+            IOException ioe = new IOException( "Cannot write " + fileName + ": " + e.getMessage() );
+            ioe.initCause( e );
+            throw ioe;
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static ExecutionNode.Type getCategory( String key )
+    {
+        int dot = key.indexOf( '.' );
+        String category = dot == -1 ? key : key.substring( 0, dot );
+
+        try
+        {
+            return ExecutionNode.Type.valueOf( category );
+        }
+        catch( IllegalArgumentException e )
+        {
+            throw new IllegalArgumentException( "Unknown category or setting: " + key );
+        }
+    }
+
+    private static String getExpression( List<String> patterns )
+    {
+        StringBuilder expression = new StringBuilder();
+        for ( String pattern : patterns )
+        {
+            if ( expression.length() != 0 )
+            {
+                expression.append( " || " );
+            }
+            expression.append( "execution(" ).append( pattern ).append( ")" );
+        }
+        return expression.toString();
+    }
+
+    private void writeWithin( String elementName, String typePatterns ) throws XMLStreamException
+    {
+        if ( typePatterns != null )
+        {
+            for ( String typePattern : typePatterns.split( "," ) )
+            {
+                if ( typePattern.trim().length() != 0 )
+                {
+                    emptyElement( elementName );
+                    writer.writeAttribute( "within", typePattern.trim() );
+                }
+            }
+        }
+    }
+
+    private void startElement( String name ) throws XMLStreamException
+    {
+        indent();
+        writer.writeStartElement( name );
+        depth++;
+    }
+
+    private void emptyElement( String name ) throws XMLStreamException
+    {
+        indent();
+        writer.writeEmptyElement( name );
+    }
+
+    private void comment( String text ) throws XMLStreamException
+    {
+        indent();
+        writer.writeComment( text );
+    }
+
+    private void endElement() throws XMLStreamException
+    {
+        depth--;
+        writer.writeCharacters( NEWLINE );
+        writeIndent();
+        writer.writeEndElement();
+    }
+
+    private void indent() throws XMLStreamException
+    {
+        if ( depth > 0 )
+        {
+            writer.writeCharacters( NEWLINE );
+        }
+        writeIndent();
+    }
+
+    private void writeIndent() throws XMLStreamException
+    {
+        for ( int i = 0; i < depth; i++ )
+        {
+            writer.writeCharacters( INDENT );
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.highbar.tools.mri.aspects;
+
+import com.highbar.tools.mri.monitor.ExecutionNode;
+import com.highbar.tools.mri.monitor.MRIProfiler;
+import com.highbar.tools.mri.monitor.MethodStatistics;
+import com.highbar.tools.mri.monitor.Switchboard;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+
+import java.util.Arrays;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Times the methods of a category of execution node, where the methods are chosen in aop.xml rather than in
+ *   code.  Each category is a concrete aspect declared in aop.xml that extends this one and defines the scope
+ *   pointcut, e.g.
+ * <pre>
+ *   &lt;concrete-aspect name="com.highbar.tools.mri.aspects.Profile_MX_API"
+ *                    extends="com.highbar.tools.mri.aspects.ConfigurableAspect">
+ *     &lt;pointcut name="scope" expression="execution(public * matrix.db.BusinessObject*.*(..))"/>
+ *   &lt;/concrete-aspect>
+ * </pre>
+ *   A concrete aspect declared in aop.xml can only define pointcuts, so the category is taken from the aspect's
+ *   name, which must be {@link #NAME_PREFIX} followed by an {@link ExecutionNode.Type}.  {@link AopXmlGenerator}
+ *   writes these declarations from a simpler configuration file.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+@Aspect
+public abstract class ConfigurableAspect
+{
+    /**
+     * The start of the name of every concrete aspect, the rest of the name is the category
+     */
+    public static final String NAME_PREFIX = "com.highbar.tools.mri.aspects.Profile_";
+
+    /**
+     * The categories of the concrete aspects that have been created, copy on write
+     */
+    private static volatile ExecutionNode.Type[] types = new ExecutionNode.Type[0];
+
+    private final ExecutionNode.Type type;
+
+    protected ConfigurableAspect()
+    {
+        String name = getClass().getName();
+        if ( !name.startsWith( NAME_PREFIX ) )
+        {
+            throw new IllegalStateException( "Concrete aspects must be named " + NAME_PREFIX + "<category>: " + name );
+        }
+
+        type = ExecutionNode.Type.valueOf( name.substring( NAME_PREFIX.length() ) );
+        addType( type );
+    }
+
+    private static synchronized void addType( ExecutionNode.Type type )
+    {
+        ExecutionNode.Type[] t = Arrays.copyOf( types, types.length + 1 );
+        t[ t.length - 1 ] = type;
+        types = t;
+    }
+
+    /**
+     * The methods to time, defined by the concrete aspect
+     */
+    @Pointcut
+    public abstract void scope();
+
+    /**
+     * Pointcut that is enabled while the current thread is being recorded and any of the configured categories is
+     * switched on.  The pointcut is static, so it can't tell which concrete aspect it is being checked for: the
+     * advice checks the aspect's own category and the method
+     * @return true if the pointcut is enabled
+     */
+    @Pointcut("if()")
+    public static boolean recording()
+    {
+        if ( !MRIProfiler.INSTANCE.isRecording() )
+        {
+            return false;
+        }
+
+        Switchboard switchboard = MRIProfiler.INSTANCE.getSwitchboard();
+        for ( ExecutionNode.Type t : types )
+        {
+            if ( switchboard.isEnabled( t ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advice for the configured methods.  This advice merely wraps a timer around the original method, unless
+     * the category or the method has been switched off
+     * @param joinPoint the join point representing the advised method
+     * @return the result of the method execution
+     * @throws Throwable if the advised method threw something
+     */
+    @Around( "scope() && recording()" )
+    public Object profile( ProceedingJoinPoint joinPoint ) throws Throwable
+    {
+        JoinPointNames names = JoinPointNames.get( joinPoint.getStaticPart() );
+        if ( !MRIAspect.isEnabled( type, names ) )
+        {
+            return joinPoint.proceed();
+        }
+
+        MethodStatistics statistics = names.getStatistics( type, names.getTypeName(), names.getMethod() );
+        return MRIAspect.proceed( joinPoint, statistics, MRIAspect.getParameters( joinPoint, type ) );
+    }
+}
@@ -0,0 +1,209 @@
+package com.highbar.tools.mri.aspects;
+
+import com.highbar.tools.mri.monitor.ExecutionNode;
+import com.highbar.tools.mri.monitor.MRIProfiler;
+import com.highbar.tools.mri.monitor.MethodStatistics;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.Signature;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   The names the advice gives an advised method, and the category its declaring type puts it in, worked out
+ *   from its signature once per join point rather than on every call.  Each woven join point has a single static
+ *   part for the life of its class, and static parts don't override equals() or hashCode(), so the cache is keyed
+ *   on their identity and holds one entry for each advised method that has run.
+ * <p/>
+ *   The statistics of the method are kept here as well, one for each category it is timed as, so the advice
+ *   records a call without looking the method up or allocating a key for it.  They are looked up again once the
+ *   profiler has been cleared.
+ * <p/>
+ *   The JSP name of a class that isn't a compiled JSP is its type name, and the JPO name of a class that isn't a
+ *   JPO is null.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+final class JoinPointNames
+{
+    private static final String JSP_PACKAGE = "org.apache.jsp";
+    private static final String JSP_SUFFIX = "_jsp";
+    private static final String JPO_SUFFIX = "_mxJPO";
+
+    private static final int TYPES = ExecutionNode.Type.values().length;
+
+    private static final ConcurrentMap<JoinPoint.StaticPart, JoinPointNames> cache =
+            new ConcurrentHashMap<JoinPoint.StaticPart, JoinPointNames>();
+
+    private final String typeName;
+    private final String method;
+    private final String switchName;
+    private final String jspName;
+    private final String jpoName;
+    private final ExecutionNode.Type type;
+    private final boolean triggerManagerMain;
+
+    /**
+     * The statistics of the method for each category it has been timed as, indexed by ordinal.  Copy on write
+     */
+    private volatile MethodStatistics[] statistics = new MethodStatistics[ TYPES ];
+
+    private JoinPointNames( Signature signature )
+    {
+        typeName = signature.getDeclaringTypeName();
+        method = getMethod( signature );
+        switchName = typeName + "." + signature.getName();
+        jpoName = typeName.contains( JPO_SUFFIX ) ? getJPOName( typeName ) : null;
+
+        jspName = typeName.startsWith( JSP_PACKAGE ) && typeName.endsWith( JSP_SUFFIX ) ?
+                getJSPName( typeName ) : typeName;
+
+        if ( typeName.startsWith( JSP_PACKAGE ) )
+        {
+            type = ExecutionNode.Type.JSP;
+        }
+        else if ( jpoName != null )
+        {
+            type = jpoName.startsWith( MRIAspect.JPO_TRIGGER_MANAGER ) ?
+                    ExecutionNode.Type.TRIGGER_MANAGER : ExecutionNode.Type.JPO;
+        }
+        else
+        {
+            type = null;
+        }
+
+        triggerManagerMain = type == ExecutionNode.Type.TRIGGER_MANAGER && method.startsWith( MRIAspect.MX_MAIN );
+    }
+
+    /**
+     * @param staticPart the static part of an advised method's join point
+     * @return the names of the method
+     */
+    static JoinPointNames get( JoinPoint.StaticPart staticPart )
+    {
+        JoinPointNames names = cache.get( staticPart );
+        if ( names == null )
+        {
+            // two threads may both work the names out the first time, either copy will do
+            names = new JoinPointNames( staticPart.getSignature() );
+            cache.putIfAbsent( staticPart, names );
+        }
+        return names;
+    }
+
+    /**
+     * @return the name of the type declaring the method
+     */
+    String getTypeName()
+    {
+        return typeName;
+    }
+
+    /**
+     * @return the method's signature without its return type and declaring type, e.g. getInfo(Context, StringList)
+     */
+    String getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * @return the name the method's switch has in the {@link com.highbar.tools.mri.monitor.Switchboard}
+     */
+    String getSwitchName()
+    {
+        return switchName;
+    }
+
+    /**
+     * @return the path of the JSP compiled into the declaring type, e.g. /common/emxTree.jsp, or the name of the
+     *         type if it isn't a compiled JSP
+     */
+    String getJSPName()
+    {
+        return jspName;
+    }
+
+    /**
+     * @return the name of the JPO compiled into the declaring type
+     */
+    String getJPOName()
+    {
+        return jpoName;
+    }
+
+    /**
+     * @return the category the declaring type puts the method in: JSP for the JSP package, TRIGGER_MANAGER for the
+     *         trigger manager JPO and JPO for any other JPO, null for other types.  A JPO method called as a
+     *         trigger is timed as a JAVA_TRIGGER instead, which only the trigger context can tell
+     */
+    ExecutionNode.Type getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return true if the method is the trigger manager's mxMain, which runs the triggers of an event
+     */
+    boolean isTriggerManagerMain()
+    {
+        return triggerManagerMain;
+    }
+
+    /**
+     * @param type the category the method is timed as
+     * @param name the name of the method's execution nodes, one of the names of this join point
+     * @param method the method of the execution nodes
+     * @return the statistics the method's calls are recorded to
+     */
+    MethodStatistics getStatistics( ExecutionNode.Type type, String name, String method )
+    {
+        MethodStatistics[] s = statistics;
+        MethodStatistics methodStatistics = s[ type.ordinal() ];
+
+        if ( methodStatistics == null || !MRIProfiler.INSTANCE.isCurrent( methodStatistics ) )
+        {
+            methodStatistics = MRIProfiler.INSTANCE.getMethodStatistics( type, name, method );
+
+            // racing updates of other categories can be lost, they are then just looked up again
+            s = s.clone();
+            s[ type.ordinal() ] = methodStatistics;
+            statistics = s;
+        }
+        return methodStatistics;
+    }
+
+    private static String getMethod( Signature signature )
+    {
+        StringBuilder method = new StringBuilder( signature.toString() );
+
+        // delete the return type from the signature
+        method.delete( 0, method.indexOf( " " ) + 1 );
+
+        // delete the type from the signature
+        method.delete( 0, signature.getDeclaringTypeName().length() + 1 );
+
+        return method.toString();
+    }
+
+    private static String getJSPName( String jspClassName )
+    {
+        StringBuilder jspName = new StringBuilder( jspClassName.replace( '.', '/' ) );
+        jspName.delete( 0, JSP_PACKAGE.length() );
+        jspName.setCharAt( jspName.length() - JSP_SUFFIX.length(), '.' );
+        return jspName.toString();
+    }
+
+    private static String getJPOName( String longName )
+    {
+        return longName.substring( 0, longName.indexOf( JPO_SUFFIX ) );
+    }
+}
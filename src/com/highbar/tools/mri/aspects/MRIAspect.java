@@ -2,7 +2,9 @@ package com.highbar.tools.mri.aspects;
 
 import com.highbar.tools.mri.monitor.MRIProfiler;
 import com.highbar.tools.mri.monitor.ExecutionNode;
-import com.highbar.tools.mri.monitor.JPO;
+import com.highbar.tools.mri.monitor.MethodStatistics;
+import com.highbar.tools.mri.monitor.ParameterCapture;
+import com.highbar.tools.mri.monitor.Switchboard;
 import com.highbar.util.StopWatch;
 import com.highbar.tools.trigger.cache.TriggerProgramParameters;
 import com.highbar.tools.trigger.cache.TriggerProgramParametersCache;
@@ -19,8 +21,9 @@ import java.util.List;
  * <dl>
  * <dt><b>Description:</b>
  * <dd>
- *   This class defines the aspects and advice used by the profiler.  For greater flexibility, it should
- *   be reworked to be completely configurable - hard-coded pointcuts in this situation are stupid!
+ *   This class defines the aspects and advice the profiler relies on: the request entry points (JSPs and JPO
+ *   invocations), JPO methods, the core JPO invocation and the trigger manager.  Which other API methods are
+ *   timed is configured in aop.xml instead, see {@link ConfigurableAspect}.
  * </dd>
  * </dt>
  * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
@@ -32,22 +35,26 @@ import java.util.List;
 @Aspect
 public class MRIAspect
 {
-    private static final String JPO_TRIGGER_MANAGER = "emxTriggerManager";
-    private static final String MX_MAIN = "mxMain";
+    static final String JPO_TRIGGER_MANAGER = "emxTriggerManager";
+    static final String MX_MAIN = "mxMain";
+    private static final String JSP_METHOD = "jsp_service";
     private static final String TCL_TRIGGER_WRAPPER = "execute program emxTriggerWrapper.tcl ";
 
     /**
-     * Pointcut for jsp invocations
+     * Pointcut for jsp invocations.  This is a request entry point, so in sampling mode it is enabled for every
+     * request while profiling is on in order to make the sampling decision
      * @return true if the pointcut is enabled
      */
     @Pointcut("execution(* org.apache.jsp..*._jspService(..)) && if()")
     public static boolean jsp_service()
     {
-        return MRIProfiler.INSTANCE.isActive();
+        return MRIProfiler.INSTANCE.isActive() && ( MRIProfiler.INSTANCE.getSampleRate() > 1 ||
+                MRIProfiler.INSTANCE.getSwitchboard().isEnabled( ExecutionNode.Type.JSP ) );
     }
 
     /**
-     * Pointcut for JPO invocations
+     * Pointcut for JPO invocations.  This is a request entry point, so it is enabled for every request
+     * while profiling is on in order to make the sampling decision
      * @return true if the pointcut is enabled
      */
     @Pointcut("execution(* matrix.db.JPO*.invoke(..)) && if()")
@@ -63,53 +70,44 @@ public class MRIAspect
     @Pointcut("execution(Object matrix.db.JPOSupport*.newInstance(String,matrix.db.Context*,String[],int,boolean)) && if()")
     public static boolean jpoSupport_newInstance()
     {
-        return MRIProfiler.INSTANCE.isActive();
+        return MRIProfiler.INSTANCE.isRecording() &&
+                MRIProfiler.INSTANCE.getSwitchboard().isEnabled( ExecutionNode.Type.TRIGGER_MANAGER );
     }
 
     /**
-     * Pointcut for core JPO invocation
+     * Pointcut for core JPO invocation.  Java triggers are told apart from other JPO methods by the invocation
+     * they are called from, so this is timed here rather than in the configurable API methods, where narrowing
+     * the configured patterns could silently break trigger detection.  It is also enabled while the thread is
+     * in the trigger manager, even if it isn't timed, so that Java triggers are still identified
      * @return true if the pointcut is enabled
      */
-    @Pointcut("execution(Object matrix.db.JPOSupport*.invokeObject(Object, String, matrix.db.Context*, String[], boolean)) && if()")
+    @Pointcut("execution(public * matrix.db.JPOSupport*.invokeObject(..)) && if()")
     public static boolean jpoSupport_invokeObject()
     {
-        return MRIProfiler.INSTANCE.isActive();
+        return MRIProfiler.INSTANCE.isRecording() &&
+                ( MRIProfiler.INSTANCE.getSwitchboard().isEnabled( ExecutionNode.Type.MX_API ) ||
+                  MRIProfiler.INSTANCE.getTriggerContext() != MRIProfiler.TriggerContext.NONE );
     }
 
     /**
-     * Pointcut for invocation of a JPO method
+     * Pointcut for invocation of a JPO method.  Which category a JPO method is timed as depends on the method
+     * and the trigger context, so the pointcut is enabled if any of those categories is, and while the thread is
+     * in the trigger manager
      * @return true if the pointcut is enabled
      */
     @Pointcut("execution(* *_mxJPO*.*(..)) && if()")
     public static boolean jpo_method()
     {
-        return MRIProfiler.INSTANCE.isActive();
-    }
+        if ( !MRIProfiler.INSTANCE.isRecording() )
+        {
+            return false;
+        }
 
-    /**
-     * Pointcut for main database access methods.
-     * @return true if the pointcut is enabled
-     */
-    @Pointcut("if() && (execution(public * matrix.db.BusinessObject*.*(..)) " +
-            "|| execution(public * matrix.db.Relationship*.*(..)) " +
-            "|| execution(public * matrix.db.MQLCommand*.executeCommand(..))" +
-            "|| execution(public * matrix.db.Query*.select*(..))" +
-            "|| execution(public * matrix.db.JPOSupport*.invokeObject(..))" +
-            "|| execution(public * matrix.db.JPO*.packArgs(..))" +
-            "|| execution(public * matrix.db.JPO*.unpackArgs(..)))")
-    public static boolean mxAPI()
-    {
-        return MRIProfiler.INSTANCE.isActive();
-    }
-
-    /**
-     * Pointcut for LG CNS custom code
-     * @return true if the pointcut is enabled
-     */
-    @Pointcut("if() &&  execution(public * lge..*.*(..))")
-    public static boolean lgeAPI()
-    {
-        return MRIProfiler.INSTANCE.isActive();
+        Switchboard switchboard = MRIProfiler.INSTANCE.getSwitchboard();
+        return switchboard.isEnabled( ExecutionNode.Type.JPO ) ||
+               switchboard.isEnabled( ExecutionNode.Type.TRIGGER_MANAGER ) ||
+               switchboard.isEnabled( ExecutionNode.Type.JAVA_TRIGGER ) ||
+               MRIProfiler.INSTANCE.getTriggerContext() != MRIProfiler.TriggerContext.NONE;
     }
 
     /**
@@ -119,31 +117,8 @@ public class MRIAspect
     @Pointcut("execution(boolean matrix.db.MQLCommand*.executeCommand(matrix.db.Context*,String)) && if()")
     public static boolean triggerManager_mqlCommand()
     {
-        return MRIProfiler.INSTANCE.isActive();
-    }
-
-    /**
-     * Advice for matrix-api methods.  This advice merely wraps a timer around the original method
-     * @param joinPoint the join point representing the advised method
-     * @return the result of the method execution
-     * @throws Throwable if the advised method threw something
-     */
-    @Around( "mxAPI()" )
-    public Object mxAPI( ProceedingJoinPoint joinPoint ) throws Throwable
-    {
-        return proceed( joinPoint, getExecutionNode( joinPoint, ExecutionNode.Type.MX_API ) );
-    }
-
-    /**
-     * Advice for LG CNS methods.  This advice merely wraps a timer around the original method
-     * @param joinPoint the join point representing the advised method
-     * @return the result of the method execution
-     * @throws Throwable if the advised method threw something
-     */
-    @Around( "lgeAPI()" )
-    public Object lgeAPI( ProceedingJoinPoint joinPoint ) throws Throwable
-    {
-        return proceed( joinPoint, getExecutionNode( joinPoint, ExecutionNode.Type.LG_CNS_API ) );
+        return MRIProfiler.INSTANCE.isRecording() &&
+                MRIProfiler.INSTANCE.getSwitchboard().isEnabled( ExecutionNode.Type.TCL_TRIGGER );
     }
 
     /**
@@ -181,9 +156,54 @@ public class MRIAspect
         return returnValue;
     }
 
+    /**
+     * Advice for core JPO invocation.  This advice notes invocations made by the trigger manager, whether or not
+     * they are timed, and wraps a timer around the original method as one of the main database access methods
+     * @param joinPoint the join point representing the advised method
+     * @return the result of the method execution
+     * @throws Throwable if the advised method threw something
+     */
+    @Around( "jpoSupport_invokeObject()" )
+    public Object jpoSupport_invokeObject( ProceedingJoinPoint joinPoint ) throws Throwable
+    {
+        MRIProfiler.TriggerContext previous = MRIProfiler.INSTANCE.getTriggerContext();
+        MRIProfiler.TriggerContext context = previous == MRIProfiler.TriggerContext.TRIGGER_MANAGER ?
+                MRIProfiler.TriggerContext.TRIGGER_INVOCATION : MRIProfiler.TriggerContext.NONE;
+
+        if ( context == previous )
+        {
+            return invokeObject( joinPoint );
+        }
+
+        MRIProfiler.INSTANCE.setTriggerContext( context );
+        try
+        {
+            return invokeObject( joinPoint );
+        }
+        finally
+        {
+            MRIProfiler.INSTANCE.setTriggerContext( previous );
+        }
+    }
+
+    private static Object invokeObject( ProceedingJoinPoint joinPoint ) throws Throwable
+    {
+        JoinPointNames names = JoinPointNames.get( joinPoint.getStaticPart() );
+        if ( !isEnabled( ExecutionNode.Type.MX_API, names ) )
+        {
+            return joinPoint.proceed();
+        }
+
+        MethodStatistics statistics = names.getStatistics( ExecutionNode.Type.MX_API, names.getTypeName(),
+                names.getMethod() );
+        return proceed( joinPoint, statistics, getParameters( joinPoint, ExecutionNode.Type.MX_API ) );
+    }
+
     /**
      * Advice for JPO methods.  This advice identifies invocations coming from the trigger manager (thus
-     * identifying Java triggers) and wraps a timer around the original method
+     * identifying Java triggers) and wraps a timer around the original method.  The trigger manager's mxMain
+     * method is noted whether or not it is timed, so that triggers are still identified when the trigger
+     * manager or the API methods are switched off
      * @param joinPoint the join point representing the advised method
      * @return the result of the method execution
      * @throws Throwable if the advised method threw something
@@ -191,35 +211,53 @@ public class MRIAspect
     @Around( "jpo_method()" )
     public Object jpo_method( ProceedingJoinPoint joinPoint ) throws Throwable
     {
-        ExecutionNode executionNode;
+        JoinPointNames names = JoinPointNames.get( joinPoint.getStaticPart() );
+        ExecutionNode.Type type = names.getType();
+        MRIProfiler.TriggerContext previous = MRIProfiler.INSTANCE.getTriggerContext();
+        MRIProfiler.TriggerContext context = names.isTriggerManagerMain() ?
+                MRIProfiler.TriggerContext.TRIGGER_MANAGER : MRIProfiler.TriggerContext.NONE;
+
+        if ( type == ExecutionNode.Type.JPO && previous == MRIProfiler.TriggerContext.TRIGGER_INVOCATION )
+        {
+            type = ExecutionNode.Type.JAVA_TRIGGER;
+        }
 
-        JPO jpo = new JPO();
-        jpo.setArgs( joinPoint.getArgs() );
-        jpo.setName( getJPOName( joinPoint.getSignature().getDeclaringTypeName() ) );
-        jpo.setMethod( getMethod( joinPoint ) );
+        if ( context == previous )
+        {
+            return jpoMethod( joinPoint, names, type );
+        }
 
-        if ( jpo.getName().startsWith( JPO_TRIGGER_MANAGER ) )
+        MRIProfiler.INSTANCE.setTriggerContext( context );
+        try
         {
-            executionNode = new ExecutionNode( ExecutionNode.Type.TRIGGER_MANAGER, jpo );
-            if ( jpo.getMethod().startsWith( MX_MAIN ) )
-            {
-                registerTriggers( jpo );
-            }
+            return jpoMethod( joinPoint, names, type );
         }
-        else if ( MRIProfiler.INSTANCE.isJavaTrigger() )
+        finally
         {
-            executionNode = new ExecutionNode( ExecutionNode.Type.JAVA_TRIGGER, jpo );
+            MRIProfiler.INSTANCE.setTriggerContext( previous );
         }
-        else
+    }
+
+    private static Object jpoMethod( ProceedingJoinPoint joinPoint, JoinPointNames names, ExecutionNode.Type type )
+            throws Throwable
+    {
+        if ( !isEnabled( type, names ) )
         {
-            executionNode = new ExecutionNode( ExecutionNode.Type.JPO, jpo );
+            return joinPoint.proceed();
         }
 
-        return proceed( joinPoint, executionNode );
+        if ( names.isTriggerManagerMain() )
+        {
+            registerTriggers( joinPoint.getArgs() );
+        }
+
+        MethodStatistics statistics = names.getStatistics( type, names.getJPOName(), names.getMethod() );
+        return proceed( joinPoint, statistics, getParameters( joinPoint, type ) );
     }
 
     /**
-     * Advice for JSP invocations.  This advice merely wraps a timer around the jsp_service method
+     * Advice for JSP invocations.  This advice decides whether the request is sampled, and if so wraps a
+     * timer around the jsp_service method
      * @param joinPoint the join point representing the advised method
      * @return the result of the method execution
      * @throws Throwable if the advised method threw something
@@ -227,10 +265,47 @@ public class MRIAspect
     @Around( "jsp_service()" )
     public Object jsp_service( ProceedingJoinPoint joinPoint ) throws Throwable
     {
-        String jspName = getJSPName( joinPoint.getSignature().getDeclaringTypeName() );
-        Object[] args = joinPoint.getArgs();
-        ExecutionNode executionNode = new ExecutionNode( ExecutionNode.Type.JSP, jspName, "jsp_service", args );
-        return proceed( joinPoint, executionNode );
+        boolean sampled = MRIProfiler.INSTANCE.beginRequest();
+        try
+        {
+            // in sampling mode the pointcut lets through every request, whatever the switches say
+            JoinPointNames names = JoinPointNames.get( joinPoint.getStaticPart() );
+            if ( sampled && isEnabled( names.getType(), names ) )
+            {
+                MethodStatistics statistics = names.getStatistics( names.getType(), names.getJSPName(),
+                        JSP_METHOD );
+                return proceed( joinPoint, statistics, getParameters( joinPoint, names.getType() ) );
+            }
+            else
+            {
+                return joinPoint.proceed();
+            }
+        }
+        finally
+        {
+            MRIProfiler.INSTANCE.endRequest();
+        }
+    }
+
+    /**
+     * Advice for JPO invocations.  This advice only decides whether the request is sampled, the JPO
+     * methods themselves are timed by {@link #jpo_method(ProceedingJoinPoint)}
+     * @param joinPoint the join point representing the advised method
+     * @return the result of the method execution
+     * @throws Throwable if the advised method threw something
+     */
+    @Around( "jpo_invoke()" )
+    public Object jpo_invoke( ProceedingJoinPoint joinPoint ) throws Throwable
+    {
+        MRIProfiler.INSTANCE.beginRequest();
+        try
+        {
+            return joinPoint.proceed();
+        }
+        finally
+        {
+            MRIProfiler.INSTANCE.endRequest();
+        }
     }
 
     /**
@@ -244,11 +319,14 @@ public class MRIAspect
     public Object triggerManager_mqlCommand( ProceedingJoinPoint joinPoint ) throws Throwable
     {
         String command = (String)joinPoint.getArgs()[1];
-        if ( command != null && command.startsWith( TCL_TRIGGER_WRAPPER ) )
+        if ( command != null && command.startsWith( TCL_TRIGGER_WRAPPER ) &&
+                isEnabled( ExecutionNode.Type.TCL_TRIGGER, JoinPointNames.get( joinPoint.getStaticPart() ) ) )
         {
+            // the program changes from call to call, so its statistics can't be kept with the join point
             String programName = getTCLProgramName( command );
-            ExecutionNode executionNode = new ExecutionNode( ExecutionNode.Type.TCL_TRIGGER, programName, "-", null );
-            return proceed( joinPoint, executionNode );
+            MethodStatistics statistics = MRIProfiler.INSTANCE.getMethodStatistics( ExecutionNode.Type.TCL_TRIGGER,
+                    programName, "-" );
+            return proceed( joinPoint, statistics, null );
         }
         else
         {
@@ -256,38 +334,48 @@ public class MRIAspect
         }
     }
 
-    private static ExecutionNode getExecutionNode( ProceedingJoinPoint joinPoint, ExecutionNode.Type type )
+    /**
+     * @param type the category of an advised method
+     * @param names the names of the method
+     * @return true if both the category and the method are switched on
+     */
+    static boolean isEnabled( ExecutionNode.Type type, JoinPointNames names )
     {
-        Object[] args = joinPoint.getArgs();
-        String name = joinPoint.getSignature().getDeclaringTypeName();
-        String method = getMethod( joinPoint );
+        return MRIProfiler.INSTANCE.getSwitchboard().isEnabled( type, names.getSwitchName() );
+    }
 
-        return new ExecutionNode( type, name, method, args );
+    static Object[] getParameters( JoinPoint joinPoint, ExecutionNode.Type type )
+    {
+        // getArgs() copies the argument array, so don't call it unless the parameters are wanted
+        if ( MRIProfiler.INSTANCE.getParameterCapture( type ) == ParameterCapture.NONE )
+        {
+            return null;
+        }
+
+        return MRIProfiler.INSTANCE.captureParameters( type, joinPoint.getArgs() );
     }
 
-    private static Object proceed( ProceedingJoinPoint joinPoint, ExecutionNode executionNode )
+    static Object proceed( ProceedingJoinPoint joinPoint, MethodStatistics statistics, Object[] parameters )
             throws Throwable
     {
         Object returnValue;
-        StopWatch stopWatch = MRIProfiler.INSTANCE.push( executionNode );
-        stopWatch.start();
+        MRIProfiler.INSTANCE.push( statistics, parameters );
         try
         {
             returnValue = joinPoint.proceed();
         }
         finally
         {
-            stopWatch.stop();
             MRIProfiler.INSTANCE.pop();
         }
 
         return returnValue;
     }
 
-    private static void registerTriggers( JPO jpo )
+    private static void registerTriggers( Object[] args )
     {
-        Context context = (Context)jpo.getArgs()[0];
-        String[] parameters = (String[])jpo.getArgs()[1];
+        Context context = (Context)args[0];
+        String[] parameters = (String[])args[1];
 
         boolean isProfilerActive = MRIProfiler.INSTANCE.isActive();
 
@@ -325,31 +413,4 @@ public class MRIAspect
         programName.delete( 0, lastQuoteIndex );
         return programName.toString();
     }
-
-    private static String getJSPName( String jspClassName )
-    {
-        StringBuilder jspName = new StringBuilder( jspClassName.replaceAll( "\\.", "/" ) );
-        jspName.delete( 0, "org.apache.jsp".length() );
-        jspName.setCharAt( jspName.length() - 4, '.' );
-        return jspName.toString();
-    }
-
-    private static String getMethod( JoinPoint joinPoint )
-    {
-        String type = joinPoint.getSignature().getDeclaringTypeName();
-        StringBuilder method = new StringBuilder( joinPoint.getSignature().toString() );
-
-        // delete the return type from the signature
-        method.delete( 0, method.indexOf( " " ) + 1 );
-
-        // delete the type from the signature
-        method.delete( 0, type.length() + 1 );
-
-        return method.toString();
-    }
-
-    private static String getJPOName( String longName )
-    {
-        return longName.substring( 0, longName.indexOf( "_mxJPO" ) );
-    }
-}
\ No newline at end of file
+}
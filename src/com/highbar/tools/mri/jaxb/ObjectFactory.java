@@ -44,6 +44,14 @@ public class ObjectFactory {
         return new XMethodSummary();
     }
 
+    /**
+     * Create an instance of {@link XCallingContext }
+     * 
+     */
+    public XCallingContext createXCallingContext() {
+        return new XCallingContext();
+    }
+
     /**
      * Create an instance of {@link XMissingTrigger }
      * 
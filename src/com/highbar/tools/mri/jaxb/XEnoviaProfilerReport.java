@@ -28,6 +28,7 @@ import java.util.List;
  *     &lt;restriction base="{http://www.w3.org/2001/XMLSchema}anyType">
  *       &lt;sequence>
  *         &lt;element name="activeTriggers" type="{}xTrigger" maxOccurs="unbounded" minOccurs="0"/>
+ *         &lt;element name="callingContexts" type="{}xCallingContext" maxOccurs="unbounded" minOccurs="0"/>
  *         &lt;element name="inactiveTriggers" type="{}xTrigger" maxOccurs="unbounded" minOccurs="0"/>
  *         &lt;element name="methodSummary" type="{}xMethodSummary" maxOccurs="unbounded" minOccurs="0"/>
  *         &lt;element name="missingTriggers" type="{}xMissingTrigger" maxOccurs="unbounded" minOccurs="0"/>
@@ -45,6 +46,7 @@ import java.util.List;
 @XmlAccessorType(XmlAccessType.FIELD)
 @XmlType(name = "xEnoviaProfilerReport", propOrder = {
     "activeTriggers",
+    "callingContexts",
     "inactiveTriggers",
     "methodSummary",
     "missingTriggers",
@@ -56,6 +58,8 @@ public class XEnoviaProfilerReport {
     @XmlElement(nillable = true)
     protected List<XTrigger> activeTriggers;
     @XmlElement(nillable = true)
+    protected List<XCallingContext> callingContexts;
+    @XmlElement(nillable = true)
     protected List<XTrigger> inactiveTriggers;
     @XmlElement(nillable = true)
     protected List<XMethodSummary> methodSummary;
@@ -94,6 +98,35 @@ public class XEnoviaProfilerReport {
         return this.activeTriggers;
     }
 
+    /**
+     * Gets the value of the callingContexts property.
+     * 
+     * <p>
+     * This accessor method returns a reference to the live list,
+     * not a snapshot. Therefore any modification you make to the
+     * returned list will be present inside the JAXB object.
+     * This is why there is not a <CODE>set</CODE> method for the callingContexts property.
+     * 
+     * <p>
+     * For example, to add a new item, do as follows:
+     * <pre>
+     *    getCallingContexts().add(newItem);
+     * </pre>
+     * 
+     * 
+     * <p>
+     * Objects of the following type(s) are allowed in the list
+     * {@link XCallingContext }
+     * 
+     * 
+     */
+    public List<XCallingContext> getCallingContexts() {
+        if (callingContexts == null) {
+            callingContexts = new ArrayList<XCallingContext>();
+        }
+        return this.callingContexts;
+    }
+
     /**
      * Gets the value of the inactiveTriggers property.
      * 
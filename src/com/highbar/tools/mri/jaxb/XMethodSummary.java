@@ -24,9 +24,15 @@ import javax.xml.bind.annotation.XmlType;
  *     &lt;restriction base="{http://www.w3.org/2001/XMLSchema}anyType">
  *       &lt;sequence>
  *         &lt;element name="averageTime" type="{http://www.w3.org/2001/XMLSchema}long"/>
- *         &lt;element name="invocations" type="{http://www.w3.org/2001/XMLSchema}int"/>
+ *         &lt;element name="histogram" type="{http://www.w3.org/2001/XMLSchema}string" minOccurs="0"/>
+ *         &lt;element name="invocations" type="{http://www.w3.org/2001/XMLSchema}long"/>
+ *         &lt;element name="maxTime" type="{http://www.w3.org/2001/XMLSchema}long"/>
  *         &lt;element name="method" type="{http://www.w3.org/2001/XMLSchema}string" minOccurs="0"/>
  *         &lt;element name="name" type="{http://www.w3.org/2001/XMLSchema}string" minOccurs="0"/>
+ *         &lt;element name="p50" type="{http://www.w3.org/2001/XMLSchema}long"/>
+ *         &lt;element name="p90" type="{http://www.w3.org/2001/XMLSchema}long"/>
+ *         &lt;element name="p99" type="{http://www.w3.org/2001/XMLSchema}long"/>
+ *         &lt;element name="p999" type="{http://www.w3.org/2001/XMLSchema}long"/>
  *         &lt;element name="totalTime" type="{http://www.w3.org/2001/XMLSchema}long"/>
  *         &lt;element name="type" type="{http://www.w3.org/2001/XMLSchema}string" minOccurs="0"/>
  *       &lt;/sequence>
@@ -40,18 +46,30 @@ import javax.xml.bind.annotation.XmlType;
 @XmlAccessorType(XmlAccessType.FIELD)
 @XmlType(name = "xMethodSummary", propOrder = {
     "averageTime",
+    "histogram",
     "invocations",
+    "maxTime",
     "method",
     "name",
+    "p50",
+    "p90",
+    "p99",
+    "p999",
     "totalTime",
     "type"
 })
 public class XMethodSummary {
 
     protected long averageTime;
-    protected int invocations;
+    protected String histogram;
+    protected long invocations;
+    protected long maxTime;
     protected String method;
     protected String name;
+    protected long p50;
+    protected long p90;
+    protected long p99;
+    protected long p999;
     protected long totalTime;
     protected String type;
 
@@ -71,11 +89,35 @@ public class XMethodSummary {
         this.averageTime = value;
     }
 
+    /**
+     * Gets the value of the histogram property.
+     * 
+     * @return
+     *     possible object is
+     *     {@link String }
+     *     
+     */
+    public String getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Sets the value of the histogram property.
+     * 
+     * @param value
+     *     allowed object is
+     *     {@link String }
+     *     
+     */
+    public void setHistogram(String value) {
+        this.histogram = value;
+    }
+
     /**
      * Gets the value of the invocations property.
      * 
      */
-    public int getInvocations() {
+    public long getInvocations() {
         return invocations;
     }
 
@@ -83,10 +125,26 @@ public class XMethodSummary {
      * Sets the value of the invocations property.
      * 
      */
-    public void setInvocations(int value) {
+    public void setInvocations(long value) {
         this.invocations = value;
     }
 
+    /**
+     * Gets the value of the maxTime property.
+     * 
+     */
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * Sets the value of the maxTime property.
+     * 
+     */
+    public void setMaxTime(long value) {
+        this.maxTime = value;
+    }
+
     /**
      * Gets the value of the method property.
      * 
@@ -135,6 +193,70 @@ public class XMethodSummary {
         this.name = value;
     }
 
+    /**
+     * Gets the value of the p50 property.
+     * 
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * Sets the value of the p50 property.
+     * 
+     */
+    public void setP50(long value) {
+        this.p50 = value;
+    }
+
+    /**
+     * Gets the value of the p90 property.
+     * 
+     */
+    public long getP90() {
+        return p90;
+    }
+
+    /**
+     * Sets the value of the p90 property.
+     * 
+     */
+    public void setP90(long value) {
+        this.p90 = value;
+    }
+
+    /**
+     * Gets the value of the p99 property.
+     * 
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * Sets the value of the p99 property.
+     * 
+     */
+    public void setP99(long value) {
+        this.p99 = value;
+    }
+
+    /**
+     * Gets the value of the p999 property.
+     * 
+     */
+    public long getP999() {
+        return p999;
+    }
+
+    /**
+     * Sets the value of the p999 property.
+     * 
+     */
+    public void setP999(long value) {
+        this.p999 = value;
+    }
+
     /**
      * Gets the value of the totalTime property.
      * 
@@ -0,0 +1,72 @@
+package com.highbar.tools.mri.jmx;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Turns ever increasing invocation counts into rates.  Each time a count is read, its rate is worked out
+ *   from the change since the previous reading, so a console polling the MBean sees the rate over its own
+ *   polling interval.  Readings closer together than a second return the previous rate.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class InvocationRates
+{
+    private static final long MIN_INTERVAL_NANOS = 1000000000L;
+
+    private final Map<Object, Sample> samples = new HashMap<Object, Sample>();
+
+    /**
+     * @param key identifies what is being counted
+     * @param count the current count
+     * @return the number of invocations per second since the previous reading, zero for the first reading
+     */
+    synchronized double getRate( Object key, long count )
+    {
+        long now = System.nanoTime();
+        Sample sample = samples.get( key );
+
+        if ( sample == null || count < sample.count )
+        {
+            // first reading, or the profiler has been cleared
+            samples.put( key, new Sample( now, count ) );
+            return 0;
+        }
+
+        long interval = now - sample.time;
+        if ( interval >= MIN_INTERVAL_NANOS )
+        {
+            sample.rate = ( count - sample.count ) * 1000000000d / interval;
+            sample.time = now;
+            sample.count = count;
+        }
+
+        return sample.rate;
+    }
+
+    synchronized void clear()
+    {
+        samples.clear();
+    }
+
+    private static class Sample
+    {
+        private long time;
+        private long count;
+        private double rate;
+
+        Sample( long time, long count )
+        {
+            this.time = time;
+            this.count = count;
+        }
+    }
+}
@@ -1,11 +1,36 @@
 package com.highbar.tools.mri.jmx;
 
+import com.highbar.tools.mri.monitor.ExecutionNode;
 import com.highbar.tools.mri.monitor.MRIProfiler;
+import com.highbar.tools.mri.monitor.MethodStatistics;
+import com.highbar.tools.mri.monitor.MethodTotals;
+import com.highbar.tools.mri.monitor.ParameterCapture;
+import com.highbar.tools.mri.monitor.ProfileSnapshot;
+import com.highbar.tools.mri.monitor.StatisticsWindow;
+import com.highbar.tools.mri.monitor.Switchboard;
+import com.highbar.tools.mri.monitor.TypeStatistics;
+import com.highbar.tools.mri.report.MRIBinaryReportWriter;
+import com.highbar.tools.mri.report.MRIFlameGraphWriter;
 import com.highbar.tools.mri.report.MRIReportWriter;
+import com.highbar.tools.mri.report.ReportProgressListener;
+import com.highbar.tools.trigger.cache.TriggerProgramParameters;
 
 import javax.management.Notification;
 import javax.management.NotificationBroadcasterSupport;
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <dl>
@@ -22,42 +47,514 @@ import java.io.FileNotFoundException;
  */
 public class MRIMonitor extends NotificationBroadcasterSupport implements MRIMonitorMBean
 {
-    private long notifications = 0;
+    private static final String WINDOW_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final String SHORT_TIME_FORMAT = "yyyy-MM-dd HH:mm";
+
+    private final AtomicLong notifications = new AtomicLong();
+    private volatile int topMethodCount = 10;
+    private final InvocationRates invocationRates = new InvocationRates();
+
+    /**
+     * Writes reports one at a time, off the thread that asked for them
+     */
+    private final ExecutorService reportWriter = Executors.newSingleThreadExecutor( new ThreadFactory()
+    {
+        public Thread newThread( Runnable r )
+        {
+            Thread thread = new Thread( r, "MRI Report Writer" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
 
     public void clear()
     {
         MRIProfiler.INSTANCE.clear();
-        Notification n = new Notification( "Status", this, ++notifications, "Enovia Profiler Log Cleared" );
+        invocationRates.clear();
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(), "Enovia Profiler Log Cleared" );
         sendNotification( n );
     }
 
     public void start()
     {
         MRIProfiler.INSTANCE.setActive( true );
-        Notification n = new Notification( "Status", this, ++notifications, "Enovia Profiler Started" );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(), "Enovia Profiler Started" );
         sendNotification( n );
     }
 
     public void stop()
     {
         MRIProfiler.INSTANCE.setActive( false );
-        Notification n = new Notification( "Status", this, ++notifications, "Enovia Profiler Stopped" );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(), "Enovia Profiler Stopped" );
         sendNotification( n );
     }
 
     public void report( String fileName )
     {
+        report( fileName, true );
+    }
+
+    public void reportCallPaths( String fileName )
+    {
+        report( fileName, false );
+    }
+
+    private void report( final String fileName, final boolean includeStackTraces )
+    {
+        final ProfileSnapshot snapshot = MRIProfiler.INSTANCE.takeSnapshot();
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Writing report to: " + fileName );
+        sendNotification( n );
+
+        reportWriter.execute( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    writeReport( fileName, snapshot, includeStackTraces );
+                }
+                finally
+                {
+                    snapshot.release();
+                }
+            }
+        } );
+    }
+
+    private void writeReport( final String fileName, ProfileSnapshot snapshot, boolean includeStackTraces )
+    {
+        ReportProgressListener progressListener = new ReportProgressListener()
+        {
+            private int lastPercent = 0;
+
+            public void threadWritten( int threadsWritten, int threadCount )
+            {
+                // a notification for every tenth of the threads is plenty
+                int percent = threadsWritten * 100 / threadCount;
+                if ( percent / 10 > lastPercent / 10 && threadsWritten < threadCount )
+                {
+                    lastPercent = percent;
+                    Notification n = new Notification( "Progress", MRIMonitor.this, notifications.incrementAndGet(),
+                            "Report " + percent + "% written: " + fileName );
+                    sendNotification( n );
+                }
+            }
+        };
+
         Notification n;
-        MRIReportWriter generator = new MRIReportWriter();
         try
         {
-            generator.createReport( fileName );
-            n = new Notification( "Status", this, ++notifications, "Report created in: " + fileName );
+            if ( MRIFlameGraphWriter.isFlameGraph( fileName ) )
+            {
+                MRIFlameGraphWriter writer = new MRIFlameGraphWriter();
+                writer.setProgressListener( progressListener );
+                writer.setIncludeStackTraces( includeStackTraces );
+                writer.createReport( fileName, snapshot );
+            }
+            else if ( fileName.endsWith( MRIBinaryReportWriter.FILE_EXTENSION ) )
+            {
+                MRIBinaryReportWriter writer = new MRIBinaryReportWriter();
+                writer.setProgressListener( progressListener );
+                writer.setIncludeStackTraces( includeStackTraces );
+                writer.createReport( fileName, snapshot );
+            }
+            else
+            {
+                MRIReportWriter writer = new MRIReportWriter();
+                writer.setProgressListener( progressListener );
+                writer.setIncludeStackTraces( includeStackTraces );
+                writer.createReport( fileName, snapshot );
+            }
+            n = new Notification( "Status", this, notifications.incrementAndGet(), "Report created in: " + fileName );
+        }
+        catch( IOException e )
+        {
+            n = new Notification( "Error", this, notifications.incrementAndGet(), e.getMessage() );
+        }
+        catch( RuntimeException e )
+        {
+            n = new Notification( "Error", this, notifications.incrementAndGet(),
+                    "Report " + fileName + " failed: " + e );
+        }
+        sendNotification( n );
+    }
+
+    public int getMaxTreesPerThread()
+    {
+        return MRIProfiler.INSTANCE.getMaxTreesPerThread();
+    }
+
+    public void setMaxTreesPerThread( int maxTreesPerThread )
+    {
+        MRIProfiler.INSTANCE.setMaxTreesPerThread( maxTreesPerThread );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler keeping " + ( maxTreesPerThread == 0 ? "all" : "the last " + maxTreesPerThread ) +
+                " call trees per thread" );
+        sendNotification( n );
+    }
+
+    public int getOffHeapSlabMegabytes()
+    {
+        return MRIProfiler.INSTANCE.getOffHeapSlabSize() / ( 1024 * 1024 );
+    }
+
+    public void setOffHeapSlabMegabytes( int slabMegabytes )
+    {
+        if ( slabMegabytes < 0 || slabMegabytes > 1024 )
+        {
+            throw new IllegalArgumentException( "slabMegabytes must be between 0 and 1024: " + slabMegabytes );
+        }
+
+        MRIProfiler.INSTANCE.setOffHeapSlabSize( slabMegabytes * 1024 * 1024 );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler keeping call trees " +
+                        ( slabMegabytes == 0 ? "on the heap" : "off the heap in " + slabMegabytes + "MB buffers" ) );
+        sendNotification( n );
+    }
+
+    public void startSpilling( String directory, int budgetMegabytes ) throws IOException
+    {
+        MRIProfiler.INSTANCE.startSpilling( new File( directory ), budgetMegabytes * 1024L * 1024 );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler spilling call trees past " + budgetMegabytes + "MB to " + directory );
+        sendNotification( n );
+    }
+
+    public void stopSpilling()
+    {
+        MRIProfiler.INSTANCE.stopSpilling();
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler keeping call trees in memory" );
+        sendNotification( n );
+    }
+
+    public boolean isSpilling()
+    {
+        return MRIProfiler.INSTANCE.isSpilling();
+    }
+
+    public int getSampleRate()
+    {
+        return MRIProfiler.INSTANCE.getSampleRate();
+    }
+
+    public void setSampleRate( int sampleRate )
+    {
+        MRIProfiler.INSTANCE.setSampleRate( sampleRate );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler recording 1 in " + sampleRate + " requests" );
+        sendNotification( n );
+    }
+
+    public String[] getParameterCaptures()
+    {
+        ExecutionNode.Type[] types = ExecutionNode.Type.values();
+        String[] captures = new String[types.length];
+        for ( int i = 0; i < types.length; i++ )
+        {
+            captures[i] = types[i] + "=" + MRIProfiler.INSTANCE.getParameterCapture( types[i] );
+        }
+        return captures;
+    }
+
+    public void setParameterCapture( String type, String parameterCapture )
+    {
+        ExecutionNode.Type t = ExecutionNode.Type.valueOf( type.trim().toUpperCase() );
+        ParameterCapture capture = ParameterCapture.valueOf( parameterCapture.trim().toUpperCase() );
+        MRIProfiler.INSTANCE.setParameterCapture( t, capture );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler capturing " + t + " parameters as " + capture );
+        sendNotification( n );
+    }
+
+    public int getParameterSnapshotLength()
+    {
+        return MRIProfiler.INSTANCE.getParameterSnapshotLength();
+    }
+
+    public void setParameterSnapshotLength( int parameterSnapshotLength )
+    {
+        MRIProfiler.INSTANCE.setParameterSnapshotLength( parameterSnapshotLength );
+    }
+
+    public long getInvocations()
+    {
+        long invocations = 0;
+        for ( ExecutionNode.Type type : ExecutionNode.Type.values() )
+        {
+            invocations += MRIProfiler.INSTANCE.getTypeStatistics( type ).getInvocations();
+        }
+        return invocations;
+    }
+
+    public double getInvocationsPerSecond()
+    {
+        return invocationRates.getRate( "all", getInvocations() );
+    }
+
+    public int getTopMethodCount()
+    {
+        return topMethodCount;
+    }
+
+    public void setTopMethodCount( int topMethodCount )
+    {
+        if ( topMethodCount < 1 )
+        {
+            throw new IllegalArgumentException( "topMethodCount must be at least 1: " + topMethodCount );
+        }
+
+        this.topMethodCount = topMethodCount;
+    }
+
+    public String[] getTopMethods()
+    {
+        return topMethods( topMethodCount );
+    }
+
+    public String[] topMethods( int count )
+    {
+        List<MethodStatistics> top = MRIProfiler.INSTANCE.getTopMethodStatistics( count );
+        String[] methods = new String[top.size()];
+
+        for ( int i = 0; i < methods.length; i++ )
+        {
+            MethodStatistics statistics = top.get( i );
+            long invocations = statistics.getInvocations();
+            long netTime = statistics.getNetTime();
+
+            methods[i] = statistics.getType() + " " + statistics.getName() + "." + statistics.getMethod() +
+                    " - invocations: " + invocations +
+                    ", per second: " + formatRate( invocationRates.getRate( statistics, invocations ) ) +
+                    ", net: " + nanosToMillis( netTime ) + "ms" +
+                    ", average: " + nanosToMillis( invocations == 0 ? 0 : netTime / invocations ) + "ms" +
+                    ", p99: " + nanosToMillis( statistics.getLatencies().getValueAtPercentile( 99 ) ) + "ms" +
+                    ", max: " + nanosToMillis( statistics.getMaxTime() ) + "ms";
+        }
+
+        return methods;
+    }
+
+    public String[] getTypeTotals()
+    {
+        List<String> totals = new ArrayList<String>();
+        for ( ExecutionNode.Type type : ExecutionNode.Type.values() )
+        {
+            TypeStatistics statistics = MRIProfiler.INSTANCE.getTypeStatistics( type );
+            long invocations = statistics.getInvocations();
+            if ( invocations != 0 )
+            {
+                totals.add( type + " - invocations: " + invocations +
+                        ", per second: " + formatRate( invocationRates.getRate( type, invocations ) ) +
+                        ", total: " + nanosToMillis( statistics.getTotalTime() ) + "ms" +
+                        ", net: " + nanosToMillis( statistics.getNetTime() ) + "ms" );
+            }
+        }
+
+        return totals.toArray( new String[totals.size()] );
+    }
+
+    public long getTriggerInvocations()
+    {
+        long invocations = 0;
+        for ( int count : MRIProfiler.INSTANCE.getTriggers().values() )
+        {
+            invocations += count;
+        }
+        return invocations;
+    }
+
+    public String[] getTriggerCounts()
+    {
+        List<Map.Entry<TriggerProgramParameters, Integer>> triggers =
+                new ArrayList<Map.Entry<TriggerProgramParameters, Integer>>( MRIProfiler.INSTANCE.getTriggers().entrySet() );
+
+        Collections.sort( triggers, new Comparator<Map.Entry<TriggerProgramParameters, Integer>>()
+        {
+            public int compare( Map.Entry<TriggerProgramParameters, Integer> one,
+                                Map.Entry<TriggerProgramParameters, Integer> two )
+            {
+                return two.getValue().compareTo( one.getValue() );
+            }
+        } );
+
+        String[] counts = new String[triggers.size()];
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            TriggerProgramParameters trigger = triggers.get( i ).getKey();
+            counts[i] = trigger.getName() + " " + trigger.getRevision() + " (" + trigger.getProgramName() +
+                    ( trigger.isActive() ? "" : ", inactive" ) + ") - invocations: " + triggers.get( i ).getValue();
+        }
+
+        return counts;
+    }
+
+    public long getMissingTriggerAttempts()
+    {
+        long attempts = 0;
+        for ( int count : MRIProfiler.INSTANCE.getMissingTriggers().values() )
+        {
+            attempts += count;
+        }
+        return attempts;
+    }
+
+    public void startContinuousProfiling( String directory, int windowSeconds, int windowCount,
+                                          long maxDirectoryMegabytes )
+    {
+        MRIProfiler.INSTANCE.startContinuousProfiling( new File( directory ), windowSeconds * 1000L, windowCount,
+                maxDirectoryMegabytes * 1024 * 1024 );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler keeping " + windowCount + " windows of " + windowSeconds +
+                " seconds, snapshots in " + directory );
+        sendNotification( n );
+    }
+
+    public void stopContinuousProfiling()
+    {
+        MRIProfiler.INSTANCE.stopContinuousProfiling();
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler continuous profiling stopped" );
+        sendNotification( n );
+    }
+
+    public boolean isContinuousProfiling()
+    {
+        return MRIProfiler.INSTANCE.isContinuousProfiling();
+    }
+
+    public String[] getRecentWindows()
+    {
+        List<StatisticsWindow> windows = MRIProfiler.INSTANCE.getRecentWindows();
+        String[] descriptions = new String[windows.size()];
+
+        for ( int i = 0; i < descriptions.length; i++ )
+        {
+            descriptions[i] = describe( windows.get( i ) );
+        }
+
+        return descriptions;
+    }
+
+    public String[] windowStatistics( String time ) throws IOException
+    {
+        StatisticsWindow window = MRIProfiler.INSTANCE.getWindow( parseTime( time ) );
+        if ( window == null )
+        {
+            return new String[0];
         }
-        catch( FileNotFoundException e )
+
+        List<MethodTotals> methodTotals = window.getMethodTotals();
+        Collections.sort( methodTotals, new Comparator<MethodTotals>()
+        {
+            public int compare( MethodTotals one, MethodTotals two )
+            {
+                return one.getNetTime() > two.getNetTime() ? -1 : ( one.getNetTime() == two.getNetTime() ? 0 : 1 );
+            }
+        } );
+
+        List<String> rows = new ArrayList<String>();
+        rows.add( describe( window ) );
+        for ( MethodTotals totals : methodTotals )
+        {
+            long invocations = totals.getInvocations();
+            rows.add( totals.getType() + " " + totals.getName() + "." + totals.getMethod() +
+                    " - invocations: " + invocations +
+                    ", net: " + nanosToMillis( totals.getNetTime() ) + "ms" +
+                    ", average: " + nanosToMillis( invocations == 0 ? 0 : totals.getNetTime() / invocations ) + "ms" +
+                    ", max: " + nanosToMillis( totals.getMaxTime() ) + "ms" );
+        }
+
+        return rows.toArray( new String[rows.size()] );
+    }
+
+    public String[] getCategorySwitches()
+    {
+        Switchboard switchboard = MRIProfiler.INSTANCE.getSwitchboard();
+        List<String> switches = new ArrayList<String>();
+        for ( ExecutionNode.Type type : ExecutionNode.Type.values() )
         {
-            n = new Notification( "Error", this, ++notifications, e.getMessage() );
+            if ( type != ExecutionNode.Type.ROOT )
+            {
+                switches.add( type + "=" + ( switchboard.isEnabled( type ) ? "on" : "off" ) );
+            }
         }
+        return switches.toArray( new String[switches.size()] );
+    }
+
+    public void setCategoryEnabled( String type, boolean enabled )
+    {
+        ExecutionNode.Type t = ExecutionNode.Type.valueOf( type.trim().toUpperCase() );
+        MRIProfiler.INSTANCE.getSwitchboard().setEnabled( t, enabled );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler " + ( enabled ? "profiling " : "not profiling " ) + t );
+        sendNotification( n );
+    }
+
+    public String[] getMethodSwitches()
+    {
+        List<String> switches = new ArrayList<String>();
+        for ( Map.Entry<String, Boolean> entry : MRIProfiler.INSTANCE.getSwitchboard().getMethodSwitches().entrySet() )
+        {
+            switches.add( entry.getKey() + "=" + ( entry.getValue() ? "on" : "off" ) );
+        }
+        return switches.toArray( new String[switches.size()] );
+    }
+
+    public void setMethodEnabled( String method, boolean enabled )
+    {
+        MRIProfiler.INSTANCE.getSwitchboard().setEnabled( method.trim(), enabled );
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler " + ( enabled ? "profiling " : "not profiling " ) + method.trim() );
         sendNotification( n );
     }
-}
\ No newline at end of file
+
+    public void resetSwitches()
+    {
+        MRIProfiler.INSTANCE.getSwitchboard().reset();
+        Notification n = new Notification( "Status", this, notifications.incrementAndGet(),
+                "Enovia Profiler profiling every category and method" );
+        sendNotification( n );
+    }
+
+    private static String describe( StatisticsWindow window )
+    {
+        long netTime = 0;
+        for ( MethodTotals totals : window.getMethodTotals() )
+        {
+            netTime += totals.getNetTime();
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat( WINDOW_TIME_FORMAT );
+        return format.format( new Date( window.getStartTime() ) ) + " to " +
+                format.format( new Date( window.getEndTime() ) ) +
+                " - invocations: " + window.getInvocations() +
+                ", net: " + nanosToMillis( netTime ) + "ms";
+    }
+
+    private static long parseTime( String time )
+    {
+        String trimmed = time.trim();
+        try
+        {
+            String pattern = trimmed.length() > SHORT_TIME_FORMAT.length() ? WINDOW_TIME_FORMAT : SHORT_TIME_FORMAT;
+            return new SimpleDateFormat( pattern ).parse( trimmed ).getTime();
+        }
+        catch( ParseException e )
+        {
+            throw new IllegalArgumentException( "Expected " + SHORT_TIME_FORMAT + " or " + WINDOW_TIME_FORMAT +
+                    ": " + time );
+        }
+    }
+
+    private static String nanosToMillis( long nanos )
+    {
+        return String.format( "%.2f", nanos / 1000000d );
+    }
+
+    private static String formatRate( double rate )
+    {
+        return String.format( "%.1f", rate );
+    }
+}
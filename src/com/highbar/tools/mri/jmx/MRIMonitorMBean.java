@@ -1,5 +1,7 @@
 package com.highbar.tools.mri.jmx;
 
+import java.io.IOException;
+
 /**
  * <dl>
  * <dt><b>Description:</b>
@@ -18,5 +20,221 @@ public interface MRIMonitorMBean
     public void clear();
     public void start();
     public void stop();
+
+    /**
+     * Writes a report of the profile.  A file name ending in .mri produces the compact binary format, one ending
+     * in .svg, .html or .folded produces a flame graph of the call trees weighted by net time, and anything else
+     * produces the xml format.  A snapshot of the profile is taken straight away and written on a
+     * background thread, so this returns before the report is finished.  Progress, completion and failure are
+     * sent as notifications
+     * @param fileName the name of the report file
+     */
     public void report( String fileName );
+
+    /**
+     * Writes a report of the profile like report(), but without the call trees of each thread.  Calls made along
+     * the same call path are merged in the report's calling context tree, so the report stays small however
+     * many calls were made
+     * @param fileName the name of the report file
+     */
+    public void reportCallPaths( String fileName );
+
+    /**
+     * @return the number of completed top-level call trees kept per thread, zero if there is no limit
+     */
+    public int getMaxTreesPerThread();
+
+    /**
+     * Bounds the memory used by profiling.  Each thread keeps only its last N completed top-level call trees,
+     * while method statistics continue to accumulate
+     * @param maxTreesPerThread the number of trees to keep per thread, or zero to keep all of them
+     */
+    public void setMaxTreesPerThread( int maxTreesPerThread );
+
+    /**
+     * @return the size in megabytes of the direct buffers call trees are kept in, zero if they are kept on the heap
+     */
+    public int getOffHeapSlabMegabytes();
+
+    /**
+     * Keeps the call trees completed from now on outside the Java heap, so that a long profiling session doesn't
+     * change the garbage collection behaviour of the server.  Direct memory is limited by -XX:MaxDirectMemorySize
+     * @param slabMegabytes the size in megabytes of each direct buffer, or zero to keep trees on the heap
+     */
+    public void setOffHeapSlabMegabytes( int slabMegabytes );
+
+    /**
+     * Keeps the memory taken up by call trees within a budget by moving the oldest completed trees to a spill
+     * file.  Reports read the spilled trees back, so nothing is lost from them
+     * @param directory the directory to create the spill file in
+     * @param budgetMegabytes the most megabytes the call trees may take up in memory
+     * @throws IOException if the spill file cannot be created
+     */
+    public void startSpilling( String directory, int budgetMegabytes ) throws IOException;
+
+    /**
+     * Stops moving call trees to disk.  Trees already spilled stay in the reports until the profiler is cleared
+     */
+    public void stopSpilling();
+
+    /**
+     * @return true if call trees are moved to disk past a memory budget
+     */
+    public boolean isSpilling();
+
+    /**
+     * @return the sampling rate, 1 if every request is recorded
+     */
+    public int getSampleRate();
+
+    /**
+     * Records only one in every N requests (JSP or JPO invocations).  Calls made by requests that are not
+     * sampled skip the profiler entirely, which keeps the overhead low enough to leave profiling on
+     * @param sampleRate the sampling rate, 1 to record every request
+     */
+    public void setSampleRate( int sampleRate );
+
+    /**
+     * @return the parameter capture policy of each execution node type, as TYPE=POLICY
+     */
+    public String[] getParameterCaptures();
+
+    /**
+     * Changes how the parameter values of a type of execution node are captured.  NONE records nothing, TYPES
+     * records only the class of each parameter, SNAPSHOT records a truncated string value when the method is
+     * called, and FULL keeps the parameter objects until the report is written
+     * @param type the execution node type, e.g. JSP or MX_API
+     * @param parameterCapture one of NONE, TYPES, SNAPSHOT or FULL
+     */
+    public void setParameterCapture( String type, String parameterCapture );
+
+    /**
+     * @return the maximum length of a SNAPSHOT parameter value
+     */
+    public int getParameterSnapshotLength();
+
+    /**
+     * @param parameterSnapshotLength the maximum length of a SNAPSHOT parameter value, longer values are truncated
+     */
+    public void setParameterSnapshotLength( int parameterSnapshotLength );
+
+    /**
+     * @return the number of completed invocations of all profiled methods
+     */
+    public long getInvocations();
+
+    /**
+     * @return the number of invocations per second since this attribute was last read
+     */
+    public double getInvocationsPerSecond();
+
+    /**
+     * @return the number of methods listed by the TopMethods attribute
+     */
+    public int getTopMethodCount();
+
+    /**
+     * @param topMethodCount the number of methods listed by the TopMethods attribute, at least 1
+     */
+    public void setTopMethodCount( int topMethodCount );
+
+    /**
+     * @return the methods with the highest net time, highest first, with their invocation counts, rates and timings
+     */
+    public String[] getTopMethods();
+
+    /**
+     * @param count the number of methods to list
+     * @return the methods with the highest net time, highest first, with their invocation counts, rates and timings
+     */
+    public String[] topMethods( int count );
+
+    /**
+     * @return the invocation counts, rates and timings of each type of execution node
+     */
+    public String[] getTypeTotals();
+
+    /**
+     * @return the number of trigger invocations
+     */
+    public long getTriggerInvocations();
+
+    /**
+     * @return each trigger that has been invoked with its invocation count, most invoked first
+     */
+    public String[] getTriggerCounts();
+
+    /**
+     * @return the number of attempts to invoke triggers that have no trigger program parameters object
+     */
+    public long getMissingTriggerAttempts();
+
+    /**
+     * Turns on continuous profiling, where method totals are kept for each window of time and a snapshot of each
+     * window is written to a directory when it ends.  Only records while the profiler is started
+     * @param directory the directory to write the snapshots to
+     * @param windowSeconds the length of each window in seconds, e.g. 60
+     * @param windowCount the number of recent windows kept in memory, e.g. 60 for the last hour of one minute
+     *        windows
+     * @param maxDirectoryMegabytes the most megabytes the snapshots may take up before the oldest are deleted,
+     *        zero for no limit
+     */
+    public void startContinuousProfiling( String directory, int windowSeconds, int windowCount,
+                                          long maxDirectoryMegabytes );
+
+    /**
+     * Turns off continuous profiling
+     */
+    public void stopContinuousProfiling();
+
+    /**
+     * @return true if continuous profiling is on
+     */
+    public boolean isContinuousProfiling();
+
+    /**
+     * @return the start time and totals of each window of continuous profiling held in memory, oldest first
+     */
+    public String[] getRecentWindows();
+
+    /**
+     * Looks up the method totals of the continuous profiling window containing a time.  Windows no longer held
+     * in memory are read from their snapshots
+     * @param time the time, as yyyy-MM-dd HH:mm or yyyy-MM-dd HH:mm:ss
+     * @return a description of the window followed by the totals of each method invoked during it, highest
+     *         net time first.  Empty if there is no window for the time
+     * @throws IOException if the window's snapshot cannot be read
+     */
+    public String[] windowStatistics( String time ) throws IOException;
+
+    /**
+     * @return whether each category of execution node is being profiled, as TYPE=on or TYPE=off
+     */
+    public String[] getCategorySwitches();
+
+    /**
+     * Switches profiling of a category of execution node on or off without re-weaving, e.g. to cut the
+     * overhead of MX_API calls while still profiling JPOs and triggers
+     * @param type the category, e.g. MX_API
+     * @param enabled true to profile the category
+     */
+    public void setCategoryEnabled( String type, boolean enabled );
+
+    /**
+     * @return each method that has been switched, as declaringType.method=on or declaringType.method=off
+     */
+    public String[] getMethodSwitches();
+
+    /**
+     * Switches profiling of a method on or off without re-weaving.  The switch covers every overload of the
+     * method
+     * @param method the declaring type and name of the method, e.g. matrix.db.BusinessObject.getInfo
+     * @param enabled true to profile the method
+     */
+    public void setMethodEnabled( String method, boolean enabled );
+
+    /**
+     * Switches every category and method back on
+     */
+    public void resetSwitches();
 }
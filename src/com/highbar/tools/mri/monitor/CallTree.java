@@ -0,0 +1,417 @@
+package com.highbar.tools.mri.monitor;
+
+import com.highbar.util.AbstractTreeNode;
+import com.highbar.util.TreeNode;
+import com.highbar.util.UnsynchronizedStack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   A completed top-level call tree (e.g. one JSP request) as it was recorded by its thread: a log of enter and
+ *   exit events rather than a graph of objects.  Each event takes two longs, the id of the method entered (or
+ *   {@link #EXIT}) and the System.nanoTime() at which it happened, so the events of a tree are its calls in
+ *   preorder with each call's exit following its last callee.
+ * <p/>
+ *   The execution nodes are only rebuilt when the tree is read, e.g. when a report is written, by replaying the
+ *   events with the same arithmetic the recorder used, so the rebuilt times match the method statistics
+ *   exactly.  The top of the tree is rebuilt on its own and its callees only when they are asked for, so a
+ *   report writer never holds more than one rebuilt top-level tree at a time.
+ * <p/>
+ *   The events are read through a LongBuffer, so a tree can be kept on the heap or by an {@link OffHeapStore}.
+ *   A tree can also be encoded into a buffer of its own and read back, which is how a {@link TreeSpiller} moves
+ *   it to disk.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+final class CallTree
+{
+    /**
+     * The method id of an exit event
+     */
+    static final long EXIT = -1;
+
+    private final LongBuffer events;
+    private final int length;
+    private final MethodStatistics[] methods;
+    private final Object[][] parameters;
+    private final ByteBuffer encodedParameters;
+    private final long size;
+
+    /**
+     * Creates a tree kept on the heap
+     * @param events the enter and exit events of the tree
+     * @param methods the statistics of each method entered, indexed by method id
+     * @param parameters the parameters captured for each call in preorder, or null if none were
+     */
+    CallTree( long[] events, MethodStatistics[] methods, Object[][] parameters )
+    {
+        this( LongBuffer.wrap( events ), methods, parameters, null );
+    }
+
+    /**
+     * Creates a tree kept by an {@link OffHeapStore}
+     * @param events the enter and exit events of the tree
+     * @param methods the statistics of each method entered, indexed by method id
+     * @param encodedParameters the parameters captured for each call, or null if none were
+     */
+    CallTree( LongBuffer events, MethodStatistics[] methods, ByteBuffer encodedParameters )
+    {
+        this( events, methods, null, encodedParameters );
+    }
+
+    private CallTree( LongBuffer events, MethodStatistics[] methods, Object[][] parameters,
+                      ByteBuffer encodedParameters )
+    {
+        this.events = events;
+        this.length = events.limit();
+        this.methods = methods;
+        this.parameters = parameters;
+        this.encodedParameters = encodedParameters;
+        this.size = getSize( length, parameters, encodedParameters );
+    }
+
+    /**
+     * @return the elapsed time of the top-level call
+     */
+    long getElapsedTime()
+    {
+        return events.get( length - 1 ) - events.get( 1 );
+    }
+
+    /**
+     * @param parent the node to attach the tree to, the root of its thread
+     * @return the top of the tree, whose callees are rebuilt each time they are asked for
+     */
+    TreeNode<ExecutionNode> toTreeNode( TreeNode<ExecutionNode> parent )
+    {
+        return new TopNode( parent );
+    }
+
+    /**
+     * Rebuilds the execution node of the top-level call
+     * @return the execution node, with its total and net times
+     */
+    ExecutionNode createTop()
+    {
+        ExecutionNode top = createExecutionNode( 0, getParameters(), 0 );
+        top.start( events.get( 1 ) );
+
+        // only the times of the direct callees are needed for the net time
+        int depth = 0;
+        long calleeStart = 0;
+        for ( int i = 2; i < length - 2; i += 2 )
+        {
+            if ( events.get( i ) != EXIT )
+            {
+                if ( depth++ == 0 )
+                {
+                    calleeStart = events.get( i + 1 );
+                }
+            }
+            else if ( --depth == 0 )
+            {
+                top.addChildTime( events.get( i + 1 ) - calleeStart );
+            }
+        }
+
+        top.stop( events.get( length - 1 ) );
+        return top;
+    }
+
+    /**
+     * Rebuilds the calls made by the top-level call
+     * @param top the node standing for the top-level call, the parent of its direct callees
+     * @return the direct callees, each with its own callees attached
+     */
+    List<TreeNode<ExecutionNode>> createCallees( TreeNode<ExecutionNode> top )
+    {
+        List<TreeNode<ExecutionNode>> children = new ArrayList<TreeNode<ExecutionNode>>();
+        UnsynchronizedStack<CalleeNode> stack = new UnsynchronizedStack<CalleeNode>();
+        Object[][] parameters = getParameters();
+        int call = 1;
+
+        for ( int i = 2; i < length - 2; i += 2 )
+        {
+            if ( events.get( i ) != EXIT )
+            {
+                TreeNode<ExecutionNode> caller = stack.isEmpty() ? top : stack.peek();
+                CalleeNode callee = new CalleeNode( caller, createExecutionNode( i, parameters, call++ ) );
+                callee.getObject().start( events.get( i + 1 ) );
+                if ( !stack.isEmpty() )
+                {
+                    caller.addChild( callee );
+                }
+                stack.push( callee );
+            }
+            else
+            {
+                CalleeNode callee = stack.pop();
+                long elapsedTime = callee.getObject().stop( events.get( i + 1 ) );
+
+                if ( stack.isEmpty() )
+                {
+                    children.add( callee );
+                }
+                else
+                {
+                    stack.peek().getObject().addChildTime( elapsedTime );
+                }
+            }
+        }
+
+        return children;
+    }
+
+    /**
+     * @return the statistics of each method entered, indexed by method id
+     */
+    MethodStatistics[] getMethods()
+    {
+        return methods;
+    }
+
+    /**
+     * @return roughly the number of bytes the tree takes up, on or off the heap
+     */
+    long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Writes the tree to a buffer, its parameters encoded as strings the way {@link OffHeapStore} keeps them
+     * @return the buffer, flipped ready to be read
+     */
+    ByteBuffer encode()
+    {
+        String[][] values = null;
+        ByteBuffer encoded = null;
+        int parameterBytes = 0;
+
+        if ( encodedParameters != null )
+        {
+            encoded = encodedParameters.duplicate();
+            encoded.clear();
+            parameterBytes = encoded.capacity();
+        }
+        else if ( parameters != null )
+        {
+            values = OffHeapStore.toStrings( parameters, parameters.length );
+            parameterBytes = OffHeapStore.getEncodedLength( values );
+        }
+
+        ByteBuffer out = ByteBuffer.allocate( 8 + length * 8 + parameterBytes ).order( ByteOrder.nativeOrder() );
+        out.putInt( length );
+        out.putInt( parameterBytes );
+        for ( int i = 0; i < length; i++ )
+        {
+            out.putLong( events.get( i ) );
+        }
+
+        if ( encoded != null )
+        {
+            out.put( encoded );
+        }
+        else if ( values != null )
+        {
+            OffHeapStore.encode( values, out );
+        }
+
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Reads back a tree written by encode()
+     * @param in the buffer holding the tree
+     * @param methods the statistics of each method entered, indexed by method id
+     * @return the tree
+     */
+    static CallTree decode( ByteBuffer in, MethodStatistics[] methods )
+    {
+        in.order( ByteOrder.nativeOrder() );
+        int eventLongs = in.getInt();
+        int parameterBytes = in.getInt();
+
+        ByteBuffer events = in.slice().order( ByteOrder.nativeOrder() );
+        events.limit( eventLongs * 8 );
+
+        ByteBuffer encodedParameters = null;
+        if ( parameterBytes != 0 )
+        {
+            in.position( in.position() + eventLongs * 8 );
+            encodedParameters = in.slice().order( ByteOrder.nativeOrder() );
+        }
+
+        return new CallTree( events.asLongBuffer(), methods, encodedParameters );
+    }
+
+    private static long getSize( int eventLongs, Object[][] parameters, ByteBuffer encodedParameters )
+    {
+        long size = 16 + eventLongs * 8L;
+
+        if ( encodedParameters != null )
+        {
+            size += encodedParameters.capacity();
+        }
+        else if ( parameters != null )
+        {
+            size += 16 + parameters.length * 4L;
+            for ( Object[] call : parameters )
+            {
+                if ( call != null )
+                {
+                    size += 16 + call.length * 4L;
+                    for ( Object value : call )
+                    {
+                        size += value instanceof String ? 40 + ( (String)value ).length() * 2 : 16;
+                    }
+                }
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * @return the parameters of each call in preorder, or null if none were captured
+     */
+    private Object[][] getParameters()
+    {
+        return encodedParameters == null ? parameters : OffHeapStore.decode( encodedParameters );
+    }
+
+    private ExecutionNode createExecutionNode( int event, Object[][] parameters, int call )
+    {
+        MethodStatistics method = methods[ (int)events.get( event ) ];
+        return new ExecutionNode( method.getType(), method.getName(), method.getMethod(),
+                parameters == null ? null : parameters[call] );
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   The top-level call of the tree
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private final class TopNode extends AbstractTreeNode<ExecutionNode>
+    {
+        private final TreeNode<ExecutionNode> parent;
+        private ExecutionNode object;
+
+        TopNode( TreeNode<ExecutionNode> parent )
+        {
+            this.parent = parent;
+        }
+
+        public ExecutionNode getObject()
+        {
+            if ( object == null )
+            {
+                object = createTop();
+            }
+            return object;
+        }
+
+        public TreeNode<ExecutionNode> getParent()
+        {
+            return parent;
+        }
+
+        public int getLevel()
+        {
+            return parent.getLevel() + 1;
+        }
+
+        /**
+         * Rebuilds the callees of the top-level call.  They aren't kept, so each call rebuilds them again
+         * @return the direct callees, each with its own callees attached
+         */
+        public List<TreeNode<ExecutionNode>> getChildren()
+        {
+            return createCallees( this );
+        }
+
+        /**
+         * The callees are rebuilt by getChildren(), nothing is added to this node
+         */
+        public void addChild( TreeNode<ExecutionNode> child )
+        {
+        }
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   A call made within the tree.  Only exists while the tree is being read
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private static final class CalleeNode extends AbstractTreeNode<ExecutionNode>
+    {
+        private final TreeNode<ExecutionNode> parent;
+        private final ExecutionNode object;
+        private List<TreeNode<ExecutionNode>> children;
+
+        CalleeNode( TreeNode<ExecutionNode> parent, ExecutionNode object )
+        {
+            this.parent = parent;
+            this.object = object;
+        }
+
+        public ExecutionNode getObject()
+        {
+            return object;
+        }
+
+        public TreeNode<ExecutionNode> getParent()
+        {
+            return parent;
+        }
+
+        public int getLevel()
+        {
+            return parent.getLevel() + 1;
+        }
+
+        public List<TreeNode<ExecutionNode>> getChildren()
+        {
+            return children == null ? Collections.<TreeNode<ExecutionNode>>emptyList() : children;
+        }
+
+        public void addChild( TreeNode<ExecutionNode> child )
+        {
+            if ( children == null )
+            {
+                children = new ArrayList<TreeNode<ExecutionNode>>();
+            }
+            children.add( child );
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.highbar.tools.mri.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   A node of the calling context tree: a distinct call path, e.g. /emxTree.jsp calling BusinessObject.getInfo
+ *   calling a trigger, with the aggregated timings of every call made along it.  Identical paths are merged
+ *   however many times they are called and whichever thread calls them, so the tree grows with the number of
+ *   distinct paths rather than the number of calls, while still telling which caller a method's time was spent
+ *   under.
+ * <p/>
+ *   The profiler keeps a single tree and every recorder adds to it as calls return.  A recorder keeps the node of
+ *   each call in progress, so entering a call looks up a single callee and a callee is only created, under a
+ *   lock on its caller, the first time its path is seen.  The timings are lock free.  Plain atomics are used
+ *   rather than the striped counters of {@link MethodStatistics}, as a tree can have many more nodes than there
+ *   are methods.
+ * <p/>
+ *   The root of the tree has no method, its callees are the top-level calls.  The tree handed out by the profiler
+ *   is a copy that no longer changes.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class CallingContext
+{
+    private final MethodStatistics method;
+
+    /**
+     * The callees of this path keyed on their method, null until the first one is added
+     */
+    private volatile ConcurrentMap<MethodStatistics, CallingContext> callees;
+
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong netTime = new AtomicLong();
+    private final AtomicLong minTime = new AtomicLong( Long.MAX_VALUE );
+    private final AtomicLong maxTime = new AtomicLong();
+
+    /**
+     * @param method the method called at the end of the path, null for the root of the tree
+     */
+    CallingContext( MethodStatistics method )
+    {
+        this.method = method;
+    }
+
+    /**
+     * @param method the method called
+     * @return the path extended by a call to the method, created if this is the first such call
+     */
+    CallingContext getCallee( MethodStatistics method )
+    {
+        ConcurrentMap<MethodStatistics, CallingContext> callees = this.callees;
+        CallingContext callee = callees == null ? null : callees.get( method );
+        return callee != null ? callee : addCallee( method );
+    }
+
+    /**
+     * Adds the timings of a single call made along this path
+     * @param elapsedTime the total time taken by the call, including called methods
+     * @param netTime the time spent in the method itself, excluding advised methods it called
+     */
+    void record( long elapsedTime, long netTime )
+    {
+        this.invocations.incrementAndGet();
+        this.totalTime.addAndGet( elapsedTime );
+        this.netTime.addAndGet( netTime );
+
+        long min = minTime.get();
+        while ( elapsedTime < min && !minTime.compareAndSet( min, elapsedTime ) )
+        {
+            min = minTime.get();
+        }
+
+        long max = maxTime.get();
+        while ( elapsedTime > max && !maxTime.compareAndSet( max, elapsedTime ) )
+        {
+            max = maxTime.get();
+        }
+    }
+
+    /**
+     * @return a copy of this path and every path extending it that no longer changes as calls are made
+     */
+    CallingContext copy()
+    {
+        CallingContext copy = new CallingContext( method );
+        copy.invocations.set( invocations.get() );
+        copy.totalTime.set( totalTime.get() );
+        copy.netTime.set( netTime.get() );
+        copy.minTime.set( minTime.get() );
+        copy.maxTime.set( maxTime.get() );
+
+        ConcurrentMap<MethodStatistics, CallingContext> callees = this.callees;
+        if ( callees != null )
+        {
+            copy.callees = new ConcurrentHashMap<MethodStatistics, CallingContext>( callees.size(), 0.75f, 1 );
+            for ( CallingContext callee : callees.values() )
+            {
+                copy.callees.put( callee.method, callee.copy() );
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * @return the statistics of the method called at the end of the path, null for the root of the tree
+     */
+    public MethodStatistics getMethodStatistics()
+    {
+        return method;
+    }
+
+    public boolean isRoot()
+    {
+        return method == null;
+    }
+
+    /**
+     * @return the calls made along this path, the one with the longest total time first
+     */
+    public List<CallingContext> getCallees()
+    {
+        ConcurrentMap<MethodStatistics, CallingContext> callees = this.callees;
+        if ( callees == null )
+        {
+            return Collections.emptyList();
+        }
+
+        // the total times are read once up front in case the callees are still being updated
+        final Map<CallingContext, Long> totalTimes = new HashMap<CallingContext, Long>();
+        for ( CallingContext callee : callees.values() )
+        {
+            totalTimes.put( callee, callee.getTotalTime() );
+        }
+
+        List<CallingContext> sorted = new ArrayList<CallingContext>( totalTimes.keySet() );
+        Collections.sort( sorted, new Comparator<CallingContext>()
+        {
+            public int compare( CallingContext one, CallingContext two )
+            {
+                long time = totalTimes.get( two ) - totalTimes.get( one );
+                return time == 0 ? 0 : ( time > 0 ? 1 : -1 );
+            }
+        } );
+
+        return sorted;
+    }
+
+    public long getInvocations()
+    {
+        return invocations.get();
+    }
+
+    /**
+     * @return the sum of the elapsed times of the calls made along this path, including called methods
+     */
+    public long getTotalTime()
+    {
+        return totalTime.get();
+    }
+
+    /**
+     * @return the sum of the net times of the calls made along this path, excluding advised methods that were
+     *         called
+     */
+    public long getNetTime()
+    {
+        return netTime.get();
+    }
+
+    /**
+     * @return the shortest elapsed time of a single call, or zero if there were no calls
+     */
+    public long getMinTime()
+    {
+        long min = minTime.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * @return the longest elapsed time of a single call
+     */
+    public long getMaxTime()
+    {
+        return maxTime.get();
+    }
+
+    private synchronized CallingContext addCallee( MethodStatistics method )
+    {
+        if ( callees == null )
+        {
+            // most paths have few callees, and a single segment keeps the empty map small
+            callees = new ConcurrentHashMap<MethodStatistics, CallingContext>( 4, 0.75f, 1 );
+        }
+
+        CallingContext callee = callees.get( method );
+        if ( callee == null )
+        {
+            callee = new CallingContext( method );
+            callees.put( method, callee );
+        }
+        return callee;
+    }
+}
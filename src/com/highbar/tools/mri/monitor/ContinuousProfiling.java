@@ -0,0 +1,155 @@
+package com.highbar.tools.mri.monitor;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Continuous profiling keeps method totals for the most recent windows of time in memory, and writes a
+ *   snapshot of each window to a directory as soon as it ends, so the statistics of any recent window can be
+ *   looked up after the fact.  The snapshots are written on a background thread shortly after each window
+ *   ends.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class ContinuousProfiling implements Runnable
+{
+    /**
+     * How long to wait after a window ends before writing it, so invocations completing at the end of the
+     * window have been counted
+     */
+    private static final long GRACE_PERIOD = 1000;
+
+    /**
+     * Log4J Logger instance
+     */
+    private final Logger log = Logger.getLogger( getClass() );
+
+    private final RollingStatistics windows;
+    private final WindowSnapshots snapshots;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The start of the most recent window written, only used on the scheduler thread
+     */
+    private long lastWritten;
+
+    /**
+     * @param directory the directory to write the snapshots to
+     * @param windowLength the length of each window in milliseconds
+     * @param windowCount the number of windows kept in memory
+     * @param maxDirectorySize the most bytes the snapshots may take up, zero for no limit
+     */
+    ContinuousProfiling( File directory, long windowLength, int windowCount, long maxDirectorySize )
+    {
+        this.windows = new RollingStatistics( windowLength, windowCount );
+        this.snapshots = new WindowSnapshots( directory, maxDirectorySize );
+        this.lastWritten = System.currentTimeMillis() - windowLength;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable r )
+            {
+                Thread thread = new Thread( r, "MRI Window Snapshots" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    void start()
+    {
+        long windowLength = windows.getWindowLength();
+        long delay = windowLength - System.currentTimeMillis() % windowLength + GRACE_PERIOD;
+        scheduler.scheduleAtFixedRate( this, delay, windowLength, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Stops writing snapshots.  Windows that have ended but haven't been written yet are written first
+     */
+    void stop()
+    {
+        scheduler.shutdown();
+        try
+        {
+            if ( scheduler.awaitTermination( 10, TimeUnit.SECONDS ) )
+            {
+                run();
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void record( MethodStatistics statistics, long elapsedTime, long netTime )
+    {
+        windows.record( statistics, elapsedTime, netTime );
+    }
+
+    File getDirectory()
+    {
+        return snapshots.getDirectory();
+    }
+
+    /**
+     * @return the windows held in memory, oldest first
+     */
+    List<StatisticsWindow> getWindows()
+    {
+        return windows.getWindows();
+    }
+
+    /**
+     * @param time a time in milliseconds since the epoch
+     * @return the window containing the time from memory, or from its snapshot if it is no longer held.  Null
+     *         if there is neither
+     * @throws IOException if the snapshot cannot be read
+     */
+    StatisticsWindow getWindow( long time ) throws IOException
+    {
+        StatisticsWindow window = windows.getWindow( time );
+        return window != null ? window : snapshots.read( time );
+    }
+
+    /**
+     * Writes the snapshots of the windows that have ended since the last run
+     */
+    public void run()
+    {
+        long now = System.currentTimeMillis();
+
+        for ( StatisticsWindow window : windows.getWindows() )
+        {
+            if ( window.getStartTime() > lastWritten && window.getEndTime() <= now )
+            {
+                try
+                {
+                    snapshots.write( window );
+                    lastWritten = window.getStartTime();
+                }
+                catch( IOException e )
+                {
+                    // an exception would cancel the schedule, the next window is tried regardless
+                    log.error( "Unable to write the snapshot of the window starting " +
+                            new Date( window.getStartTime() ), e );
+                }
+            }
+        }
+    }
+}
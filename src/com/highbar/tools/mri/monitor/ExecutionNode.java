@@ -1,8 +1,5 @@
 package com.highbar.tools.mri.monitor;
 
-import com.highbar.util.DefaultStopWatch;
-import com.highbar.util.StopWatch;
-
 /**
  * <dl>
  * <dt><b>Description:</b>
@@ -10,6 +7,10 @@ import com.highbar.util.StopWatch;
  * <p/>
  *   This class is used by the monitor to track information about a single method invocation, including
  *   the "category" (e.g. api, jsp, jpo, etc) target object name, method name, parameter values and execution time. 
+ * <p/>
+ *   Threads record their calls as events rather than execution nodes (see {@link CallTree}), so execution nodes
+ *   are created when a call tree is read.  Replaying a call's enter and exit events through start() and stop()
+ *   works out its total and net times, and its total time is added to the child time of its caller.
  * </dt>
  * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
  * </dl>
@@ -50,9 +51,11 @@ public class ExecutionNode implements Comparable<ExecutionNode>
     private String name;
     private String method;
     private Object[] parameters;
-    private StopWatch stopWatch;
     private String threadId;
+    private long startTime;
+    private long totalTime;
     private long netTime;
+    private long childTime;
 
     public ExecutionNode( Type type, JPO jpo )
     {
@@ -65,8 +68,6 @@ public class ExecutionNode implements Comparable<ExecutionNode>
         this.name = name;
         this.method = method;
         this.parameters = parameters;
-        this.stopWatch = new DefaultStopWatch();
-        this.threadId = Thread.currentThread().toString();
     }
 
     public Type getType()
@@ -99,24 +100,60 @@ public class ExecutionNode implements Comparable<ExecutionNode>
         this.parameters = parameters;
     }
 
-    public StopWatch getStopWatch()
+    /**
+     * @return the elapsed time of the invocation, or zero if it hasn't finished
+     */
+    public long getTotalTime()
     {
-        return stopWatch;
+        return totalTime;
     }
 
+    /**
+     * @return the id of the thread that recorded this node.  This is only set for thread root nodes
+     */
     public String getThreadId()
     {
         return threadId;
     }
 
+    void setThreadId( String threadId )
+    {
+        this.threadId = threadId;
+    }
+
+    /**
+     * @return the elapsed time of the invocation less that of the advised methods it called, or zero if it
+     *         hasn't finished
+     */
     public long getNetTime()
     {
         return netTime;
     }
 
-    public void setNetTime( long netTime )
+    /**
+     * Records the start of the invocation
+     * @param startTime the System.nanoTime() at which the invocation started
+     */
+    void start( long startTime )
+    {
+        this.startTime = startTime;
+    }
+
+    /**
+     * Records the end of the invocation, and works out its total and net times
+     * @param endTime the System.nanoTime() at which the invocation ended
+     * @return the total time
+     */
+    long stop( long endTime )
+    {
+        totalTime = endTime - startTime;
+        netTime = totalTime - childTime;
+        return totalTime;
+    }
+
+    void addChildTime( long childTime )
     {
-        this.netTime = netTime;
+        this.childTime += childTime;
     }
 
     public int compareTo( ExecutionNode that )
@@ -3,23 +3,34 @@ package com.highbar.tools.mri.monitor;
 import com.highbar.tools.mri.jmx.MRIMonitor;
 import com.highbar.tools.trigger.cache.TriggerProgramParameters;
 import com.highbar.util.DefaultStopWatch;
-import com.highbar.util.DefaultTreeNode;
+import com.highbar.util.RingBuffer;
 import com.highbar.util.StopWatch;
 import com.highbar.util.TreeNode;
-import com.highbar.util.UnsynchronizedStack;
+import org.apache.log4j.Logger;
 
 import javax.management.JMException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <dl>
@@ -38,45 +49,140 @@ import java.util.TreeMap;
 public enum MRIProfiler
 {
     INSTANCE;
+
+    /**
+     * Log4J Logger instance
+     */
+    private final Logger log = Logger.getLogger( getClass() );
+
+    /**
+     * Where a thread is in relation to the trigger manager, used to tell Java triggers apart from other JPO
+     * methods.  A Java trigger is a JPO method invoked by the trigger manager's mxMain method through
+     * JPOSupport.invokeObject()
+     */
+    public enum TriggerContext
+    {
+        /**
+         * Not in the trigger manager, or in a JPO method it has invoked
+         */
+        NONE,
+
+        /**
+         * In the trigger manager's mxMain method
+         */
+        TRIGGER_MANAGER,
+
+        /**
+         * In a JPO invocation made by the trigger manager, the next JPO method is a trigger
+         */
+        TRIGGER_INVOCATION
+    }
     
     /**
      * Indicates if system-wide profiling is turned on or off
      */
-    private boolean active = false;
+    private volatile boolean active = false;
+
+    /**
+     * One in this many requests is recorded, 1 records every request
+     */
+    private volatile int sampleRate = 1;
+
+    /**
+     * Counts requests to decide which ones are sampled
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * The parameter capture policy of each execution node type, indexed by ordinal
+     */
+    private volatile ParameterCapture[] parameterCaptures = getDefaultParameterCaptures();
+
+    /**
+     * The maximum length of a parameter snapshot
+     */
+    private volatile int parameterSnapshotLength = 256;
 
     /**
      * This list holds the timings involved in instantiating trigger manager instances
      */
-    private final List<StopWatch> triggerManagerOverhead = new ArrayList<StopWatch>();
+    private final Queue<StopWatch> triggerManagerOverhead = new ConcurrentLinkedQueue<StopWatch>();
 
     /**
      * Keeps track of the triggers that are referenced in the application, but have no parameters objects
      */
-    private final Map<String, Integer> missingTriggers = new HashMap<String, Integer>();
+    private final ConcurrentMap<String, AtomicInteger> missingTriggers =
+            new ConcurrentHashMap<String, AtomicInteger>();
 
     /**
      * Keeps track of trigger executions
      */
-    private final Map<TriggerProgramParameters, Integer> triggers = new HashMap<TriggerProgramParameters, Integer>();
+    private final ConcurrentMap<TriggerProgramParameters, AtomicInteger> triggers =
+            new ConcurrentHashMap<TriggerProgramParameters, AtomicInteger>();
 
     /**
-     * This map holds all execution node information for the system. Each key is mapped to a list
-     * of ExecutionNode instances, which hold timing information about each unit of execution
+     * The methods profiled in the current generation.  Clearing the profiler replaces the table, so method ids
+     * start from zero again and the recorders' method arrays only grow to the number of methods in use
      */
-    private final Map<ExecutionNode, List<ExecutionNode>> executionNodeMap = Collections.synchronizedMap(
-            new TreeMap<ExecutionNode, List<ExecutionNode>>() );
+    private volatile MethodTable methodTable = new MethodTable();
 
     /**
-     * Map of executions stacks (call tree), each stack is bound to its corresponding thread id
+     * The call tree recorder of the current thread.  Each thread records into its own recorder so the
+     * push/pop path never takes a shared lock
      */
-    private final Map<String, UnsynchronizedStack<TreeNode<ExecutionNode>>> executionStackMap = Collections.synchronizedMap(
-            new TreeMap<String, UnsynchronizedStack<TreeNode<ExecutionNode>>>() );
-    
+    private final ThreadLocal<ThreadRecorder> threadRecorder = new ThreadLocal<ThreadRecorder>();
+
+    /**
+     * Every recorder created in the current generation, used to find each thread's call tree at report time.
+     * This list is also the lock guarding the generation
+     */
+    private final List<ThreadRecorder> threadRecorders = new ArrayList<ThreadRecorder>();
+
+    /**
+     * Incremented on each clear() so that threads can detect their recorders are stale
+     */
+    private volatile int generation = 0;
+
+    /**
+     * The number of completed top-level call trees each thread keeps, zero means there is no limit
+     */
+    private volatile int maxTreesPerThread = 0;
+
+    /**
+     * Keeps completed call trees outside the heap, null to keep them on the heap
+     */
+    private volatile OffHeapStore offHeapStore;
+
+    /**
+     * The size of the off heap store's slabs, zero if trees are kept on the heap
+     */
+    private volatile int offHeapSlabSize = 0;
+
+    /**
+     * The root of the calling context tree, where identical call paths are merged
+     */
+    private volatile CallingContext callingContexts = new CallingContext( null );
+
+    /**
+     * Moves the oldest completed call trees to disk past a memory budget, null to keep them all in memory
+     */
+    private volatile TreeSpiller spiller;
+
+    /**
+     * Every spiller used since the profiler was last cleared, whose files still hold spilled trees.  Guarded by
+     * the lock on threadRecorders
+     */
+    private final List<TreeSpiller> spillers = new ArrayList<TreeSpiller>();
+
+    /**
+     * Keeps method totals in windows of time while continuous profiling is on, null when it is off
+     */
+    private volatile ContinuousProfiling continuousProfiling;
+
     /**
-     * Roots of each call tree (there is one per thread)
+     * Switches profiling of each category and method on and off
      */
-    private Set<TreeNode<ExecutionNode>> rootExecutionNodes = Collections.synchronizedSet(
-            new HashSet<TreeNode<ExecutionNode>>() );
+    private final Switchboard switchboard = new Switchboard();
 
     MRIProfiler()
     {
@@ -102,55 +208,152 @@ public enum MRIProfiler
     }
 
     /**
-     * Pushes an execution node onto the execution stack
-     * @param executionNode the ExecutionNode to add to the execution log
-     * @return the stop watch bound to the execution node.  this should be started and stopped
-     *         by the caller at the appropriate times to gather timing information
+     * Records the entry into the method of an execution node and starts timing it.  Every push must be followed by
+     * a pop on the same thread when the advised method returns
+     * @param executionNode the method entered and its parameters
      */
-    public StopWatch push( ExecutionNode executionNode )
+    public void push( ExecutionNode executionNode )
     {
-        // enables tracking of how many nodes per type have been executed
-        addNodeToList( executionNode );
-        // enables tracking of the call stack
-        addNodeToStack( executionNode );
+        // the execution node itself isn't kept, the recorder logs the call against its method
+        push( getMethodStatistics( executionNode ), executionNode.getParameters() );
+    }
 
-        return executionNode.getStopWatch();
+    /**
+     * Records the entry into a method whose statistics have already been looked up, see
+     * {@link #getMethodStatistics(ExecutionNode.Type, String, String)}
+     * @param statistics the statistics of the method entered
+     * @param parameters the captured parameters of the call, or null
+     */
+    public void push( MethodStatistics statistics, Object[] parameters )
+    {
+        getThreadRecorder().push( statistics, parameters );
     }
 
     /**
-     * Pops an execution node from the execution stack
+     * Pops an execution node from the execution stack and stops timing it
      */
     public void pop()
     {
-        UnsynchronizedStack<TreeNode<ExecutionNode>> executionStack = executionStackMap.get(
-                Thread.currentThread().toString() );
+        ThreadRecorder recorder = threadRecorder.get();
 
-        if ( executionStack == null || executionStack.isEmpty() )
+        if ( recorder == null )
         {
             throw new IllegalStateException(
                     "pop() without push() called for execution stack. ThreadId: " + Thread.currentThread() );
         }
 
-        executionStack.pop();
+        MethodStatistics statistics = recorder.pop();
+        long elapsedTime = recorder.getPoppedElapsedTime();
+        long netTime = recorder.getPoppedNetTime();
+        statistics.record( elapsedTime, netTime );
+        recorder.getPoppedContext().record( elapsedTime, netTime );
+
+        ContinuousProfiling continuous = continuousProfiling;
+        if ( continuous != null )
+        {
+            continuous.record( statistics, elapsedTime, netTime );
+        }
     }
 
     /**
+     * The trees spilled to disk can't be read once the profiler is cleared, use {@link #takeSnapshot()} to read
+     * them while profiling carries on
      * @return the set of execution nodes that have been profiled.  Each root execution node
-     *         represents a thread instance
+     *         represents a thread instance, and holds the top-level calls the thread has completed
      */
     public Set<TreeNode<ExecutionNode>> getRootExecutionNodes()
     {
+        Set<TreeNode<ExecutionNode>> rootExecutionNodes = new LinkedHashSet<TreeNode<ExecutionNode>>();
+
+        synchronized( threadRecorders )
+        {
+            for ( ThreadRecorder recorder : threadRecorders )
+            {
+                rootExecutionNodes.add( recorder.getCompletedTrees() );
+            }
+        }
+
         return rootExecutionNodes;
     }
 
     /**
-     * @return a map of execution nodes - each execution node is mapped to a list of
-     * matching execution nodes which enables calculation of total execution time and
-     * total number of invocations for each method
+     * Copies what has been recorded so far so a report can be written from it while profiling carries on.  Only
+     * references to the completed call trees are copied, so this is cheap even for a large profile.  The snapshot
+     * must be released once it has been read, as it keeps the spill files of the trees spilled to disk
+     * @return the snapshot
+     */
+    public ProfileSnapshot takeSnapshot()
+    {
+        Set<TreeNode<ExecutionNode>> rootExecutionNodes = new LinkedHashSet<TreeNode<ExecutionNode>>();
+        List<TreeSpiller> readSpillers;
+        synchronized( threadRecorders )
+        {
+            for ( ThreadRecorder recorder : threadRecorders )
+            {
+                rootExecutionNodes.add( recorder.getCompletedTrees() );
+            }
+
+            readSpillers = new ArrayList<TreeSpiller>( spillers );
+            for ( TreeSpiller s : readSpillers )
+            {
+                s.acquire();
+            }
+        }
+
+        List<MethodStatistics> statistics = new ArrayList<MethodStatistics>();
+        for ( MethodStatistics s : methodTable.statistics.values() )
+        {
+            statistics.add( s.copy() );
+        }
+
+        List<Long> overhead = new ArrayList<Long>();
+        for ( StopWatch stopWatch : triggerManagerOverhead )
+        {
+            overhead.add( stopWatch.getElapsedTime() );
+        }
+
+        return new ProfileSnapshot( rootExecutionNodes, statistics, callingContexts.copy(), overhead,
+                getMissingTriggers(), getTriggers(), readSpillers );
+    }
+
+    /**
+     * @return the aggregated timings of each distinct method that has been profiled
      */
-    public Map<ExecutionNode, List<ExecutionNode>> getExecutionNodeMap()
+    public List<MethodStatistics> getMethodStatistics()
     {
-        return new TreeMap<ExecutionNode,List<ExecutionNode>>( executionNodeMap );
+        return new ArrayList<MethodStatistics>( methodTable.statistics.values() );
+    }
+
+    /**
+     * Looks up the statistics of a method, so that callers can keep them and push the method without looking it
+     * up again.  The statistics kept must be checked with {@link #isCurrent(MethodStatistics)} before each push
+     * @param type the type of the method's execution nodes
+     * @param name the name of the method's execution nodes, e.g. the type declaring the method
+     * @param method the method's signature
+     * @return the statistics of the method
+     */
+    public MethodStatistics getMethodStatistics( ExecutionNode.Type type, String name, String method )
+    {
+        return getMethodStatistics( new ExecutionNode( type, name, method, null ) );
+    }
+
+    /**
+     * @param statistics the statistics of a method
+     * @return false if the profiler has been cleared since the statistics were looked up, they are then no longer
+     *         recorded to and must be looked up again
+     */
+    public boolean isCurrent( MethodStatistics statistics )
+    {
+        return statistics.getTypeStatistics() == methodTable.types[ statistics.getType().ordinal() ];
+    }
+
+    /**
+     * @param type a type of execution node
+     * @return the aggregated timings of the methods of the type that have been profiled
+     */
+    public TypeStatistics getTypeStatistics( ExecutionNode.Type type )
+    {
+        return methodTable.types[ type.ordinal() ];
     }
 
     /**
@@ -170,17 +373,446 @@ public enum MRIProfiler
         return active;
     }
 
+    /**
+     * Marks the entry into a request, i.e. a JSP or a JPO invocation.  The outermost request on a thread
+     * decides whether everything it calls is recorded, so that in sampling mode only one in every
+     * {@link #getSampleRate()} requests pays the cost of profiling.  Must be paired with {@link #endRequest()}
+     * @return true if the request is being recorded
+     */
+    public boolean beginRequest()
+    {
+        ThreadRecorder recorder = getThreadRecorder();
+
+        if ( recorder.isInRequest() )
+        {
+            recorder.beginRequest( recorder.isSampled() );
+        }
+        else
+        {
+            int rate = sampleRate;
+            recorder.beginRequest( rate <= 1 || requestCount.getAndIncrement() % rate == 0 );
+        }
+
+        return recorder.isSampled();
+    }
+
+    /**
+     * Marks the exit from a request
+     * @see #beginRequest()
+     */
+    public void endRequest()
+    {
+        ThreadRecorder recorder = threadRecorder.get();
+
+        if ( recorder != null )
+        {
+            recorder.endRequest();
+        }
+    }
+
+    /**
+     * This is checked by every advised method, so it needs to be cheap
+     * @return true if profiling is on and the current thread's request is being recorded.  Outside of a
+     *         request, calls are only recorded if every request is being sampled
+     */
+    public boolean isRecording()
+    {
+        if ( !active )
+        {
+            return false;
+        }
+
+        ThreadRecorder recorder = threadRecorder.get();
+
+        return recorder != null && recorder.isInRequest() ? recorder.isSampled() : sampleRate <= 1;
+    }
+
+    /**
+     * Turns on sampling mode, where only one in every <code>sampleRate</code> requests is recorded.  Advice
+     * on requests that are not sampled goes straight to the advised method
+     * @param sampleRate the sampling rate, 1 to record every request
+     */
+    public void setSampleRate( int sampleRate )
+    {
+        if ( sampleRate < 1 )
+        {
+            throw new IllegalArgumentException( "sampleRate must be at least 1: " + sampleRate );
+        }
+
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return the sampling rate, 1 if every request is recorded
+     */
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    /**
+     * @return the switches that turn profiling of each category and method on and off
+     */
+    public Switchboard getSwitchboard()
+    {
+        return switchboard;
+    }
+
+    /**
+     * Captures the parameter values passed to a method according to the capture policy of its type
+     * @param type the type of the method's execution node
+     * @param args the parameter values passed to the method
+     * @return the values to store in the execution node, null if nothing is captured
+     */
+    public Object[] captureParameters( ExecutionNode.Type type, Object[] args )
+    {
+        return getParameterCapture( type ).capture( args, getThreadRecorder().getSnapshotBuffer(),
+                parameterSnapshotLength );
+    }
+
+    /**
+     * @param type an execution node type
+     * @return how parameter values are captured for the type
+     */
+    public ParameterCapture getParameterCapture( ExecutionNode.Type type )
+    {
+        return parameterCaptures[ type.ordinal() ];
+    }
+
+    /**
+     * Changes how parameter values are captured for a type of execution node
+     * @param type the execution node type
+     * @param parameterCapture the capture policy
+     */
+    public synchronized void setParameterCapture( ExecutionNode.Type type, ParameterCapture parameterCapture )
+    {
+        ParameterCapture[] captures = parameterCaptures.clone();
+        captures[ type.ordinal() ] = parameterCapture;
+        parameterCaptures = captures;
+    }
+
+    /**
+     * @return the maximum length of a parameter snapshot
+     */
+    public int getParameterSnapshotLength()
+    {
+        return parameterSnapshotLength;
+    }
+
+    /**
+     * @param parameterSnapshotLength the maximum length of a parameter snapshot, longer values are truncated
+     */
+    public void setParameterSnapshotLength( int parameterSnapshotLength )
+    {
+        if ( parameterSnapshotLength < 1 )
+        {
+            throw new IllegalArgumentException( "parameterSnapshotLength must be at least 1: " +
+                    parameterSnapshotLength );
+        }
+
+        this.parameterSnapshotLength = parameterSnapshotLength;
+    }
+
+    /**
+     * Limits the memory used by call trees.  Each thread keeps only its most recent completed top-level
+     * trees (e.g. one per JSP request), while method statistics continue to accumulate for every call
+     * @param maxTreesPerThread the number of trees to keep per thread, or zero to keep all of them
+     */
+    public void setMaxTreesPerThread( int maxTreesPerThread )
+    {
+        if ( maxTreesPerThread < 0 )
+        {
+            throw new IllegalArgumentException( "maxTreesPerThread cannot be negative: " + maxTreesPerThread );
+        }
+
+        synchronized( threadRecorders )
+        {
+            this.maxTreesPerThread = maxTreesPerThread;
+            for ( ThreadRecorder recorder : threadRecorders )
+            {
+                recorder.setMaxTrees( getRingBufferCapacity( maxTreesPerThread ) );
+            }
+        }
+    }
+
+    /**
+     * @return the number of completed top-level trees kept per thread, zero if there is no limit
+     */
+    public int getMaxTreesPerThread()
+    {
+        return maxTreesPerThread;
+    }
+
+    /**
+     * Keeps the call trees completed from now on outside the Java heap, in direct buffers of the given size, so
+     * a long profiling session doesn't add to the work of the garbage collector.  The JVM's direct memory limit
+     * (-XX:MaxDirectMemorySize) applies; once it is reached trees are kept on the heap again
+     * @param slabSize the size of each direct buffer in bytes, or zero to keep trees on the heap
+     */
+    public void setOffHeapSlabSize( int slabSize )
+    {
+        if ( slabSize < 0 )
+        {
+            throw new IllegalArgumentException( "slabSize cannot be negative: " + slabSize );
+        }
+
+        synchronized( threadRecorders )
+        {
+            offHeapStore = slabSize == 0 ? null : new OffHeapStore( slabSize );
+            offHeapSlabSize = slabSize;
+            for ( ThreadRecorder recorder : threadRecorders )
+            {
+                recorder.setOffHeapStore( offHeapStore );
+            }
+        }
+    }
+
+    /**
+     * @return the size of each direct buffer call trees are kept in, zero if they are kept on the heap
+     */
+    public int getOffHeapSlabSize()
+    {
+        return offHeapSlabSize;
+    }
+
+    /**
+     * @return a copy of the calling context tree, where the calls made along identical call paths are merged.
+     *         The root stands for no call, its callees are the distinct top-level calls
+     */
+    public CallingContext getCallingContextTree()
+    {
+        return callingContexts.copy();
+    }
+
+    /**
+     * Keeps the memory taken up by completed call trees within a budget.  Once the trees in memory take up more
+     * than the budget, the oldest are appended to a spill file in the background and released.  Reports read
+     * the spilled trees back from the file, before the trees still in memory.  If spilling is already on it is
+     * restarted with the new settings, and the trees already spilled stay where they are
+     * @param directory the directory to create the spill file in
+     * @param memoryBudget the most bytes the completed trees may take up in memory
+     * @throws IOException if the spill file cannot be created
+     */
+    public void startSpilling( File directory, long memoryBudget ) throws IOException
+    {
+        TreeSpiller started = new TreeSpiller( directory, memoryBudget );
+        TreeSpiller stopped;
+
+        synchronized( threadRecorders )
+        {
+            stopped = spiller;
+            spiller = started;
+            spillers.add( started );
+
+            long retainedSize = 0;
+            for ( ThreadRecorder recorder : threadRecorders )
+            {
+                recorder.setSpiller( started );
+                retainedSize += recorder.getRetainedSize();
+            }
+            started.added( retainedSize );
+        }
+
+        // the spiller thread takes the lock on the recorders, so it is waited for outside the lock
+        if ( stopped != null )
+        {
+            stopped.stop();
+        }
+    }
+
+    /**
+     * Stops spilling call trees to disk.  The trees already spilled are still read by reports until the
+     * profiler is cleared
+     */
+    public void stopSpilling()
+    {
+        TreeSpiller stopped;
+
+        synchronized( threadRecorders )
+        {
+            stopped = spiller;
+            spiller = null;
+            for ( ThreadRecorder recorder : threadRecorders )
+            {
+                recorder.setSpiller( null );
+            }
+        }
+
+        if ( stopped != null )
+        {
+            stopped.stop();
+        }
+    }
+
+    /**
+     * @return true if call trees are spilled to disk past a memory budget
+     */
+    public boolean isSpilling()
+    {
+        return spiller != null;
+    }
+
+    /**
+     * @return the most bytes completed call trees may take up in memory, zero if they aren't spilled to disk
+     */
+    public long getSpillMemoryBudget()
+    {
+        TreeSpiller current = spiller;
+        return current == null ? 0 : current.getMemoryBudget();
+    }
+
+    /**
+     * Finds the methods that have spent the most time executing, excluding time spent in the advised methods
+     * they called
+     * @param count the maximum number of methods to return
+     * @return the statistics of the methods with the highest net time, highest first
+     */
+    public List<MethodStatistics> getTopMethodStatistics( int count )
+    {
+        // the net times are summed once up front as the counters are still being updated
+        final Map<MethodStatistics, Long> netTimes = new HashMap<MethodStatistics, Long>();
+        Comparator<MethodStatistics> byNetTime = new Comparator<MethodStatistics>()
+        {
+            public int compare( MethodStatistics one, MethodStatistics two )
+            {
+                long time = netTimes.get( one ) - netTimes.get( two );
+                return time == 0 ? 0 : ( time > 0 ? 1 : -1 );
+            }
+        };
+
+        // keep the top methods in a min-heap so the rest are never sorted
+        PriorityQueue<MethodStatistics> top = new PriorityQueue<MethodStatistics>( Math.max( count, 1 ), byNetTime );
+        for ( MethodStatistics statistics : methodTable.statistics.values() )
+        {
+            netTimes.put( statistics, statistics.getNetTime() );
+            top.add( statistics );
+            if ( top.size() > count )
+            {
+                netTimes.remove( top.poll() );
+            }
+        }
+
+        List<MethodStatistics> list = new ArrayList<MethodStatistics>( top );
+        Collections.sort( list, Collections.reverseOrder( byNetTime ) );
+        return list;
+    }
+
+    /**
+     * Turns on continuous profiling, where method totals are also kept for each window of time and a snapshot
+     * of each window is written to a directory when it ends.  Continuous profiling only records while
+     * profiling is active.  If continuous profiling is already on it is restarted with the new settings
+     * @param directory the directory to write the snapshots to
+     * @param windowLength the length of each window in milliseconds
+     * @param windowCount the number of recent windows kept in memory
+     * @param maxDirectorySize the most bytes the snapshots may take up before the oldest are deleted, zero for
+     *        no limit
+     */
+    public synchronized void startContinuousProfiling( File directory, long windowLength, int windowCount,
+                                                       long maxDirectorySize )
+    {
+        ContinuousProfiling continuous = new ContinuousProfiling( directory, windowLength, windowCount,
+                maxDirectorySize );
+
+        stopContinuousProfiling();
+        continuous.start();
+        continuousProfiling = continuous;
+    }
+
+    /**
+     * Turns off continuous profiling.  Windows that have ended are written before this returns
+     */
+    public synchronized void stopContinuousProfiling()
+    {
+        ContinuousProfiling continuous = continuousProfiling;
+        if ( continuous != null )
+        {
+            continuousProfiling = null;
+            continuous.stop();
+        }
+    }
+
+    /**
+     * @return true if continuous profiling is on
+     */
+    public boolean isContinuousProfiling()
+    {
+        return continuousProfiling != null;
+    }
+
+    /**
+     * @return the directory continuous profiling writes its snapshots to, or null if it is off
+     */
+    public File getWindowSnapshotDirectory()
+    {
+        ContinuousProfiling continuous = continuousProfiling;
+        return continuous == null ? null : continuous.getDirectory();
+    }
+
+    /**
+     * @return the windows of continuous profiling held in memory, oldest first
+     */
+    public List<StatisticsWindow> getRecentWindows()
+    {
+        ContinuousProfiling continuous = continuousProfiling;
+        return continuous == null ? Collections.<StatisticsWindow>emptyList() : continuous.getWindows();
+    }
+
+    /**
+     * Finds the window of continuous profiling containing a time, reading its snapshot if it is no longer held
+     * in memory
+     * @param time a time in milliseconds since the epoch
+     * @return the window, or null if continuous profiling is off or there is no window for the time
+     * @throws IOException if the window's snapshot cannot be read
+     */
+    public StatisticsWindow getWindow( long time ) throws IOException
+    {
+        ContinuousProfiling continuous = continuousProfiling;
+        return continuous == null ? null : continuous.getWindow( time );
+    }
+
     /**
      * Clears all data structures that track profiling information
      */
     public void clear()
     {
         triggerManagerOverhead.clear();
-        executionNodeMap.clear();
-        executionStackMap.clear();
         missingTriggers.clear();
-        rootExecutionNodes.clear();
         triggers.clear();
+
+        List<TreeSpiller> deleted;
+
+        synchronized( threadRecorders )
+        {
+            generation++;
+            methodTable = new MethodTable();
+            threadRecorders.clear();
+            callingContexts = new CallingContext( null );
+
+            // the recorders of the new generation spill to a new file, so the old files can go once no
+            // snapshot is reading them any more
+            deleted = new ArrayList<TreeSpiller>( spillers );
+            spillers.clear();
+
+            TreeSpiller current = spiller;
+            spiller = null;
+            if ( current != null )
+            {
+                try
+                {
+                    spiller = new TreeSpiller( current.getFile().getParentFile(), current.getMemoryBudget() );
+                    spillers.add( spiller );
+                }
+                catch( IOException e )
+                {
+                    log.error( "Unable to create a new spill file, call trees are no longer spilled", e );
+                }
+            }
+        }
+
+        for ( TreeSpiller old : deleted )
+        {
+            old.retire();
+        }
     }
 
     /**
@@ -197,14 +829,7 @@ public enum MRIProfiler
      */
     public void addMissingTrigger( String name )
     {
-        Integer count = missingTriggers.get( name );
-
-        if ( count == null )
-        {
-            count = 0;
-        }
-
-        missingTriggers.put( name, ++count );
+        increment( missingTriggers, name );
     }
 
     /**
@@ -212,7 +837,7 @@ public enum MRIProfiler
      */
     public Map<String, Integer> getMissingTriggers()
     {
-        return new TreeMap<String, Integer>( missingTriggers );
+        return toCounts( missingTriggers );
     }
 
     /**
@@ -221,14 +846,7 @@ public enum MRIProfiler
      */
     public void addTrigger( TriggerProgramParameters trigger )
     {
-        Integer count = triggers.get( trigger );
-
-        if ( count == null )
-        {
-            count = 0;
-        }
-
-        triggers.put( trigger, ++count );
+        increment( triggers, trigger );
     }
 
     /**
@@ -237,88 +855,169 @@ public enum MRIProfiler
      */
     public Map<TriggerProgramParameters, Integer> getTriggers()
     {
-        return new TreeMap<TriggerProgramParameters, Integer>( triggers );
+        return toCounts( triggers );
     }
 
     /**
-     * This method looks at the execution tree to see if the direct parent of the current execution node
-     * is the trigger manager JPO.  If so, it means that the current node was invoked by the trigger
-     * manager and is thus a Java trigger
-     * @return true if the current node was invoked by the trigger manager, false otherwise
+     * This is checked by every advised JPO method, so it is kept by the thread's recorder rather than worked out
+     * from the calls recorded, which depend on what is switched on
+     * @return where the current thread is in relation to the trigger manager
      */
-    public boolean isJavaTrigger()
+    public TriggerContext getTriggerContext()
     {
-        boolean isTrigger = false;
+        ThreadRecorder recorder = threadRecorder.get();
 
-        UnsynchronizedStack<TreeNode<ExecutionNode>> executionStack = executionStackMap.get(
-                Thread.currentThread().toString() );
+        return recorder != null ? recorder.getTriggerContext() : TriggerContext.NONE;
+    }
 
-        if ( executionStack != null && executionStack.size() > 1 )
-        {
-            TreeNode<ExecutionNode> parent = executionStack.peek();
+    /**
+     * Changes where the current thread is in relation to the trigger manager.  The advice that changes it must
+     * put back the previous context when its method returns
+     * @param triggerContext the new context
+     */
+    public void setTriggerContext( TriggerContext triggerContext )
+    {
+        getThreadRecorder().setTriggerContext( triggerContext );
+    }
+
+    private static <K> void increment( ConcurrentMap<K, AtomicInteger> counts, K key )
+    {
+        AtomicInteger count = counts.get( key );
 
-            if ( parent.getObject().getName().equals( "matrix.db.JPOSupport" ) &&
-                    parent.getObject().getMethod().startsWith( "invokeObject" ) )
+        if ( count == null )
+        {
+            count = new AtomicInteger();
+            AtomicInteger existing = counts.putIfAbsent( key, count );
+            if ( existing != null )
             {
-                TreeNode<ExecutionNode> grandParent = parent.getParent();
-                isTrigger = grandParent.getObject().getType() == ExecutionNode.Type.TRIGGER_MANAGER &&
-                        grandParent.getObject().getMethod().startsWith( "mxMain" );
+                count = existing;
             }
         }
 
-        return isTrigger;
+        count.incrementAndGet();
     }
 
-    private void addNodeToStack( ExecutionNode executionNode )
+    private static <K> Map<K, Integer> toCounts( ConcurrentMap<K, AtomicInteger> counts )
     {
-        UnsynchronizedStack<TreeNode<ExecutionNode>> executionStack;
+        Map<K, Integer> map = new TreeMap<K, Integer>();
+        for ( Map.Entry<K, AtomicInteger> entry : counts.entrySet() )
+        {
+            map.put( entry.getKey(), entry.getValue().get() );
+        }
+        return map;
+    }
 
-        synchronized( executionStackMap )
+    /**
+     * Looks up the statistics of the method an execution node is an invocation of, registering the method
+     * and interning its id the first time it is seen in the current generation
+     * @param executionNode the node to find the statistics for
+     * @return the statistics of the node's method
+     */
+    private MethodStatistics getMethodStatistics( ExecutionNode executionNode )
+    {
+        MethodTable table = methodTable;
+        MethodStatistics statistics = table.statistics.get( executionNode );
+
+        if ( statistics == null )
         {
-            executionStack = executionStackMap.get( executionNode.getThreadId() );
-            if ( executionStack == null )
+            ExecutionNode key = new ExecutionNode( executionNode.getType(), executionNode.getName(),
+                    executionNode.getMethod(), null );
+            statistics = new MethodStatistics( table.nextId.getAndIncrement(), key.getType(), key.getName(),
+                    key.getMethod(), table.types[ key.getType().ordinal() ] );
+
+            MethodStatistics existing = table.statistics.putIfAbsent( key, statistics );
+            if ( existing != null )
             {
-                executionStack = getNewExecutionStack();
-                executionStackMap.put( executionNode.getThreadId(), executionStack );
+                statistics = existing;
             }
         }
 
-        TreeNode<ExecutionNode> parent = executionStack.peek();
-        DefaultTreeNode<ExecutionNode> child = new DefaultTreeNode<ExecutionNode>( parent, executionNode );
-        executionStack.push( child );
+        return statistics;
     }
 
-    private void addNodeToList( ExecutionNode executionNode )
+    /**
+     * @return the recorder for the current thread.  A new recorder is registered if the thread has never
+     *         recorded anything, or if the profiler has been cleared since and the thread is idle.  A busy thread
+     *         keeps its stale recorder until its outermost call returns so that pushes and pops stay balanced
+     */
+    private ThreadRecorder getThreadRecorder()
     {
-        List<ExecutionNode> executionNodes;
+        ThreadRecorder recorder = threadRecorder.get();
 
-        synchronized( executionNodeMap )
+        if ( recorder == null || ( recorder.getGeneration() != generation && recorder.isIdle() ) )
         {
-            executionNodes = executionNodeMap.get( executionNode );
-            if ( executionNodes == null )
+            synchronized( threadRecorders )
             {
-                executionNodes = new ArrayList<ExecutionNode>();
-                executionNodeMap.put( executionNode, executionNodes );
+                recorder = new ThreadRecorder( Thread.currentThread().toString(), generation,
+                        getRingBufferCapacity( maxTreesPerThread ), offHeapStore, spiller,
+                        callingContexts );
+                threadRecorders.add( recorder );
             }
+            threadRecorder.set( recorder );
         }
 
-        executionNodes.add( executionNode );
+        return recorder;
     }
 
-    private UnsynchronizedStack<TreeNode<ExecutionNode>> getNewExecutionStack()
+    /**
+     * @return a copy of the recorders of the current generation
+     */
+    List<ThreadRecorder> getThreadRecorders()
     {
-        ExecutionNode nullExecutionNode = new ExecutionNode( ExecutionNode.Type.ROOT, "Root", null, null );
+        synchronized( threadRecorders )
+        {
+            return new ArrayList<ThreadRecorder>( threadRecorders );
+        }
+    }
 
-        TreeNode<ExecutionNode> rootExecutionNode =
-                new DefaultTreeNode<ExecutionNode>( nullExecutionNode );
+    private static int getRingBufferCapacity( int maxTrees )
+    {
+        return maxTrees == 0 ? RingBuffer.UNBOUNDED : maxTrees;
+    }
 
-        UnsynchronizedStack<TreeNode<ExecutionNode>>executionStack =
-                new UnsynchronizedStack<TreeNode<ExecutionNode>>();
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   Aggregated timings for each distinct method profiled in one generation, and for each type of execution
+     *   node.  The keys are parameterless copies of the first execution node seen for each method, so any
+     *   execution node can be used to look up its method's statistics.
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private static class MethodTable
+    {
+        final ConcurrentMap<ExecutionNode, MethodStatistics> statistics =
+                new ConcurrentHashMap<ExecutionNode, MethodStatistics>();
 
-        executionStack.push( rootExecutionNode );
+        /**
+         * Source of the ids interned for each distinct method
+         */
+        final AtomicInteger nextId = new AtomicInteger();
 
-        rootExecutionNodes.add( rootExecutionNode );
+        /**
+         * The totals of each type of execution node, indexed by ordinal
+         */
+        final TypeStatistics[] types = new TypeStatistics[ ExecutionNode.Type.values().length ];
+
+        MethodTable()
+        {
+            for ( ExecutionNode.Type type : ExecutionNode.Type.values() )
+            {
+                types[ type.ordinal() ] = new TypeStatistics( type );
+            }
+        }
+    }
 
-        return executionStack;
+    private static ParameterCapture[] getDefaultParameterCaptures()
+    {
+        ParameterCapture[] captures = new ParameterCapture[ ExecutionNode.Type.values().length ];
+        Arrays.fill( captures, ParameterCapture.SNAPSHOT );
+        return captures;
     }
-}
\ No newline at end of file
+}
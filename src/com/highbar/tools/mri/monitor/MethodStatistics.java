@@ -0,0 +1,161 @@
+package com.highbar.tools.mri.monitor;
+
+import com.highbar.util.LatencyHistogram;
+import com.highbar.util.StripedCounter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Aggregated timings for every invocation of a single method (identified by its type, name and method
+ *   signature).  The profiler keeps one instance per distinct method, so memory use stays constant no
+ *   matter how many times the method is called.  All updates are lock free.
+ * <p/>
+ *   Besides the totals, the elapsed time of every invocation is counted in a histogram so the percentiles of
+ *   the method's latency can be reported, not just its average.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class MethodStatistics
+{
+    private final int id;
+    private final ExecutionNode.Type type;
+    private final String name;
+    private final String method;
+
+    private final StripedCounter invocations = new StripedCounter();
+    private final StripedCounter totalTime = new StripedCounter();
+    private final StripedCounter netTime = new StripedCounter();
+    private final AtomicLong minTime = new AtomicLong( Long.MAX_VALUE );
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * The totals of the method's type, also added to by each invocation.  Null for a copy, which isn't recorded to
+     */
+    private final TypeStatistics typeStatistics;
+
+    MethodStatistics( int id, ExecutionNode.Type type, String name, String method, TypeStatistics typeStatistics )
+    {
+        this.id = id;
+        this.type = type;
+        this.name = name;
+        this.method = method;
+        this.typeStatistics = typeStatistics;
+    }
+
+    /**
+     * Adds the timings of a single invocation, to the totals of the method's type as well
+     * @param elapsedTime the total time taken by the invocation, including called methods
+     * @param netTime the time spent in the method itself, excluding advised methods it called
+     */
+    void record( long elapsedTime, long netTime )
+    {
+        this.invocations.increment();
+        this.totalTime.add( elapsedTime );
+        this.netTime.add( netTime );
+
+        long min = minTime.get();
+        while ( elapsedTime < min && !minTime.compareAndSet( min, elapsedTime ) )
+        {
+            min = minTime.get();
+        }
+
+        latencies.record( elapsedTime );
+        typeStatistics.record( elapsedTime, netTime );
+    }
+
+    /**
+     * @return a copy of these statistics that no longer changes as the method is invoked
+     */
+    MethodStatistics copy()
+    {
+        MethodStatistics copy = new MethodStatistics( id, type, name, method, null );
+        copy.invocations.add( invocations.sum() );
+        copy.totalTime.add( totalTime.sum() );
+        copy.netTime.add( netTime.sum() );
+        copy.minTime.set( minTime.get() );
+        copy.latencies.add( latencies );
+        return copy;
+    }
+
+    /**
+     * @return the id interned for this method, unique among the methods profiled since the profiler was last cleared
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    TypeStatistics getTypeStatistics()
+    {
+        return typeStatistics;
+    }
+
+    public ExecutionNode.Type getType()
+    {
+        return type;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getMethod()
+    {
+        return method;
+    }
+
+    public long getInvocations()
+    {
+        return invocations.sum();
+    }
+
+    /**
+     * @return the sum of the elapsed times of all invocations, including called methods
+     */
+    public long getTotalTime()
+    {
+        return totalTime.sum();
+    }
+
+    /**
+     * @return the sum of the net times of all invocations, excluding advised methods that were called
+     */
+    public long getNetTime()
+    {
+        return netTime.sum();
+    }
+
+    /**
+     * @return the shortest elapsed time of a single invocation, or zero if there were no invocations
+     */
+    public long getMinTime()
+    {
+        long min = minTime.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * @return the longest elapsed time of a single invocation
+     */
+    public long getMaxTime()
+    {
+        return latencies.getMaxValue();
+    }
+
+    /**
+     * @return the histogram of the elapsed times of all invocations
+     */
+    public LatencyHistogram getLatencies()
+    {
+        return latencies;
+    }
+}
@@ -0,0 +1,109 @@
+package com.highbar.tools.mri.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   The invocation count and timings of a single method over one window of continuous profiling.  This is a
+ *   lighter version of {@link MethodStatistics}, as a window holds one of these for every method invoked
+ *   during it and many windows are kept.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class MethodTotals
+{
+    private final ExecutionNode.Type type;
+    private final String name;
+    private final String method;
+
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong netTime = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+
+    MethodTotals( ExecutionNode.Type type, String name, String method )
+    {
+        this.type = type;
+        this.name = name;
+        this.method = method;
+    }
+
+    MethodTotals( ExecutionNode.Type type, String name, String method, long invocations, long totalTime,
+                  long netTime, long maxTime )
+    {
+        this( type, name, method );
+        this.invocations.set( invocations );
+        this.totalTime.set( totalTime );
+        this.netTime.set( netTime );
+        this.maxTime.set( maxTime );
+    }
+
+    /**
+     * Adds the timings of a single invocation
+     * @param elapsedTime the total time taken by the invocation, including called methods
+     * @param netTime the time spent in the method itself, excluding advised methods it called
+     */
+    void record( long elapsedTime, long netTime )
+    {
+        this.invocations.incrementAndGet();
+        this.totalTime.addAndGet( elapsedTime );
+        this.netTime.addAndGet( netTime );
+
+        long max = maxTime.get();
+        while ( elapsedTime > max && !maxTime.compareAndSet( max, elapsedTime ) )
+        {
+            max = maxTime.get();
+        }
+    }
+
+    public ExecutionNode.Type getType()
+    {
+        return type;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getMethod()
+    {
+        return method;
+    }
+
+    public long getInvocations()
+    {
+        return invocations.get();
+    }
+
+    /**
+     * @return the sum of the elapsed times of the invocations, including called methods
+     */
+    public long getTotalTime()
+    {
+        return totalTime.get();
+    }
+
+    /**
+     * @return the sum of the net times of the invocations, excluding advised methods that were called
+     */
+    public long getNetTime()
+    {
+        return netTime.get();
+    }
+
+    /**
+     * @return the longest elapsed time of a single invocation
+     */
+    public long getMaxTime()
+    {
+        return maxTime.get();
+    }
+}
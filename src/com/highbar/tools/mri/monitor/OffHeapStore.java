@@ -0,0 +1,207 @@
+package com.highbar.tools.mri.monitor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Keeps completed call trees outside the Java heap, so a long profiling session doesn't fill the heap with
+ *   objects the garbage collector has to trace.  Each tree is copied into a slice of a large direct buffer (a
+ *   slab): its events as fixed-size records of two longs, followed by its parameters as strings.
+ * <p/>
+ *   Slabs are shared by every thread and handed out in order.  A slab's memory is given back once the slab is
+ *   full and every tree in it has been discarded, so in bounded mode (see
+ *   {@link MRIProfiler#setMaxTreesPerThread(int)}) memory is reclaimed a slab at a time.  A tree larger than a
+ *   quarter of a slab gets a buffer of its own.
+ * <p/>
+ *   Parameters are stored as the strings the report would show, so parameter objects captured in full are
+ *   converted to strings when their tree completes rather than when the report is written.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+final class OffHeapStore
+{
+    /**
+     * The length written for a null parameter array or value
+     */
+    private static final int NULL = -1;
+
+    private final int slabSize;
+    private ByteBuffer slab;
+
+    /**
+     * @param slabSize the size of each slab in bytes
+     */
+    OffHeapStore( int slabSize )
+    {
+        if ( slabSize < 1024 )
+        {
+            throw new IllegalArgumentException( "slabSize must be at least 1024: " + slabSize );
+        }
+
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Copies a completed tree out of the heap
+     * @param events the enter and exit events of the tree
+     * @param eventCount the number of longs of the events used
+     * @param methods the statistics of each method entered, indexed by method id
+     * @param parameters the parameters captured for each call in preorder, or null if none were
+     * @param callCount the number of calls in the tree
+     * @return the tree
+     * @throws OutOfMemoryError if the direct memory limit of the JVM has been reached
+     */
+    CallTree store( long[] events, int eventCount, MethodStatistics[] methods, Object[][] parameters,
+                    int callCount )
+    {
+        // the values are converted once, so the length worked out is the length written
+        String[][] values = parameters == null ? null : toStrings( parameters, callCount );
+        int eventBytes = eventCount * 8;
+        int parameterBytes = values == null ? 0 : getEncodedLength( values );
+        ByteBuffer buffer = allocate( eventBytes + parameterBytes );
+
+        buffer.asLongBuffer().put( events, 0, eventCount );
+
+        ByteBuffer encodedParameters = null;
+        if ( values != null )
+        {
+            buffer.position( eventBytes );
+            encodedParameters = buffer.slice().order( ByteOrder.nativeOrder() );
+            encode( values, encodedParameters.duplicate().order( ByteOrder.nativeOrder() ) );
+        }
+
+        buffer.position( 0 ).limit( eventBytes );
+        LongBuffer eventBuffer = buffer.slice().order( ByteOrder.nativeOrder() ).asLongBuffer();
+
+        return new CallTree( eventBuffer, methods, encodedParameters );
+    }
+
+    /**
+     * Reads back the parameters of a tree
+     * @param encoded the parameters as written by store()
+     * @return the parameters of each call in preorder
+     */
+    static Object[][] decode( ByteBuffer encoded )
+    {
+        ByteBuffer in = encoded.duplicate().order( ByteOrder.nativeOrder() );
+        Object[][] parameters = new Object[ in.getInt() ][];
+
+        for ( int call = 0; call < parameters.length; call++ )
+        {
+            int count = in.getInt();
+            if ( count != NULL )
+            {
+                parameters[call] = new Object[count];
+                for ( int i = 0; i < count; i++ )
+                {
+                    int length = in.getInt();
+                    if ( length != NULL )
+                    {
+                        char[] chars = new char[length];
+                        in.asCharBuffer().get( chars );
+                        in.position( in.position() + length * 2 );
+                        parameters[call][i] = new String( chars );
+                    }
+                }
+            }
+        }
+
+        return parameters;
+    }
+
+    private synchronized ByteBuffer allocate( int size )
+    {
+        if ( size > slabSize / 4 )
+        {
+            // a large tree would waste the rest of the slab
+            return ByteBuffer.allocateDirect( size ).order( ByteOrder.nativeOrder() );
+        }
+
+        if ( slab == null || slab.remaining() < size )
+        {
+            slab = ByteBuffer.allocateDirect( slabSize );
+        }
+
+        // slices start at an 8 byte boundary so the events are aligned
+        int start = slab.position();
+        slab.limit( start + size );
+        ByteBuffer slice = slab.slice().order( ByteOrder.nativeOrder() );
+        slab.limit( slab.capacity() );
+        slab.position( Math.min( slab.capacity(), ( start + size + 7 ) & ~7 ) );
+
+        return slice;
+    }
+
+    static String[][] toStrings( Object[][] parameters, int callCount )
+    {
+        String[][] values = new String[callCount][];
+        for ( int call = 0; call < callCount; call++ )
+        {
+            if ( parameters[call] != null )
+            {
+                values[call] = new String[ parameters[call].length ];
+                for ( int i = 0; i < values[call].length; i++ )
+                {
+                    Object value = parameters[call][i];
+                    values[call][i] = value == null || value instanceof String ?
+                            (String)value : ParameterCapture.toString( value );
+                }
+            }
+        }
+        return values;
+    }
+
+    static int getEncodedLength( String[][] values )
+    {
+        int length = 4;
+        for ( String[] call : values )
+        {
+            length += 4;
+            if ( call != null )
+            {
+                for ( String value : call )
+                {
+                    length += 4 + ( value == null ? 0 : value.length() * 2 );
+                }
+            }
+        }
+        return length;
+    }
+
+    static void encode( String[][] values, ByteBuffer out )
+    {
+        out.putInt( values.length );
+        for ( String[] call : values )
+        {
+            if ( call == null )
+            {
+                out.putInt( NULL );
+                continue;
+            }
+
+            out.putInt( call.length );
+            for ( String value : call )
+            {
+                if ( value == null )
+                {
+                    out.putInt( NULL );
+                }
+                else
+                {
+                    out.putInt( value.length() );
+                    out.asCharBuffer().put( value );
+                    out.position( out.position() + value.length() * 2 );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.highbar.tools.mri.monitor;
+
+import matrix.db.Context;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   The policies for capturing the parameter values passed to profiled methods.  Keeping the raw parameter
+ *   objects pins them (and everything they reference) in memory until the report is written, so the cheaper
+ *   policies record only what the report needs.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public enum ParameterCapture
+{
+    /**
+     * Parameters are not captured at all
+     */
+    NONE,
+
+    /**
+     * Only the runtime type of each parameter is captured
+     */
+    TYPES,
+
+    /**
+     * The string value of each parameter is captured when the method is called, truncated to the snapshot length
+     */
+    SNAPSHOT,
+
+    /**
+     * The parameter objects themselves are kept, and converted to strings when the report is written
+     */
+    FULL;
+
+    private static final String TRUNCATED = "...";
+
+    /**
+     * Captures parameter values according to this policy
+     * @param args the parameter values passed to the method
+     * @param buffer a reusable buffer used to build snapshots
+     * @param maxLength the maximum length of a snapshot
+     * @return the captured values, or null if nothing is captured
+     */
+    Object[] capture( Object[] args, StringBuilder buffer, int maxLength )
+    {
+        if ( args == null || this == NONE )
+        {
+            return null;
+        }
+        else if ( this == FULL )
+        {
+            return args;
+        }
+
+        Object[] values = new Object[args.length];
+
+        for ( int i = 0; i < args.length; i++ )
+        {
+            if ( this == TYPES )
+            {
+                values[i] = args[i] == null ? "null" : args[i].getClass().getName();
+            }
+            else
+            {
+                buffer.setLength( 0 );
+                appendValue( buffer, args[i], maxLength );
+                values[i] = buffer.toString();
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * @param o the parameter value
+     * @return the string value used to display a parameter
+     */
+    public static String toString( Object o )
+    {
+        StringBuilder s = new StringBuilder();
+        appendValue( s, o, Integer.MAX_VALUE );
+        return s.toString();
+    }
+
+    /**
+     * Appends the string value of a parameter to a buffer.  Arrays and collections are appended one element
+     * at a time so that large ones never have to be converted to a single string when truncating
+     * @param s the buffer to append to
+     * @param o the parameter value
+     * @param maxLength the length at which the buffer is truncated
+     */
+    static void appendValue( StringBuilder s, Object o, int maxLength )
+    {
+        if ( o instanceof Object[] )
+        {
+            Object[] array = (Object[])o;
+            s.append( '[' );
+            for ( int i = 0; i < array.length && s.length() < maxLength; i++ )
+            {
+                if ( i != 0 )
+                {
+                    s.append( ", " );
+                }
+                s.append( array[i] );
+            }
+            s.append( ']' );
+        }
+        else if ( o instanceof Collection )
+        {
+            s.append( '[' );
+            for ( Iterator<?> i = ( (Collection<?>)o ).iterator(); i.hasNext() && s.length() < maxLength; )
+            {
+                s.append( i.next() );
+                if ( i.hasNext() )
+                {
+                    s.append( ", " );
+                }
+            }
+            s.append( ']' );
+        }
+        else if ( o != null && o.getClass().isArray() )
+        {
+            // primitive arrays
+            int length = Array.getLength( o );
+            s.append( '[' );
+            for ( int i = 0; i < length && s.length() < maxLength; i++ )
+            {
+                if ( i != 0 )
+                {
+                    s.append( ", " );
+                }
+                s.append( Array.get( o, i ) );
+            }
+            s.append( ']' );
+        }
+        else if ( o instanceof Context )
+        {
+            s.append( "Context (user: " ).append( ( (Context)o ).getUser() ).append( ')' );
+        }
+        else // some other object
+        {
+            s.append( o );
+        }
+
+        if ( s.length() > maxLength )
+        {
+            s.setLength( maxLength );
+            s.append( TRUNCATED );
+        }
+    }
+}
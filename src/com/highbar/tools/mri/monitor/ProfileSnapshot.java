@@ -0,0 +1,118 @@
+package com.highbar.tools.mri.monitor;
+
+import com.highbar.tools.trigger.cache.TriggerProgramParameters;
+import com.highbar.util.TreeNode;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   A consistent copy of what the profiler has recorded, taken at one moment so a report can be written from it
+ *   on another thread while the application carries on.  Each thread's call tree holds only its completed
+ *   top-level trees, which are shared with the profiler but no longer change.  Calls still in progress are left
+ *   out.  Method statistics and the calling context tree are copied, and stop watches are reduced to their
+ *   elapsed times.
+ * <p/>
+ *   Trees that have been spilled to disk are read from their spill files as the snapshot is read, so the snapshot
+ *   keeps those files even if the profiler is cleared meanwhile.  Release the snapshot once it has been read so
+ *   they can be deleted.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class ProfileSnapshot
+{
+    private final Set<TreeNode<ExecutionNode>> rootExecutionNodes;
+    private final List<MethodStatistics> methodStatistics;
+    private final CallingContext callingContexts;
+    private final List<Long> triggerManagerOverhead;
+    private final Map<String, Integer> missingTriggers;
+    private final Map<TriggerProgramParameters, Integer> triggers;
+    private final List<TreeSpiller> spillers;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    ProfileSnapshot( Set<TreeNode<ExecutionNode>> rootExecutionNodes, List<MethodStatistics> methodStatistics,
+                     CallingContext callingContexts, List<Long> triggerManagerOverhead, Map<String, Integer> missingTriggers,
+                     Map<TriggerProgramParameters, Integer> triggers, List<TreeSpiller> spillers )
+    {
+        this.rootExecutionNodes = rootExecutionNodes;
+        this.methodStatistics = methodStatistics;
+        this.callingContexts = callingContexts;
+        this.triggerManagerOverhead = triggerManagerOverhead;
+        this.missingTriggers = missingTriggers;
+        this.triggers = triggers;
+        this.spillers = spillers;
+    }
+
+    /**
+     * @return the root of each thread's completed call trees
+     */
+    public Set<TreeNode<ExecutionNode>> getRootExecutionNodes()
+    {
+        return rootExecutionNodes;
+    }
+
+    /**
+     * @return the aggregated timings of each distinct method
+     */
+    public List<MethodStatistics> getMethodStatistics()
+    {
+        return methodStatistics;
+    }
+
+    /**
+     * @return the root of the calling context tree, where the calls made along identical call paths are merged
+     */
+    public CallingContext getCallingContextTree()
+    {
+        return callingContexts;
+    }
+
+    /**
+     * @return the time taken to instantiate each trigger manager, in nanoseconds
+     */
+    public List<Long> getTriggerManagerOverhead()
+    {
+        return triggerManagerOverhead;
+    }
+
+    /**
+     * @return the number of attempts to invoke each trigger that doesn't exist
+     */
+    public Map<String, Integer> getMissingTriggers()
+    {
+        return missingTriggers;
+    }
+
+    /**
+     * @return the number of invocations of each trigger
+     */
+    public Map<TriggerProgramParameters, Integer> getTriggers()
+    {
+        return triggers;
+    }
+
+    /**
+     * Lets go of the spill files the snapshot reads spilled trees from.  The call trees can no longer be read
+     * once the snapshot is released.  Releasing it again does nothing
+     */
+    public void release()
+    {
+        if ( released.compareAndSet( false, true ) )
+        {
+            for ( TreeSpiller spiller : spillers )
+            {
+                spiller.release();
+            }
+        }
+    }
+}
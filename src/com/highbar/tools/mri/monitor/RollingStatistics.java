@@ -0,0 +1,122 @@
+package com.highbar.tools.mri.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Keeps method totals for a fixed number of the most recent windows of time, e.g. one minute windows for the
+ *   last hour.  The windows are held in a ring indexed by the time they start, so a window is reused once it is
+ *   older than the whole ring.  Rolling over to a new window is a single compare and set, so recording is lock
+ *   free.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class RollingStatistics
+{
+    private final long windowLength;
+    private final AtomicReferenceArray<StatisticsWindow> windows;
+
+    /**
+     * @param windowLength the length of each window in milliseconds
+     * @param windowCount the number of windows kept
+     */
+    RollingStatistics( long windowLength, int windowCount )
+    {
+        if ( windowLength < 1 || windowCount < 1 )
+        {
+            throw new IllegalArgumentException( "The window length and count must be at least 1: " +
+                    windowLength + ", " + windowCount );
+        }
+
+        this.windowLength = windowLength;
+        this.windows = new AtomicReferenceArray<StatisticsWindow>( windowCount );
+    }
+
+    /**
+     * Adds the timings of an invocation that has just completed to the current window
+     * @param statistics the statistics of the invoked method
+     * @param elapsedTime the total time taken by the invocation, including called methods
+     * @param netTime the time spent in the method itself, excluding advised methods it called
+     */
+    void record( MethodStatistics statistics, long elapsedTime, long netTime )
+    {
+        long now = System.currentTimeMillis();
+        long start = now - now % windowLength;
+        int slot = getSlot( now );
+
+        StatisticsWindow window = windows.get( slot );
+        while ( window == null || window.getStartTime() < start )
+        {
+            StatisticsWindow next = new StatisticsWindow( start, windowLength );
+            window = windows.compareAndSet( slot, window, next ) ? next : windows.get( slot );
+        }
+
+        // a window from the future means the clock has been set back, the invocation is dropped
+        if ( window.getStartTime() == start )
+        {
+            window.record( statistics, elapsedTime, netTime );
+        }
+    }
+
+    /**
+     * @return the length of each window in milliseconds
+     */
+    long getWindowLength()
+    {
+        return windowLength;
+    }
+
+    /**
+     * @param time a time in milliseconds since the epoch
+     * @return the window containing the time, or null if it isn't held
+     */
+    StatisticsWindow getWindow( long time )
+    {
+        StatisticsWindow window = windows.get( getSlot( time ) );
+        return window != null && window.contains( time ) ? window : null;
+    }
+
+    /**
+     * @return the windows held, oldest first.  Windows in which nothing was invoked are left out
+     */
+    List<StatisticsWindow> getWindows()
+    {
+        long oldest = System.currentTimeMillis() - windowLength * windows.length();
+        List<StatisticsWindow> list = new ArrayList<StatisticsWindow>();
+
+        for ( int i = 0; i < windows.length(); i++ )
+        {
+            StatisticsWindow window = windows.get( i );
+            if ( window != null && window.getEndTime() > oldest )
+            {
+                list.add( window );
+            }
+        }
+
+        Collections.sort( list, new Comparator<StatisticsWindow>()
+        {
+            public int compare( StatisticsWindow one, StatisticsWindow two )
+            {
+                return one.getStartTime() < two.getStartTime() ? -1 : ( one.getStartTime() == two.getStartTime() ? 0 : 1 );
+            }
+        } );
+
+        return list;
+    }
+
+    private int getSlot( long time )
+    {
+        return (int)( ( time / windowLength ) % windows.length() );
+    }
+}
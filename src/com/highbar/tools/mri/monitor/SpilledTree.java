@@ -0,0 +1,128 @@
+package com.highbar.tools.mri.monitor;
+
+import com.highbar.util.AbstractTreeNode;
+import com.highbar.util.TreeNode;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   A completed top-level call tree that has been moved to a spill file by a {@link TreeSpiller}.  Only its
+ *   place in the file is kept in memory.  The tree is read back each time its top or its callees are asked for,
+ *   so a report writer reads spilled trees one at a time, in the same order as the trees still in memory.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+final class SpilledTree
+{
+    private final TreeSpiller spiller;
+    private final long offset;
+    private final int length;
+    private final MethodStatistics[] methods;
+
+    /**
+     * @param spiller the spiller whose file the tree was written to
+     * @param offset the offset the tree was written at
+     * @param length the length of the tree in bytes
+     * @param methods the statistics of each method entered, indexed by method id
+     */
+    SpilledTree( TreeSpiller spiller, long offset, int length, MethodStatistics[] methods )
+    {
+        this.spiller = spiller;
+        this.offset = offset;
+        this.length = length;
+        this.methods = methods;
+    }
+
+    /**
+     * @param parent the node to attach the tree to, the root of its thread
+     * @return the top of the tree, which is read from the spill file when it is first looked at
+     */
+    TreeNode<ExecutionNode> toTreeNode( TreeNode<ExecutionNode> parent )
+    {
+        return new SpilledNode( parent );
+    }
+
+    /**
+     * @return the tree, read back from the spill file
+     * @throws IllegalStateException if the tree cannot be read, e.g. the spill file has been deleted
+     */
+    private CallTree read()
+    {
+        try
+        {
+            return CallTree.decode( spiller.read( offset, length ), methods );
+        }
+        catch( IOException e )
+        {
+            throw new IllegalStateException( "Cannot read spilled call tree from " + spiller.getFile(), e );
+        }
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   The top-level call of a spilled tree
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private final class SpilledNode extends AbstractTreeNode<ExecutionNode>
+    {
+        private final TreeNode<ExecutionNode> parent;
+        private ExecutionNode object;
+
+        SpilledNode( TreeNode<ExecutionNode> parent )
+        {
+            this.parent = parent;
+        }
+
+        public ExecutionNode getObject()
+        {
+            if ( object == null )
+            {
+                object = read().createTop();
+            }
+            return object;
+        }
+
+        public TreeNode<ExecutionNode> getParent()
+        {
+            return parent;
+        }
+
+        public int getLevel()
+        {
+            return parent.getLevel() + 1;
+        }
+
+        /**
+         * Reads the tree back and rebuilds the callees of the top-level call.  Neither is kept
+         * @return the direct callees, each with its own callees attached
+         */
+        public List<TreeNode<ExecutionNode>> getChildren()
+        {
+            return read().createCallees( this );
+        }
+
+        /**
+         * The callees are rebuilt by getChildren(), nothing is added to this node
+         */
+        public void addChild( TreeNode<ExecutionNode> child )
+        {
+        }
+    }
+}
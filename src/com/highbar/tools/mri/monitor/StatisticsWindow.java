@@ -0,0 +1,124 @@
+package com.highbar.tools.mri.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   The totals of every method invoked during one period of time in continuous profiling.  Invocations are
+ *   counted in the window in which they complete.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class StatisticsWindow
+{
+    private final long startTime;
+    private final long length;
+
+    /**
+     * The totals of each method.  Live windows key them by the method's statistics, windows read back from a
+     * snapshot by the totals themselves
+     */
+    private final ConcurrentMap<Object, MethodTotals> totals = new ConcurrentHashMap<Object, MethodTotals>();
+
+    StatisticsWindow( long startTime, long length )
+    {
+        this.startTime = startTime;
+        this.length = length;
+    }
+
+    StatisticsWindow( long startTime, long length, List<MethodTotals> methodTotals )
+    {
+        this( startTime, length );
+        for ( MethodTotals methodTotal : methodTotals )
+        {
+            totals.put( methodTotal, methodTotal );
+        }
+    }
+
+    /**
+     * Adds the timings of a single invocation
+     * @param statistics the statistics of the invoked method
+     * @param elapsedTime the total time taken by the invocation, including called methods
+     * @param netTime the time spent in the method itself, excluding advised methods it called
+     */
+    void record( MethodStatistics statistics, long elapsedTime, long netTime )
+    {
+        MethodTotals methodTotals = totals.get( statistics );
+
+        if ( methodTotals == null )
+        {
+            methodTotals = new MethodTotals( statistics.getType(), statistics.getName(), statistics.getMethod() );
+            MethodTotals existing = totals.putIfAbsent( statistics, methodTotals );
+            if ( existing != null )
+            {
+                methodTotals = existing;
+            }
+        }
+
+        methodTotals.record( elapsedTime, netTime );
+    }
+
+    /**
+     * @return the time the window starts, in milliseconds since the epoch
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * @return the time just after the window ends, in milliseconds since the epoch
+     */
+    public long getEndTime()
+    {
+        return startTime + length;
+    }
+
+    /**
+     * @return the length of the window in milliseconds
+     */
+    public long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @param time a time in milliseconds since the epoch
+     * @return true if the time falls within the window
+     */
+    public boolean contains( long time )
+    {
+        return time >= startTime && time < getEndTime();
+    }
+
+    /**
+     * @return the totals of each method invoked during the window
+     */
+    public List<MethodTotals> getMethodTotals()
+    {
+        return new ArrayList<MethodTotals>( totals.values() );
+    }
+
+    /**
+     * @return the number of invocations of all methods during the window
+     */
+    public long getInvocations()
+    {
+        long invocations = 0;
+        for ( MethodTotals methodTotals : totals.values() )
+        {
+            invocations += methodTotals.getInvocations();
+        }
+        return invocations;
+    }
+}
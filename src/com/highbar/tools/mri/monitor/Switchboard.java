@@ -0,0 +1,143 @@
+package com.highbar.tools.mri.monitor;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Turns profiling of each category of execution node, and of individual methods, on and off while the
+ *   application runs, without re-weaving.  The advice checks the switchboard on every call, so the switches are
+ *   kept in a single volatile array: one slot per category, followed by a slot for each method that has been
+ *   switched off.  While no method has been switched off the check is one array read.
+ * <p/>
+ *   Methods are identified by their declaring type and name, e.g. matrix.db.BusinessObject.getInfo, so a switch
+ *   covers every overload of the method.  Changes are copy on write.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class Switchboard
+{
+    private static final int CATEGORIES = ExecutionNode.Type.values().length;
+
+    /**
+     * The slot in the switches of each method that has a switch
+     */
+    private final ConcurrentMap<String, Integer> methodSlots = new ConcurrentHashMap<String, Integer>();
+
+    private volatile boolean[] switches = getAllOn();
+
+    /**
+     * @param type a category of execution node
+     * @return true if the category is being profiled
+     */
+    public boolean isEnabled( ExecutionNode.Type type )
+    {
+        return switches[ type.ordinal() ];
+    }
+
+    /**
+     * @param type the category of a method
+     * @param method the declaring type and name of the method, e.g. matrix.db.BusinessObject.getInfo
+     * @return true if both the category and the method are being profiled
+     */
+    public boolean isEnabled( ExecutionNode.Type type, String method )
+    {
+        boolean[] s = switches;
+
+        if ( !s[ type.ordinal() ] )
+        {
+            return false;
+        }
+        if ( s.length == CATEGORIES )
+        {
+            return true;
+        }
+
+        // a slot beyond this copy of the switches was added after it was read
+        Integer slot = methodSlots.get( method );
+        return slot == null || slot >= s.length || s[slot];
+    }
+
+    /**
+     * Switches profiling of a category of execution node on or off
+     * @param type the category
+     * @param enabled true to profile the category
+     */
+    public synchronized void setEnabled( ExecutionNode.Type type, boolean enabled )
+    {
+        boolean[] s = switches.clone();
+        s[ type.ordinal() ] = enabled;
+        switches = s;
+    }
+
+    /**
+     * Switches profiling of a method on or off
+     * @param method the declaring type and name of the method, e.g. matrix.db.BusinessObject.getInfo
+     * @param enabled true to profile the method
+     */
+    public synchronized void setEnabled( String method, boolean enabled )
+    {
+        Integer slot = methodSlots.get( method );
+        boolean[] s;
+
+        if ( slot == null )
+        {
+            if ( enabled )
+            {
+                return;
+            }
+            s = Arrays.copyOf( switches, switches.length + 1 );
+            slot = s.length - 1;
+        }
+        else
+        {
+            s = switches.clone();
+        }
+
+        s[slot] = enabled;
+        // the array must be published before the slot, so a reader never sees a slot beyond its copy
+        switches = s;
+        methodSlots.put( method, slot );
+    }
+
+    /**
+     * Synchronized with the changes, so the switches read and the slots iterated always match
+     * @return each method that has a switch, mapped to true if it is being profiled
+     */
+    public synchronized Map<String, Boolean> getMethodSwitches()
+    {
+        boolean[] s = switches;
+        Map<String, Boolean> methods = new TreeMap<String, Boolean>();
+        for ( Map.Entry<String, Integer> entry : methodSlots.entrySet() )
+        {
+            methods.put( entry.getKey(), s[ entry.getValue() ] );
+        }
+        return methods;
+    }
+
+    /**
+     * Switches every category and method back on
+     */
+    public synchronized void reset()
+    {
+        methodSlots.clear();
+        switches = getAllOn();
+    }
+
+    private static boolean[] getAllOn()
+    {
+        boolean[] s = new boolean[CATEGORIES];
+        Arrays.fill( s, true );
+        return s;
+    }
+}
@@ -0,0 +1,515 @@
+package com.highbar.tools.mri.monitor;
+
+import com.highbar.util.DefaultTreeNode;
+import com.highbar.util.RingBuffer;
+import com.highbar.util.TreeNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Records the call tree of a single thread.  Each thread gets its own recorder (held in a ThreadLocal
+ *   by the MRIProfiler) so pushing and popping calls never touches shared state.  The
+ *   profiler keeps a registration list of all recorders so the report can still see every thread's tree.
+ * <p/>
+ *   Calls are recorded as enter and exit events in a growable long[] rather than as execution nodes, and the
+ *   times of the calls in progress are kept on a stack of primitives, so recording a call allocates nothing
+ *   once the arrays have grown to fit.  The net time of each call is worked out as it returns.  When a
+ *   top-level call (e.g. a JSP request) returns, its events are copied into a {@link CallTree} and kept in a ring
+ *   buffer, so in bounded mode only the most recent ones are retained.  The execution nodes are only built when
+ *   a report reads the trees.  The events can also be copied outside the heap, see {@link OffHeapStore}, and the
+ *   oldest trees can be moved to disk to keep the trees in memory within a budget, see {@link TreeSpiller}.
+ * <p/>
+ *   The recorder also tracks the request (JSP or JPO invocation) the thread is executing and whether that
+ *   request was chosen to be sampled.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class ThreadRecorder
+{
+    private static final int INITIAL_EVENTS = 256;
+    private static final int INITIAL_CALLS = 64;
+    private static final int INITIAL_DEPTH = 16;
+
+    /**
+     * The event buffer is given back after a top-level call that needed more than this many longs, so one large
+     * request doesn't hold on to a large buffer for the life of the thread
+     */
+    private static final int MAX_RETAINED_EVENTS = 64 * 1024;
+
+    /**
+     * The profiler generation this recorder belongs to.  Clearing the profiler starts a new generation,
+     * and stale recorders are replaced the next time their thread is idle
+     */
+    private final int generation;
+
+    /**
+     * The id of the thread doing the recording
+     */
+    private final String threadId;
+
+    /**
+     * The completed top-level call trees still in memory, oldest first.  Also the lock that moves a tree from
+     * here to the spilled trees, so a reader never sees a tree in both or in neither
+     */
+    private final RingBuffer<CallTree> completedTrees;
+
+    /**
+     * The completed top-level call trees that have been moved to disk, oldest first.  They are older than any
+     * tree still in memory
+     */
+    private final List<SpilledTree> spilledTrees = new ArrayList<SpilledTree>();
+
+    /**
+     * Told the size of each tree completed and released, null if trees are never spilled
+     */
+    private volatile TreeSpiller spiller;
+
+    /**
+     * Where completed trees are kept outside the heap, null to keep them on the heap
+     */
+    private volatile OffHeapStore offHeapStore;
+
+    /**
+     * The enter and exit events of the top-level call in progress, two longs each
+     */
+    private long[] events = new long[ INITIAL_EVENTS ];
+    private int eventCount = 0;
+
+    /**
+     * The parameters captured for each call of the top-level call in progress, in preorder
+     */
+    private Object[][] parameters = new Object[ INITIAL_CALLS ][];
+    private int callCount = 0;
+    private boolean hasParameters = false;
+
+    /**
+     * The statistics of each method this thread has entered, indexed by method id.  A completed tree keeps the
+     * array as it was when the tree completed, so the array is replaced rather than changed when it grows
+     */
+    private MethodStatistics[] methods = new MethodStatistics[ INITIAL_CALLS ];
+
+    /**
+     * The root of the profiler's calling context tree when this recorder was created
+     */
+    private final CallingContext callingContexts;
+
+    /**
+     * The calls in progress: their methods, call paths, start times and the elapsed time of the calls they have
+     * made
+     */
+    private MethodStatistics[] stackMethods = new MethodStatistics[ INITIAL_DEPTH ];
+    private CallingContext[] stackContexts = new CallingContext[ INITIAL_DEPTH ];
+    private long[] stackStartTimes = new long[ INITIAL_DEPTH ];
+    private long[] stackChildTimes = new long[ INITIAL_DEPTH ];
+    private int depth = 0;
+
+    /**
+     * The times of the call popped last
+     */
+    private long poppedElapsedTime;
+    private long poppedNetTime;
+    private CallingContext poppedContext;
+
+    /**
+     * The number of nested request entry points currently executing on this thread
+     */
+    private int requestDepth = 0;
+
+    /**
+     * true if the current request is being recorded
+     */
+    private boolean sampled = true;
+
+    /**
+     * Where the thread is in relation to the trigger manager
+     */
+    private MRIProfiler.TriggerContext triggerContext = MRIProfiler.TriggerContext.NONE;
+
+    /**
+     * Reused to build parameter snapshots so that only the final strings are allocated
+     */
+    private final StringBuilder snapshotBuffer = new StringBuilder();
+
+    /**
+     * @param threadId the id of the thread doing the recording
+     * @param generation the current profiler generation
+     * @param maxTrees the maximum number of completed top-level trees to keep, or {@link RingBuffer#UNBOUNDED}
+     * @param offHeapStore where completed trees are kept outside the heap, or null to keep them on the heap
+     * @param spiller moves completed trees to disk past a memory budget, or null to keep them all in memory
+     * @param callingContexts the root of the calling context tree to add the calls to
+     */
+    ThreadRecorder( String threadId, int generation, int maxTrees, OffHeapStore offHeapStore, TreeSpiller spiller,
+                    CallingContext callingContexts )
+    {
+        this.threadId = threadId;
+        this.generation = generation;
+        this.completedTrees = new RingBuffer<CallTree>( maxTrees );
+        this.offHeapStore = offHeapStore;
+        this.spiller = spiller;
+        this.callingContexts = callingContexts;
+    }
+
+    /**
+     * Records the entry into a call
+     * @param statistics the statistics of the method called
+     * @param parameters the parameters captured for the call, or null
+     */
+    void push( MethodStatistics statistics, Object[] parameters )
+    {
+        int id = statistics.getId();
+        if ( id >= methods.length )
+        {
+            methods = Arrays.copyOf( methods, Math.max( methods.length * 2, id + 1 ) );
+        }
+        else if ( methods[id] != statistics && methods[id] != null )
+        {
+            // the profiler has been cleared while this thread was busy and the id now belongs to another method,
+            // the trees already completed keep the array they were recorded with
+            methods = methods.clone();
+        }
+        methods[id] = statistics;
+
+        if ( callCount == this.parameters.length )
+        {
+            this.parameters = Arrays.copyOf( this.parameters, callCount * 2 );
+        }
+        this.parameters[ callCount++ ] = parameters;
+        hasParameters |= parameters != null;
+
+        if ( depth == stackMethods.length )
+        {
+            stackMethods = Arrays.copyOf( stackMethods, depth * 2 );
+            stackContexts = Arrays.copyOf( stackContexts, depth * 2 );
+            stackStartTimes = Arrays.copyOf( stackStartTimes, depth * 2 );
+            stackChildTimes = Arrays.copyOf( stackChildTimes, depth * 2 );
+        }
+        stackMethods[depth] = statistics;
+        stackContexts[depth] = ( depth == 0 ? callingContexts : stackContexts[ depth - 1 ] ).getCallee( statistics );
+        stackChildTimes[depth] = 0;
+
+        // the clock is read last so the bookkeeping above isn't counted
+        long time = System.nanoTime();
+        stackStartTimes[ depth++ ] = time;
+        addEvent( id, time );
+    }
+
+    /**
+     * Records the exit from the call on top of the stack.  Its elapsed time is added to the child time of its
+     * caller, and if it was a top-level call its tree is completed
+     * @return the statistics of the method that returned.  The times and path of the call are given by
+     *         {@link #getPoppedElapsedTime()}, {@link #getPoppedNetTime()} and {@link #getPoppedContext()}
+     * @throws IllegalStateException if no call is in progress
+     */
+    MethodStatistics pop()
+    {
+        long time = System.nanoTime();
+
+        if ( depth == 0 )
+        {
+            throw new IllegalStateException(
+                    "pop() without push() called for execution stack. ThreadId: " + Thread.currentThread() );
+        }
+
+        depth--;
+        poppedElapsedTime = time - stackStartTimes[depth];
+        poppedNetTime = poppedElapsedTime - stackChildTimes[depth];
+        poppedContext = stackContexts[depth];
+        addEvent( CallTree.EXIT, time );
+
+        if ( depth == 0 )
+        {
+            completeTree();
+        }
+        else
+        {
+            stackChildTimes[ depth - 1 ] += poppedElapsedTime;
+        }
+
+        return stackMethods[depth];
+    }
+
+    /**
+     * @return the elapsed time of the call popped last
+     */
+    long getPoppedElapsedTime()
+    {
+        return poppedElapsedTime;
+    }
+
+    /**
+     * @return the elapsed time of the call popped last, less that of the calls it made
+     */
+    long getPoppedNetTime()
+    {
+        return poppedNetTime;
+    }
+
+    /**
+     * @return the call path of the call popped last
+     */
+    CallingContext getPoppedContext()
+    {
+        return poppedContext;
+    }
+
+    /**
+     * @return true if no request and no advised method is currently executing on this thread, and the thread
+     *         isn't in the trigger manager
+     */
+    boolean isIdle()
+    {
+        return depth == 0 && requestDepth == 0 && triggerContext == MRIProfiler.TriggerContext.NONE;
+    }
+
+    /**
+     * Marks the entry into a request.  Only the outermost entry decides whether the request is sampled
+     * @param sampled true if the request should be recorded, ignored for nested entries
+     */
+    void beginRequest( boolean sampled )
+    {
+        if ( requestDepth++ == 0 )
+        {
+            this.sampled = sampled;
+        }
+    }
+
+    /**
+     * Marks the exit from a request
+     */
+    void endRequest()
+    {
+        if ( requestDepth > 0 && --requestDepth == 0 )
+        {
+            sampled = true;
+        }
+    }
+
+    /**
+     * @return true if the thread is executing a request
+     */
+    boolean isInRequest()
+    {
+        return requestDepth != 0;
+    }
+
+    /**
+     * @return true if the current request is being recorded
+     */
+    boolean isSampled()
+    {
+        return sampled;
+    }
+
+    MRIProfiler.TriggerContext getTriggerContext()
+    {
+        return triggerContext;
+    }
+
+    void setTriggerContext( MRIProfiler.TriggerContext triggerContext )
+    {
+        this.triggerContext = triggerContext;
+    }
+
+    /**
+     * @return the buffer used to build parameter snapshots on this thread
+     */
+    StringBuilder getSnapshotBuffer()
+    {
+        return snapshotBuffer;
+    }
+
+    int getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Rebuilds the thread's root holding its completed top-level trees, those spilled to disk followed by those
+     * still in memory.  Completed trees are no longer changed by the recording thread, so they can be read while
+     * the thread carries on.  The execution nodes of each tree are only built as the tree is read
+     * @return the root
+     */
+    TreeNode<ExecutionNode> getCompletedTrees()
+    {
+        ExecutionNode object = new ExecutionNode( ExecutionNode.Type.ROOT, "Root", null, null );
+        object.setThreadId( threadId );
+
+        List<SpilledTree> spilled;
+        List<CallTree> retained;
+        synchronized( completedTrees )
+        {
+            spilled = new ArrayList<SpilledTree>( spilledTrees );
+            retained = completedTrees.toList();
+        }
+
+        DefaultTreeNode<ExecutionNode> root = new DefaultTreeNode<ExecutionNode>( object );
+        for ( SpilledTree tree : spilled )
+        {
+            root.addChild( tree.toTreeNode( root ) );
+        }
+        for ( CallTree tree : retained )
+        {
+            root.addChild( tree.toTreeNode( root ) );
+        }
+
+        return root;
+    }
+
+    /**
+     * Changes the number of completed top-level trees kept in memory by this recorder.  Trees spilled to disk
+     * aren't limited
+     * @param maxTrees the maximum number of trees to keep, or {@link RingBuffer#UNBOUNDED}
+     */
+    void setMaxTrees( int maxTrees )
+    {
+        TreeSpiller spiller = this.spiller;
+        if ( spiller == null )
+        {
+            completedTrees.setCapacity( maxTrees );
+            return;
+        }
+
+        synchronized( completedTrees )
+        {
+            long retainedSize = getRetainedSize();
+            completedTrees.setCapacity( maxTrees );
+            spiller.added( getRetainedSize() - retainedSize );
+        }
+    }
+
+    /**
+     * @return roughly the number of bytes taken up by the completed trees still in memory
+     */
+    long getRetainedSize()
+    {
+        long size = 0;
+        for ( CallTree tree : completedTrees.toList() )
+        {
+            size += tree.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Moves the oldest completed tree still in memory to disk.  Called on the spiller's thread, so the tree is
+     * written without holding any lock the recording thread needs
+     * @param spiller the spiller to write the tree with
+     * @return true if a tree was spilled
+     * @throws IOException if the tree cannot be written
+     */
+    boolean spillOldest( TreeSpiller spiller ) throws IOException
+    {
+        CallTree tree = completedTrees.getOldest();
+        if ( tree == null )
+        {
+            return false;
+        }
+
+        ByteBuffer encoded = tree.encode();
+        int length = encoded.remaining();
+        long offset = spiller.append( encoded );
+
+        synchronized( completedTrees )
+        {
+            // in bounded mode the tree may have been discarded while it was written, it is then left unread
+            if ( !completedTrees.removeOldest( tree ) )
+            {
+                return false;
+            }
+            spilledTrees.add( new SpilledTree( spiller, offset, length, tree.getMethods() ) );
+        }
+
+        spiller.added( -tree.getSize() );
+        return true;
+    }
+
+    /**
+     * Changes where the trees completed from now on are kept.  Trees already completed stay where they are
+     * @param offHeapStore where completed trees are kept outside the heap, or null to keep them on the heap
+     */
+    void setOffHeapStore( OffHeapStore offHeapStore )
+    {
+        this.offHeapStore = offHeapStore;
+    }
+
+    /**
+     * Changes the spiller told about the trees completed from now on.  Trees already spilled stay on disk
+     * @param spiller moves completed trees to disk past a memory budget, or null to keep them all in memory
+     */
+    void setSpiller( TreeSpiller spiller )
+    {
+        this.spiller = spiller;
+    }
+
+    private void addEvent( long id, long time )
+    {
+        if ( eventCount == events.length )
+        {
+            events = Arrays.copyOf( events, eventCount * 2 );
+        }
+        events[ eventCount++ ] = id;
+        events[ eventCount++ ] = time;
+    }
+
+    /**
+     * Moves the events of the top-level call that just returned into a tree of their own, and readies the
+     * buffers for the next one
+     */
+    private void completeTree()
+    {
+        CallTree tree = null;
+        Object[][] treeParameters = hasParameters ? parameters : null;
+
+        OffHeapStore store = offHeapStore;
+        if ( store != null )
+        {
+            try
+            {
+                tree = store.store( events, eventCount, methods, treeParameters, callCount );
+            }
+            catch( OutOfMemoryError e )
+            {
+                // the JVM's direct memory limit has been reached, this tree stays on the heap
+            }
+        }
+
+        if ( tree == null )
+        {
+            tree = new CallTree( Arrays.copyOf( events, eventCount ), methods,
+                    hasParameters ? Arrays.copyOf( parameters, callCount ) : null );
+        }
+        CallTree discarded = completedTrees.add( tree );
+
+        TreeSpiller spiller = this.spiller;
+        if ( spiller != null )
+        {
+            spiller.added( tree.getSize() - ( discarded == null ? 0 : discarded.getSize() ) );
+        }
+
+        if ( hasParameters )
+        {
+            Arrays.fill( parameters, 0, callCount, null );
+            hasParameters = false;
+        }
+
+        if ( events.length > MAX_RETAINED_EVENTS )
+        {
+            events = new long[ INITIAL_EVENTS ];
+            parameters = new Object[ INITIAL_CALLS ][];
+        }
+        eventCount = 0;
+        callCount = 0;
+    }
+}
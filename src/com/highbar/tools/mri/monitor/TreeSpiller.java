@@ -0,0 +1,346 @@
+package com.highbar.tools.mri.monitor;
+
+import org.apache.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Keeps the memory taken up by completed call trees within a budget by moving the oldest ones to disk.  The
+ *   recorders report the size of each tree they complete, and once the trees in memory add up to more than the
+ *   budget a background thread takes the oldest tree of each thread in turn, appends it to a spill file and
+ *   releases it, until the trees in memory are back under three quarters of the budget.
+ * <p/>
+ *   The spill file is append-only: each tree is written once, in the format of {@link CallTree#encode()}, and
+ *   read back when a report gets to it (see {@link SpilledTree}).  It is written in the platform's byte order,
+ *   so it is only meant to be read by the process that wrote it.  Trees are read back through a channel of
+ *   their own, so a reading thread that is interrupted, which closes the channel it was reading, doesn't stop
+ *   the spiller from writing.  The file is deleted when the profiler is cleared, or once the last snapshot still
+ *   reading it is released, or when the JVM exits.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+final class TreeSpiller implements Runnable
+{
+    /**
+     * Log4J Logger instance
+     */
+    private final Logger log = Logger.getLogger( getClass() );
+
+    private final File file;
+    private final FileChannel channel;
+    private final long memoryBudget;
+    private final long lowWaterMark;
+    private final ExecutorService executor;
+
+    /**
+     * The bytes taken up by the completed trees still in memory
+     */
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    /**
+     * true while a spill has been scheduled and hasn't finished
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * The length of the spill file, only changed while holding the lock on this spiller
+     */
+    private long end = 0;
+
+    /**
+     * The channel trees are read back through, opened when first needed and again if a read was interrupted.
+     * Guarded by the lock on readersLock, as is deleted
+     */
+    private FileChannel readChannel;
+    private boolean deleted = false;
+
+    /**
+     * The snapshots that may still read trees from the spill file, and whether the profiler has been cleared
+     * since the file was written.  Both are guarded by the lock on readersLock
+     */
+    private final Object readersLock = new Object();
+    private int readers = 0;
+    private boolean retired = false;
+
+    /**
+     * @param directory the directory to create the spill file in
+     * @param memoryBudget the most bytes the completed trees may take up in memory
+     * @throws IOException if the spill file cannot be created
+     */
+    TreeSpiller( File directory, long memoryBudget ) throws IOException
+    {
+        if ( memoryBudget <= 0 )
+        {
+            throw new IllegalArgumentException( "memoryBudget must be positive: " + memoryBudget );
+        }
+
+        this.file = File.createTempFile( "mri-spill-", ".seg", directory );
+        this.file.deleteOnExit();
+        this.channel = new RandomAccessFile( file, "rw" ).getChannel();
+        this.memoryBudget = memoryBudget;
+        this.lowWaterMark = memoryBudget / 4 * 3;
+        this.executor = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable r )
+            {
+                Thread thread = new Thread( r, "MRI Tree Spiller" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    /**
+     * Accounts for trees added to or released from memory, and schedules a spill if the budget is exceeded
+     * @param bytes the bytes added, negative if released
+     */
+    void added( long bytes )
+    {
+        if ( retainedBytes.addAndGet( bytes ) > memoryBudget && !executor.isShutdown() &&
+             scheduled.compareAndSet( false, true ) )
+        {
+            executor.execute( this );
+        }
+    }
+
+    /**
+     * @return the bytes taken up by the completed trees still in memory
+     */
+    long getRetainedBytes()
+    {
+        return retainedBytes.get();
+    }
+
+    long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Spills the oldest tree of each thread in turn until the trees in memory are back under the low water mark,
+     * or there are none left to spill
+     */
+    public void run()
+    {
+        try
+        {
+            boolean spilled = true;
+            while ( spilled && retainedBytes.get() > lowWaterMark )
+            {
+                spilled = false;
+                for ( ThreadRecorder recorder : MRIProfiler.INSTANCE.getThreadRecorders() )
+                {
+                    spilled |= recorder.spillOldest( this );
+                    if ( retainedBytes.get() <= lowWaterMark )
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            // the trees stay in memory, the next tree completed tries again
+            log.error( "Unable to spill call trees to " + file, e );
+        }
+        finally
+        {
+            scheduled.set( false );
+        }
+    }
+
+    /**
+     * Appends an encoded tree to the spill file
+     * @param tree the tree, from its position to its limit
+     * @return the offset the tree was written at
+     * @throws IOException if the tree cannot be written
+     */
+    synchronized long append( ByteBuffer tree ) throws IOException
+    {
+        long offset = end;
+        while ( tree.hasRemaining() )
+        {
+            end += channel.write( tree, end );
+        }
+        return offset;
+    }
+
+    /**
+     * Reads back an encoded tree.  Any number of threads can read at once, and while a tree is being appended.
+     * If another reading thread is interrupted, the read carries on through a new channel
+     * @param offset the offset the tree was written at
+     * @param length the length of the tree in bytes
+     * @return the tree
+     * @throws ClosedByInterruptException if this thread is interrupted while reading
+     * @throws IOException if the tree cannot be read
+     */
+    ByteBuffer read( long offset, int length ) throws IOException
+    {
+        ByteBuffer tree = ByteBuffer.allocate( length );
+        while ( tree.hasRemaining() )
+        {
+            FileChannel reader = getReadChannel();
+            try
+            {
+                if ( reader.read( tree, offset + tree.position() ) < 0 )
+                {
+                    throw new EOFException( "Spilled call tree truncated in " + file );
+                }
+            }
+            catch( ClosedByInterruptException e )
+            {
+                throw e;
+            }
+            catch( ClosedChannelException e )
+            {
+                // another reader was interrupted and closed the channel, the next pass opens a new one
+            }
+        }
+        tree.flip();
+        return tree;
+    }
+
+    /**
+     * @return an open channel to read trees back through
+     * @throws IOException if the spill file has been deleted or cannot be opened
+     */
+    private FileChannel getReadChannel() throws IOException
+    {
+        synchronized( readersLock )
+        {
+            if ( deleted )
+            {
+                throw new IOException( "Spill file deleted: " + file );
+            }
+            if ( readChannel == null || !readChannel.isOpen() )
+            {
+                readChannel = new RandomAccessFile( file, "r" ).getChannel();
+            }
+            return readChannel;
+        }
+    }
+
+    /**
+     * Stops spilling.  Trees already spilled can still be read
+     */
+    void stop()
+    {
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination( 10, TimeUnit.SECONDS );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Notes a snapshot that reads trees from the spill file, which keeps the file until the snapshot is released
+     */
+    void acquire()
+    {
+        synchronized( readersLock )
+        {
+            readers++;
+        }
+    }
+
+    /**
+     * Notes that a snapshot no longer reads trees from the spill file, and deletes the file if it was the last
+     * reader of a retired spiller
+     */
+    void release()
+    {
+        boolean delete;
+        synchronized( readersLock )
+        {
+            delete = --readers == 0 && retired;
+        }
+
+        if ( delete )
+        {
+            delete();
+        }
+    }
+
+    /**
+     * Stops spilling for good, and deletes the spill file as soon as no snapshot is reading from it.  Called
+     * when the profiler is cleared
+     */
+    void retire()
+    {
+        boolean delete;
+        synchronized( readersLock )
+        {
+            retired = true;
+            delete = readers == 0;
+        }
+
+        if ( delete )
+        {
+            delete();
+        }
+        else
+        {
+            stop();
+        }
+    }
+
+    /**
+     * Stops spilling and deletes the spill file, after which trees spilled to it can no longer be read
+     */
+    private void delete()
+    {
+        stop();
+
+        FileChannel reader;
+        synchronized( readersLock )
+        {
+            deleted = true;
+            reader = readChannel;
+            readChannel = null;
+        }
+
+        try
+        {
+            channel.close();
+            if ( reader != null )
+            {
+                reader.close();
+            }
+        }
+        catch( IOException e )
+        {
+            log.warn( "Unable to close spill file " + file, e );
+        }
+        file.delete();
+    }
+}
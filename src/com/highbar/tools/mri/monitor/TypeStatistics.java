@@ -0,0 +1,70 @@
+package com.highbar.tools.mri.monitor;
+
+import com.highbar.util.StripedCounter;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Aggregated timings for every invocation of the methods of one type of execution node.  The totals are added
+ *   to as each invocation is recorded, alongside its method's statistics, so reading them doesn't need to visit
+ *   every method.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class TypeStatistics
+{
+    private final ExecutionNode.Type type;
+
+    private final StripedCounter invocations = new StripedCounter();
+    private final StripedCounter totalTime = new StripedCounter();
+    private final StripedCounter netTime = new StripedCounter();
+
+    TypeStatistics( ExecutionNode.Type type )
+    {
+        this.type = type;
+    }
+
+    /**
+     * Adds the timings of a single invocation
+     * @param elapsedTime the total time taken by the invocation, including called methods
+     * @param netTime the time spent in the method itself, excluding advised methods it called
+     */
+    void record( long elapsedTime, long netTime )
+    {
+        this.invocations.increment();
+        this.totalTime.add( elapsedTime );
+        this.netTime.add( netTime );
+    }
+
+    public ExecutionNode.Type getType()
+    {
+        return type;
+    }
+
+    public long getInvocations()
+    {
+        return invocations.sum();
+    }
+
+    /**
+     * @return the sum of the elapsed times of all invocations, including called methods
+     */
+    public long getTotalTime()
+    {
+        return totalTime.sum();
+    }
+
+    /**
+     * @return the sum of the net times of all invocations, excluding advised methods that were called
+     */
+    public long getNetTime()
+    {
+        return netTime.sum();
+    }
+}
@@ -0,0 +1,264 @@
+package com.highbar.tools.mri.monitor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   A directory of snapshots of continuous profiling windows, one compressed file per window named after the
+ *   time the window starts, e.g. mri-window-20090615-124800.mrw.  Once the files take up more than the given
+ *   number of bytes the oldest are deleted.
+ * <p/>
+ *   A snapshot holds a header of magic number (int), version (int), window start (long) and window length (long),
+ *   then the method count (int) followed by the type, name and method (UTF strings), invocations, total time, net
+ *   time and max time (longs) of each method.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class WindowSnapshots
+{
+    static final String FILE_PREFIX = "mri-window-";
+    static final String FILE_EXTENSION = ".mrw";
+
+    private static final int MAGIC = 0x4D525757; // "MRWW"
+    private static final int VERSION = 1;
+    private static final String TIME_FORMAT = "yyyyMMdd-HHmmss";
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * @param directory the directory holding the snapshots, created if it doesn't exist
+     * @param maxSize the most bytes the snapshots may take up, zero for no limit
+     */
+    WindowSnapshots( File directory, long maxSize )
+    {
+        if ( maxSize < 0 )
+        {
+            throw new IllegalArgumentException( "maxSize cannot be negative: " + maxSize );
+        }
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Writes a snapshot of a window, then deletes the oldest snapshots if the directory has grown too large.
+     * The snapshot is written to a temporary file and renamed, so a snapshot is never read half written
+     * @param window the window
+     * @throws IOException if the snapshot cannot be written
+     */
+    void write( StatisticsWindow window ) throws IOException
+    {
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            throw new IOException( "Cannot create directory: " + directory );
+        }
+
+        File file = getFile( window.getStartTime() );
+        File temp = new File( directory, file.getName() + ".tmp" );
+        List<MethodTotals> methodTotals = window.getMethodTotals();
+
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                new GZIPOutputStream( new FileOutputStream( temp ) ) ) );
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( window.getStartTime() );
+            out.writeLong( window.getLength() );
+            out.writeInt( methodTotals.size() );
+
+            for ( MethodTotals totals : methodTotals )
+            {
+                out.writeUTF( totals.getType().toString() );
+                out.writeUTF( totals.getName() );
+                out.writeUTF( totals.getMethod() );
+                out.writeLong( totals.getInvocations() );
+                out.writeLong( totals.getTotalTime() );
+                out.writeLong( totals.getNetTime() );
+                out.writeLong( totals.getMaxTime() );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if ( ( file.exists() && !file.delete() ) || !temp.renameTo( file ) )
+        {
+            throw new IOException( "Cannot rename " + temp + " to " + file );
+        }
+
+        deleteOldest( file );
+    }
+
+    /**
+     * Finds the snapshot of the window containing a time
+     * @param time a time in milliseconds since the epoch
+     * @return the window, or null if there is no snapshot of it
+     * @throws IOException if the snapshot cannot be read
+     */
+    StatisticsWindow read( long time ) throws IOException
+    {
+        // the window containing the time is the last one starting at or before it
+        File found = null;
+        for ( File file : getSnapshotFiles() )
+        {
+            if ( getStartTime( file ) <= time )
+            {
+                found = file;
+            }
+        }
+
+        if ( found != null )
+        {
+            StatisticsWindow window = read( found );
+            if ( window.contains( time ) )
+            {
+                return window;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the snapshot files, oldest first
+     */
+    File[] getSnapshotFiles()
+    {
+        File[] files = directory.listFiles( new FileFilter()
+        {
+            public boolean accept( File file )
+            {
+                return file.isFile() && getStartTime( file ) != -1;
+            }
+        } );
+
+        if ( files == null )
+        {
+            return new File[0];
+        }
+
+        // the names sort in time order
+        Arrays.sort( files );
+        return files;
+    }
+
+    private StatisticsWindow read( File file ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream(
+                new GZIPInputStream( new FileInputStream( file ) ) ) );
+        try
+        {
+            if ( in.readInt() != MAGIC )
+            {
+                throw new IOException( "Not a window snapshot: " + file );
+            }
+
+            int version = in.readInt();
+            if ( version != VERSION )
+            {
+                throw new IOException( "Unsupported window snapshot version " + version + ": " + file );
+            }
+
+            long startTime = in.readLong();
+            long length = in.readLong();
+            int count = in.readInt();
+
+            List<MethodTotals> methodTotals = new ArrayList<MethodTotals>( count );
+            for ( int i = 0; i < count; i++ )
+            {
+                ExecutionNode.Type type = ExecutionNode.Type.valueOf( in.readUTF() );
+                methodTotals.add( new MethodTotals( type, in.readUTF(), in.readUTF(), in.readLong(), in.readLong(),
+                        in.readLong(), in.readLong() ) );
+            }
+
+            return new StatisticsWindow( startTime, length, methodTotals );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private void deleteOldest( File newest )
+    {
+        if ( maxSize == 0 )
+        {
+            return;
+        }
+
+        File[] files = getSnapshotFiles();
+        long size = 0;
+        for ( File file : files )
+        {
+            size += file.length();
+        }
+
+        for ( int i = 0; i < files.length && size > maxSize && !files[i].equals( newest ); i++ )
+        {
+            long length = files[i].length();
+            if ( files[i].delete() )
+            {
+                size -= length;
+            }
+        }
+    }
+
+    private File getFile( long startTime )
+    {
+        return new File( directory, FILE_PREFIX + new SimpleDateFormat( TIME_FORMAT ).format( new Date( startTime ) ) +
+                FILE_EXTENSION );
+    }
+
+    /**
+     * @return the start time in the name of a snapshot file, or -1 if it isn't one
+     */
+    private static long getStartTime( File file )
+    {
+        String name = file.getName();
+        if ( !name.startsWith( FILE_PREFIX ) || !name.endsWith( FILE_EXTENSION ) )
+        {
+            return -1;
+        }
+
+        try
+        {
+            return new SimpleDateFormat( TIME_FORMAT ).parse(
+                    name.substring( FILE_PREFIX.length(), name.length() - FILE_EXTENSION.length() ) ).getTime();
+        }
+        catch( ParseException e )
+        {
+            return -1;
+        }
+    }
+}
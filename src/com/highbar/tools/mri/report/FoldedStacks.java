@@ -0,0 +1,248 @@
+package com.highbar.tools.mri.report;
+
+import com.highbar.tools.mri.monitor.ExecutionNode;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   The call stacks of a profile folded together, the way a flame graph draws them: every distinct call path from
+ *   a top-level call down is a frame carrying the net time of the calls made along it, summed over every thread
+ *   and every request.  Calls are added in preorder with their depth, which is how the reports list them, so a
+ *   report is folded as it is read and memory use grows with the number of distinct paths rather than calls.
+ * <p/>
+ *   The folded stacks are written in the collapsed format read by most flame graph tools, one path per line with
+ *   its frames separated by semicolons followed by its net time in nanoseconds.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class FoldedStacks
+{
+    private final Frame root = new Frame( ExecutionNode.Type.ROOT.toString(), "all" );
+
+    /**
+     * The frames of the path of the last call added, indexed by depth
+     */
+    private Frame[] path = new Frame[32];
+    private int pathDepth;
+
+    FoldedStacks()
+    {
+        path[0] = root;
+    }
+
+    /**
+     * Adds a call, after its caller and any calls its caller made before it
+     * @param depth the depth of the call, 1 for a top-level call.  Rows of a lower depth, such as the row that
+     *        starts each thread in a report, are ignored
+     * @param type the name of the call's ExecutionNode.Type
+     * @param name the target of the call
+     * @param method the method called
+     * @param netTime the time spent in the call itself, excluding advised methods it called
+     */
+    void add( int depth, String type, String name, String method, long netTime )
+    {
+        if ( depth < 1 )
+        {
+            return;
+        }
+
+        // a call is never deeper than one below the last, unless the report is missing rows
+        depth = Math.min( depth, pathDepth + 1 );
+
+        if ( depth == path.length )
+        {
+            Frame[] grown = new Frame[path.length * 2];
+            System.arraycopy( path, 0, grown, 0, path.length );
+            path = grown;
+        }
+
+        Frame frame = path[depth - 1].getCallee( type, getLabel( type, name, method ) );
+        frame.netTime += netTime;
+        path[depth] = frame;
+        pathDepth = depth;
+    }
+
+    boolean isEmpty()
+    {
+        return root.callees == null;
+    }
+
+    /**
+     * Works out the total time of every frame, once every call has been added
+     */
+    void measure()
+    {
+        root.measure();
+    }
+
+    /**
+     * @return the frame that every top-level call is a callee of
+     */
+    Frame getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Writes a line for every path with some net time
+     * @param out the writer to write to
+     * @throws IOException if the stacks cannot be written
+     */
+    void writeFolded( Writer out ) throws IOException
+    {
+        for ( Frame callee : root.getCallees() )
+        {
+            writeFolded( callee, new StringBuilder(), out );
+        }
+    }
+
+    private void writeFolded( Frame frame, StringBuilder stack, Writer out ) throws IOException
+    {
+        int length = stack.length();
+        if ( length != 0 )
+        {
+            stack.append( ';' );
+        }
+        stack.append( frame.label.replace( ';', ':' ) );
+
+        if ( frame.netTime > 0 )
+        {
+            out.write( stack.toString() );
+            out.write( ' ' );
+            out.write( Long.toString( frame.netTime ) );
+            out.write( '\n' );
+        }
+
+        for ( Frame callee : frame.getCallees() )
+        {
+            writeFolded( callee, stack, out );
+        }
+
+        stack.setLength( length );
+    }
+
+    /**
+     * @return the name a call is shown under, e.g. "emxPart.getInfo(matrix.db.Context, String[])".  JSPs are
+     *         shown under the page alone, as every page has the same method
+     */
+    static String getLabel( String type, String name, String method )
+    {
+        String label;
+        if ( method == null || method.length() == 0 || ExecutionNode.Type.JSP.toString().equals( type ) )
+        {
+            label = name;
+        }
+        else if ( name == null || name.length() == 0 )
+        {
+            label = method;
+        }
+        else
+        {
+            label = name + "." + method;
+        }
+
+        return label == null ? "[Unknown]" : label.replace( '\n', ' ' ).replace( '\r', ' ' );
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   A distinct call path, named after the call at its end.  Its callees are kept in alphabetical order, the
+     *   order a flame graph draws them in
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    static class Frame
+    {
+        private final String type;
+        private final String label;
+        private long netTime;
+        private long totalTime;
+        private Map<String, Frame> callees;
+
+        Frame( String type, String label )
+        {
+            this.type = type;
+            this.label = label;
+        }
+
+        Frame getCallee( String type, String label )
+        {
+            if ( callees == null )
+            {
+                callees = new TreeMap<String, Frame>();
+            }
+
+            // the type is part of the key, as calls of different types can share a name
+            String key = label + '\u0000' + type;
+            Frame callee = callees.get( key );
+            if ( callee == null )
+            {
+                callee = new Frame( type, label );
+                callees.put( key, callee );
+            }
+            return callee;
+        }
+
+        Collection<Frame> getCallees()
+        {
+            return callees == null ? Collections.<Frame>emptyList() : callees.values();
+        }
+
+        String getType()
+        {
+            return type;
+        }
+
+        String getLabel()
+        {
+            return label;
+        }
+
+        /**
+         * @return the time spent in the calls made along this path themselves
+         */
+        long getNetTime()
+        {
+            return netTime;
+        }
+
+        /**
+         * @return the net time of this path and every path extending it, the width the frame is drawn, as of the
+         *         last call to measure()
+         */
+        long getTotalTime()
+        {
+            return totalTime;
+        }
+
+        private long measure()
+        {
+            totalTime = netTime;
+            for ( Frame callee : getCallees() )
+            {
+                totalTime += callee.measure();
+            }
+            return totalTime;
+        }
+    }
+}
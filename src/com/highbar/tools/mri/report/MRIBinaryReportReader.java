@@ -0,0 +1,479 @@
+package com.highbar.tools.mri.report;
+
+import com.highbar.tools.mri.jaxb.XCallingContext;
+import com.highbar.tools.mri.jaxb.XEnoviaProfilerReport;
+import com.highbar.tools.mri.jaxb.XExecutionNode;
+import com.highbar.tools.mri.jaxb.XMethodParameter;
+import com.highbar.tools.mri.jaxb.XMethodSummary;
+import com.highbar.tools.mri.jaxb.XMissingTrigger;
+import com.highbar.tools.mri.jaxb.XTrigger;
+import com.highbar.tools.mri.jaxb.XTriggerManagerOverhead;
+import com.highbar.tools.mri.monitor.ExecutionNode;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Reads a binary report written by the MRIBinaryReportWriter.  The node records are memory mapped rather than
+ *   read, so opening a report takes the same time no matter how large it is; records are paged in by the operating
+ *   system as they are accessed, and parameters are only read when a node's parameters are asked for.
+ * <p/>
+ *   The small sections of the report (method summary, call paths, triggers and overhead) are returned as the
+ *   usual JAXB objects.  The call stacks are returned as a single list of execution nodes with a row of depth -1
+ *   at the start of each thread, the way the MRIReportViewer displays them.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class MRIBinaryReportReader implements Closeable
+{
+    /**
+     * The number of records in each mapped region, a power of two.  A single mapping is limited to 2GB
+     */
+    private static final int RECORDS_PER_REGION = 1 << 24;
+
+    private static final String UTF8 = "UTF-8";
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int recordCount;
+    private final long parametersOffset;
+
+    /**
+     * The mapped node records, null once the reader is closed so the mappings can be released
+     */
+    private volatile MappedByteBuffer[] regions;
+
+    private final String[] strings;
+    private final int[] methods;
+    private final int[] threads;
+    private final XEnoviaProfilerReport report = new XEnoviaProfilerReport();
+    private final List<XExecutionNode> executionNodes = new ExecutionNodeList();
+
+    /**
+     * Opens a binary report
+     * @param reportFile the report file
+     * @throws IOException if the file cannot be read or is not a binary report
+     */
+    public MRIBinaryReportReader( File reportFile ) throws IOException
+    {
+        file = new RandomAccessFile( reportFile, "r" );
+        channel = file.getChannel();
+
+        try
+        {
+            long size = channel.size();
+            if ( size < MRIBinaryReportWriter.HEADER_SIZE + MRIBinaryReportWriter.TRAILER_SIZE ||
+                 file.readInt() != MRIBinaryReportWriter.MAGIC )
+            {
+                throw new IOException( "Not an MRI report: " + reportFile );
+            }
+
+            int version = file.readInt();
+            if ( version != MRIBinaryReportWriter.VERSION )
+            {
+                throw new IOException( "Unsupported MRI report version " + version + ": " + reportFile );
+            }
+
+            file.seek( size - MRIBinaryReportWriter.TRAILER_SIZE );
+            long records = file.readLong();
+            parametersOffset = file.readLong();
+            long tablesOffset = file.readLong();
+            if ( file.readInt() != MRIBinaryReportWriter.MAGIC || records > Integer.MAX_VALUE )
+            {
+                throw new IOException( "Incomplete MRI report: " + reportFile );
+            }
+
+            recordCount = (int)records;
+            regions = mapRecords();
+
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream( Channels.newInputStream( channel.position( tablesOffset ) ) ) );
+
+            strings = new String[in.readInt()];
+            for ( int i = 0; i < strings.length; i++ )
+            {
+                strings[i] = readString( in );
+            }
+
+            methods = new int[in.readInt() * 3];
+            for ( int i = 0; i < methods.length; i++ )
+            {
+                methods[i] = in.readInt();
+            }
+
+            threads = new int[in.readInt()];
+            for ( int i = 0; i < threads.length; i++ )
+            {
+                threads[i] = in.readInt();
+            }
+
+            readMethodSummary( in );
+            readTriggers( in, report.getActiveTriggers() );
+            readTriggers( in, report.getInactiveTriggers() );
+            readMissingTriggers( in );
+            readTriggerManagerOverhead( in );
+            readCallingContexts( in );
+        }
+        catch( IOException e )
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the report's method summary, call paths, triggers and overhead.  The stack traces are not included,
+     *         use getExecutionNodes() instead
+     */
+    public XEnoviaProfilerReport getReport()
+    {
+        return report;
+    }
+
+    /**
+     * @return every execution node in the report, read from the file as each one is accessed.  Each thread
+     *         starts with a row of type ROOT and depth -1 named after the thread
+     */
+    public List<XExecutionNode> getExecutionNodes()
+    {
+        return executionNodes;
+    }
+
+    /**
+     * Closes the file.  The mapped records are released once they are garbage collected, so the nodes read
+     * from the report can no longer be read from after this
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException
+    {
+        regions = null;
+        file.close();
+    }
+
+    private MappedByteBuffer[] mapRecords() throws IOException
+    {
+        MappedByteBuffer[] mapped = new MappedByteBuffer[ ( recordCount + RECORDS_PER_REGION - 1 ) / RECORDS_PER_REGION ];
+
+        for ( int i = 0; i < mapped.length; i++ )
+        {
+            long first = (long)i * RECORDS_PER_REGION;
+            long count = Math.min( RECORDS_PER_REGION, recordCount - first );
+            mapped[i] = channel.map( FileChannel.MapMode.READ_ONLY,
+                    MRIBinaryReportWriter.HEADER_SIZE + first * MRIBinaryReportWriter.RECORD_SIZE,
+                    count * MRIBinaryReportWriter.RECORD_SIZE );
+        }
+
+        return mapped;
+    }
+
+    private XExecutionNode readExecutionNode( int index )
+    {
+        MappedByteBuffer[] mapped = regions;
+        if ( mapped == null )
+        {
+            throw new IllegalStateException( "The MRI report has been closed" );
+        }
+
+        ByteBuffer region = mapped[ index / RECORDS_PER_REGION ];
+        int position = ( index % RECORDS_PER_REGION ) * MRIBinaryReportWriter.RECORD_SIZE;
+
+        int order = region.getInt( position );
+        int depth = region.getInt( position + 4 );
+        int methodId = region.getInt( position + 8 );
+        int parameterCount = region.getInt( position + 12 );
+        long totalTime = region.getLong( position + 16 );
+        long netTime = region.getLong( position + 24 );
+        long parameterOffset = region.getLong( position + 32 );
+
+        MappedExecutionNode node = new MappedExecutionNode( index, parameterCount, parameterOffset );
+        node.setOrder( order );
+        node.setDepth( depth );
+        node.setTotalTime( totalTime );
+
+        if ( depth == -1 )
+        {
+            // the first row of a thread, the method id is the thread's index
+            node.setType( ExecutionNode.Type.ROOT.toString() );
+            node.setName( getString( threads[methodId] ) );
+        }
+        else
+        {
+            node.setType( getString( methods[ methodId * 3 ] ) );
+            node.setName( getString( methods[ methodId * 3 + 1 ] ) );
+            node.setMethod( getString( methods[ methodId * 3 + 2 ] ) );
+            node.setAdjustedTime( netTime );
+        }
+
+        return node;
+    }
+
+    private List<XMethodParameter> readParameters( long offset, int count ) throws IOException
+    {
+        List<XMethodParameter> parameters = new ArrayList<XMethodParameter>( count );
+        long position = parametersOffset + offset;
+
+        for ( int i = 0; i < count; i++ )
+        {
+            ByteBuffer header = read( position, 8 );
+            int type = header.getInt();
+            int length = header.getInt();
+            position += 8;
+
+            XMethodParameter parameter = new XMethodParameter();
+            parameter.setType( getString( type ) );
+            if ( length != -1 )
+            {
+                ByteBuffer value = read( position, length );
+                parameter.setValue( new String( value.array(), UTF8 ) );
+                position += length;
+            }
+            parameters.add( parameter );
+        }
+
+        return parameters;
+    }
+
+    private ByteBuffer read( long position, int length ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( length );
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer, position + buffer.position() ) == -1 )
+            {
+                throw new IOException( "Unexpected end of MRI report" );
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readMethodSummary( DataInputStream in ) throws IOException
+    {
+        int count = in.readInt();
+        for ( int i = 0; i < count; i++ )
+        {
+            XMethodSummary summary = new XMethodSummary();
+            summary.setType( readString( in ) );
+            summary.setName( readString( in ) );
+            summary.setMethod( readString( in ) );
+            summary.setInvocations( in.readLong() );
+            summary.setAverageTime( in.readLong() );
+            summary.setTotalTime( in.readLong() );
+            summary.setP50( in.readLong() );
+            summary.setP90( in.readLong() );
+            summary.setP99( in.readLong() );
+            summary.setP999( in.readLong() );
+            summary.setMaxTime( in.readLong() );
+            summary.setHistogram( readString( in ) );
+            report.getMethodSummary().add( summary );
+        }
+    }
+
+    private void readTriggers( DataInputStream in, List<XTrigger> triggers ) throws IOException
+    {
+        int count = in.readInt();
+        for ( int i = 0; i < count; i++ )
+        {
+            XTrigger trigger = new XTrigger();
+            trigger.setName( readString( in ) );
+            trigger.setRevision( readString( in ) );
+            trigger.setProgram( readString( in ) );
+            trigger.setMethod( readString( in ) );
+            trigger.setSequence( readString( in ) );
+            trigger.setInvocations( in.readInt() );
+            triggers.add( trigger );
+        }
+    }
+
+    private void readMissingTriggers( DataInputStream in ) throws IOException
+    {
+        int count = in.readInt();
+        for ( int i = 0; i < count; i++ )
+        {
+            XMissingTrigger trigger = new XMissingTrigger();
+            trigger.setName( readString( in ) );
+            trigger.setAttempts( in.readInt() );
+            report.getMissingTriggers().add( trigger );
+        }
+    }
+
+    private void readTriggerManagerOverhead( DataInputStream in ) throws IOException
+    {
+        XTriggerManagerOverhead overhead = new XTriggerManagerOverhead();
+        int count = in.readInt();
+        for ( int i = 0; i < count; i++ )
+        {
+            overhead.getTimings().add( in.readLong() );
+        }
+        report.setOverhead( overhead );
+    }
+
+    private void readCallingContexts( DataInputStream in ) throws IOException
+    {
+        int count = in.readInt();
+        for ( int i = 0; i < count; i++ )
+        {
+            XCallingContext context = new XCallingContext();
+            context.setDepth( in.readInt() );
+            context.setType( readString( in ) );
+            context.setName( readString( in ) );
+            context.setMethod( readString( in ) );
+            context.setInvocations( in.readLong() );
+            context.setTotalTime( in.readLong() );
+            context.setNetTime( in.readLong() );
+            context.setMinTime( in.readLong() );
+            context.setMaxTime( in.readLong() );
+            report.getCallingContexts().add( context );
+        }
+    }
+
+    private String getString( int id )
+    {
+        return id == -1 ? null : strings[id];
+    }
+
+    private static String readString( DataInputStream in ) throws IOException
+    {
+        int length = in.readInt();
+        if ( length == -1 )
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, UTF8 );
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   The execution nodes of the report.  Nodes are created from the mapped records when they are accessed and
+     *   are not retained, and a node's index is found without searching
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private class ExecutionNodeList extends AbstractList<XExecutionNode> implements RandomAccess
+    {
+        @Override
+        public XExecutionNode get( int index )
+        {
+            if ( index < 0 || index >= recordCount )
+            {
+                throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + recordCount );
+            }
+            return readExecutionNode( index );
+        }
+
+        @Override
+        public int size()
+        {
+            return recordCount;
+        }
+
+        @Override
+        public int indexOf( Object o )
+        {
+            if ( o instanceof MappedExecutionNode && ( (MappedExecutionNode)o ).getReader() == MRIBinaryReportReader.this )
+            {
+                return ( (MappedExecutionNode)o ).index;
+            }
+            return -1;
+        }
+
+        @Override
+        public int lastIndexOf( Object o )
+        {
+            return indexOf( o );
+        }
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   An execution node read from a binary report.  It remembers where it came from so its parameters can be
+     *   read when they are first asked for
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private class MappedExecutionNode extends XExecutionNode
+    {
+        private final int index;
+        private final int parameterCount;
+        private final long parameterOffset;
+
+        MappedExecutionNode( int index, int parameterCount, long parameterOffset )
+        {
+            this.index = index;
+            this.parameterCount = parameterCount;
+            this.parameterOffset = parameterOffset;
+        }
+
+        MRIBinaryReportReader getReader()
+        {
+            return MRIBinaryReportReader.this;
+        }
+
+        @Override
+        public List<XMethodParameter> getMethodParameters()
+        {
+            if ( methodParameters == null )
+            {
+                try
+                {
+                    methodParameters = readParameters( parameterOffset, parameterCount );
+                }
+                catch( IOException e )
+                {
+                    throw new IllegalStateException( "Unable to read the parameters of node " + index, e );
+                }
+            }
+            return methodParameters;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            return o instanceof MappedExecutionNode && ( (MappedExecutionNode)o ).getReader() == getReader() &&
+                   ( (MappedExecutionNode)o ).index == index;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return index;
+        }
+    }
+}
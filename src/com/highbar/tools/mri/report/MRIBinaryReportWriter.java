@@ -0,0 +1,499 @@
+package com.highbar.tools.mri.report;
+
+import com.highbar.tools.mri.monitor.CallingContext;
+import com.highbar.tools.mri.monitor.ExecutionNode;
+import com.highbar.tools.mri.monitor.MRIProfiler;
+import com.highbar.tools.mri.monitor.MethodStatistics;
+import com.highbar.tools.mri.monitor.ParameterCapture;
+import com.highbar.tools.mri.monitor.ProfileSnapshot;
+import com.highbar.tools.trigger.cache.TriggerProgramParameters;
+import com.highbar.util.LatencyHistogram;
+import com.highbar.util.TreeNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   This class generates a binary (.mri) file containing information gathered by the MRIProfiler.  The binary
+ *   format is a fraction of the size of the xml report, and its fixed width node records let the
+ *   MRIBinaryReportReader memory map the file and read only the records that are displayed.
+ * <p/>
+ *   All values are big endian.  The file is laid out as:
+ *   <ul>
+ *   <li>header: magic number (int), version (int)</li>
+ *   <li>node records: one {@link #RECORD_SIZE} byte record per row - order (int), depth (int), method id (int),
+ *       parameter count (int), total time (long), net time (long), parameter offset (long).  Each thread starts
+ *       with a row of depth -1 whose method id is the index of the thread in the thread table</li>
+ *   <li>parameters: for each parameter, the string id of its type (int) followed by its value</li>
+ *   <li>tables: the string table, the method table (string ids of type, name and method), the thread table
+ *       (string id of the thread name), the method summary, active triggers, inactive triggers, missing
+ *       triggers, the trigger manager overhead and the call paths of the calling context tree in preorder</li>
+ *   <li>trailer: record count (long), parameter section offset (long), table section offset (long),
+ *       magic number (int)</li>
+ *   </ul>
+ *   Strings are written as a byte count (int, -1 for null) followed by UTF-8 bytes.  Parameters are written to a
+ *   temporary file while the records are streamed out and appended afterwards, so memory use does not grow with
+ *   the size of the profile.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class MRIBinaryReportWriter
+{
+    /**
+     * The extension of binary report files
+     */
+    public static final String FILE_EXTENSION = ".mri";
+
+    static final int MAGIC = 0x4D524921; // "MRI!"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 40;
+    static final int TRAILER_SIZE = 28;
+
+    private static final String UTF8 = "UTF-8";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The tables and counts of the report being written, reset at the start of each report
+     */
+    private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> methodIds = new HashMap<String, Integer>();
+    private final List<int[]> methods = new ArrayList<int[]>();
+    private final List<Integer> threads = new ArrayList<Integer>();
+
+    private long recordCount;
+    private ReportProgressListener progressListener;
+    private boolean includeStackTraces = true;
+    private long parametersLength;
+
+    /**
+     * Generates a binary profile report with the specified file name
+     * @param outputFileName the name of the report file to generate
+     * @throws FileNotFoundException if the report file cannot be created
+     */
+    public void createReport( String outputFileName ) throws FileNotFoundException
+    {
+        ProfileSnapshot snapshot = MRIProfiler.INSTANCE.takeSnapshot();
+        try
+        {
+            createReport( outputFileName, snapshot );
+        }
+        catch( FileNotFoundException e )
+        {
+            throw e;
+        }
+        catch( IOException e )
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Generates a binary profile report from a snapshot of the profiler
+     * @param outputFileName the name of the report file to generate
+     * @param snapshot the snapshot to write
+     * @throws IOException if the report cannot be written
+     */
+    public void createReport( String outputFileName, ProfileSnapshot snapshot ) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( outputFileName ), BUFFER_SIZE ) );
+        File parametersFile = null;
+        reset();
+        try
+        {
+            Set<TreeNode<ExecutionNode>> rootExecutionNodes = snapshot.getRootExecutionNodes();
+
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+
+            parametersFile = File.createTempFile( "mri", ".parameters" );
+            DataOutputStream parameters = new DataOutputStream(
+                    new BufferedOutputStream( new FileOutputStream( parametersFile ), BUFFER_SIZE ) );
+            try
+            {
+                if ( includeStackTraces )
+                {
+                    int threadsWritten = 0;
+                    for ( TreeNode<ExecutionNode> root : rootExecutionNodes )
+                    {
+                        writeStackTrace( root, out, parameters );
+                        MRIReportWriter.fireThreadWritten( progressListener, ++threadsWritten,
+                                rootExecutionNodes.size() );
+                    }
+                }
+            }
+            finally
+            {
+                MRIReportWriter.close( parameters );
+            }
+
+            long parametersOffset = HEADER_SIZE + recordCount * RECORD_SIZE;
+            append( parametersFile, out );
+
+            long tablesOffset = parametersOffset + parametersLength;
+            writeTables( out );
+            writeMethodSummary( snapshot.getMethodStatistics(), out );
+            writeTriggers( snapshot.getTriggers(), true, out );
+            writeTriggers( snapshot.getTriggers(), false, out );
+            writeMissingTriggers( snapshot.getMissingTriggers(), out );
+            writeTriggerManagerOverhead( snapshot.getTriggerManagerOverhead(), out );
+            writeCallingContexts( snapshot.getCallingContextTree(), out );
+
+            out.writeLong( recordCount );
+            out.writeLong( parametersOffset );
+            out.writeLong( tablesOffset );
+            out.writeInt( MAGIC );
+            out.flush();
+        }
+        finally
+        {
+            MRIReportWriter.close( out );
+            if ( parametersFile != null )
+            {
+                parametersFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @param progressListener notified as each thread's call tree is written, may be null
+     */
+    public void setProgressListener( ReportProgressListener progressListener )
+    {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @param includeStackTraces false to leave out every thread's call trees, so the call paths of the calling
+     *        context tree are the only record of who called what
+     */
+    public void setIncludeStackTraces( boolean includeStackTraces )
+    {
+        this.includeStackTraces = includeStackTraces;
+    }
+
+    private void reset()
+    {
+        stringIds.clear();
+        strings.clear();
+        methodIds.clear();
+        methods.clear();
+        threads.clear();
+        recordCount = 0;
+        parametersLength = 0;
+    }
+
+    private void writeStackTrace( TreeNode<ExecutionNode> rootExecutionNode, DataOutputStream out,
+                                  DataOutputStream parameters ) throws IOException
+    {
+        threads.add( getStringId( rootExecutionNode.getObject().getThreadId() ) );
+        writeRecord( out, -1, -1, threads.size() - 1, 0,
+                MRIReportWriter.getTotalTimeForThread( rootExecutionNode ), 0, 0 );
+
+        int order = 0;
+        for ( TreeNode<ExecutionNode> node : rootExecutionNode )
+        {
+            if ( node.isRoot() )
+            {
+                continue;
+            }
+
+            ExecutionNode executionNode = node.getObject();
+            long parameterOffset = parametersLength;
+            int parameterCount = writeParameters( executionNode, parameters );
+
+            writeRecord( out, order++, node.getLevel(), getMethodId( executionNode ), parameterCount,
+                    executionNode.getTotalTime(), executionNode.getNetTime(), parameterOffset );
+        }
+    }
+
+    private void writeRecord( DataOutputStream out, int order, int depth, int methodId, int parameterCount,
+                              long totalTime, long netTime, long parameterOffset ) throws IOException
+    {
+        out.writeInt( order );
+        out.writeInt( depth );
+        out.writeInt( methodId );
+        out.writeInt( parameterCount );
+        out.writeLong( totalTime );
+        out.writeLong( netTime );
+        out.writeLong( parameterOffset );
+        recordCount++;
+    }
+
+    /**
+     * Writes the parameters of an execution node the same way the xml report does
+     * @return the number of parameters written
+     */
+    private int writeParameters( ExecutionNode executionNode, DataOutputStream parameters ) throws IOException
+    {
+        Object[] parameterValues = executionNode.getParameters();
+
+        if ( parameterValues == null || parameterValues.length == 0 )
+        {
+            return 0;
+        }
+
+        String[] parameterTypes = MRIReportWriter.getParameterTypes( executionNode.getMethod() );
+
+        if ( parameterTypes != null && parameterTypes.length == parameterValues.length )
+        {
+            for( int i = 0; i < parameterTypes.length; i++ )
+            {
+                writeParameter( parameters, parameterTypes[i], ParameterCapture.toString( parameterValues[i] ) );
+            }
+            return parameterTypes.length;
+        }
+        else
+        {
+            writeParameter( parameters, "[Unable to Retrieve]", "[Unable to Retrieve]" );
+            return 1;
+        }
+    }
+
+    private void writeParameter( DataOutputStream parameters, String type, String value ) throws IOException
+    {
+        parameters.writeInt( getStringId( type ) );
+        parametersLength += 4 + writeString( parameters, value );
+    }
+
+    private void writeTables( DataOutputStream out ) throws IOException
+    {
+        out.writeInt( strings.size() );
+        for ( String s : strings )
+        {
+            writeString( out, s );
+        }
+
+        out.writeInt( methods.size() );
+        for ( int[] method : methods )
+        {
+            out.writeInt( method[0] );
+            out.writeInt( method[1] );
+            out.writeInt( method[2] );
+        }
+
+        out.writeInt( threads.size() );
+        for ( int thread : threads )
+        {
+            out.writeInt( thread );
+        }
+    }
+
+    private void writeMethodSummary( List<MethodStatistics> methodStatistics, DataOutputStream out )
+            throws IOException
+    {
+        List<MethodStatistics> summary = new ArrayList<MethodStatistics>();
+        for ( MethodStatistics statistics : MRIReportWriter.getSortedMethodStatistics( methodStatistics ) )
+        {
+            // skip methods that are registered, but haven't completed an invocation yet
+            if ( statistics.getInvocations() != 0 )
+            {
+                summary.add( statistics );
+            }
+        }
+
+        out.writeInt( summary.size() );
+        for ( MethodStatistics statistics : summary )
+        {
+            long invocations = statistics.getInvocations();
+            long netTime = statistics.getNetTime();
+
+            writeString( out, statistics.getType().toString() );
+            writeString( out, statistics.getName() );
+            writeString( out, statistics.getMethod() );
+            out.writeLong( invocations );
+            out.writeLong( netTime / invocations );
+            out.writeLong( netTime );
+
+            LatencyHistogram latencies = statistics.getLatencies();
+            out.writeLong( latencies.getValueAtPercentile( 50 ) );
+            out.writeLong( latencies.getValueAtPercentile( 90 ) );
+            out.writeLong( latencies.getValueAtPercentile( 99 ) );
+            out.writeLong( latencies.getValueAtPercentile( 99.9 ) );
+            out.writeLong( latencies.getMaxValue() );
+            writeString( out, latencies.encode() );
+        }
+    }
+
+    private void writeTriggers( Map<TriggerProgramParameters, Integer> triggers, boolean active,
+                                DataOutputStream out ) throws IOException
+    {
+        List<Map.Entry<TriggerProgramParameters, Integer>> entries =
+                new ArrayList<Map.Entry<TriggerProgramParameters, Integer>>();
+        for ( Map.Entry<TriggerProgramParameters, Integer> entry : triggers.entrySet() )
+        {
+            if ( entry.getKey().isActive() == active )
+            {
+                entries.add( entry );
+            }
+        }
+
+        out.writeInt( entries.size() );
+        for ( Map.Entry<TriggerProgramParameters, Integer> entry : entries )
+        {
+            TriggerProgramParameters trigger = entry.getKey();
+            writeString( out, trigger.getName() );
+            writeString( out, trigger.getRevision() );
+            writeString( out, trigger.getProgramName() );
+            writeString( out, trigger.getMethodName() );
+            writeString( out, trigger.getSequenceNumber() );
+            out.writeInt( entry.getValue() );
+        }
+    }
+
+    private void writeMissingTriggers( Map<String, Integer> missingTriggers, DataOutputStream out )
+            throws IOException
+    {
+        out.writeInt( missingTriggers.size() );
+        for ( Map.Entry<String, Integer> entry : missingTriggers.entrySet() )
+        {
+            writeString( out, entry.getKey() );
+            out.writeInt( entry.getValue() );
+        }
+    }
+
+    private void writeTriggerManagerOverhead( List<Long> triggerOverhead, DataOutputStream out )
+            throws IOException
+    {
+        out.writeInt( triggerOverhead.size() );
+        for ( long elapsedTime : triggerOverhead )
+        {
+            out.writeLong( elapsedTime );
+        }
+    }
+
+    /**
+     * Writes the call paths in preorder: count (int), then for each path its depth (int), type, name and method,
+     * invocations (long), total time, net time, minimum and maximum time (longs)
+     */
+    private void writeCallingContexts( CallingContext root, DataOutputStream out ) throws IOException
+    {
+        List<CallingContext> contexts = new ArrayList<CallingContext>();
+        List<Integer> depths = new ArrayList<Integer>();
+        addCallingContexts( root, 0, contexts, depths );
+
+        out.writeInt( contexts.size() );
+        for ( int i = 0; i < contexts.size(); i++ )
+        {
+            CallingContext context = contexts.get( i );
+            MethodStatistics method = context.getMethodStatistics();
+
+            out.writeInt( depths.get( i ) );
+            writeString( out, method.getType().toString() );
+            writeString( out, method.getName() );
+            writeString( out, method.getMethod() );
+            out.writeLong( context.getInvocations() );
+            out.writeLong( context.getTotalTime() );
+            out.writeLong( context.getNetTime() );
+            out.writeLong( context.getMinTime() );
+            out.writeLong( context.getMaxTime() );
+        }
+    }
+
+    private static void addCallingContexts( CallingContext context, int depth, List<CallingContext> contexts,
+                                            List<Integer> depths )
+    {
+        for ( CallingContext callee : context.getCallees() )
+        {
+            contexts.add( callee );
+            depths.add( depth + 1 );
+            addCallingContexts( callee, depth + 1, contexts, depths );
+        }
+    }
+
+    private int getMethodId( ExecutionNode executionNode )
+    {
+        String type = executionNode.getType().toString();
+        String key = type + '\0' + executionNode.getName() + '\0' + executionNode.getMethod();
+        Integer id = methodIds.get( key );
+
+        if ( id == null )
+        {
+            id = methods.size();
+            methodIds.put( key, id );
+            methods.add( new int[] { getStringId( type ), getStringId( executionNode.getName() ),
+                    getStringId( executionNode.getMethod() ) } );
+        }
+
+        return id;
+    }
+
+    private int getStringId( String s )
+    {
+        if ( s == null )
+        {
+            return -1;
+        }
+
+        Integer id = stringIds.get( s );
+        if ( id == null )
+        {
+            id = strings.size();
+            stringIds.put( s, id );
+            strings.add( s );
+        }
+
+        return id;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    private static int writeString( DataOutputStream out, String s ) throws IOException
+    {
+        if ( s == null )
+        {
+            out.writeInt( -1 );
+            return 4;
+        }
+
+        byte[] bytes = s.getBytes( UTF8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+        return 4 + bytes.length;
+    }
+
+    private static void append( File file, DataOutputStream out ) throws IOException
+    {
+        InputStream in = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE );
+        try
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ( ( n = in.read( buffer ) ) != -1 )
+            {
+                out.write( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            MRIReportWriter.close( in );
+        }
+    }
+}
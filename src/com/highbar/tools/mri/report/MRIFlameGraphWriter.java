@@ -0,0 +1,536 @@
+package com.highbar.tools.mri.report;
+
+import com.highbar.tools.mri.jaxb.XCallingContext;
+import com.highbar.tools.mri.jaxb.XExecutionNode;
+import com.highbar.tools.mri.monitor.CallingContext;
+import com.highbar.tools.mri.monitor.ExecutionNode;
+import com.highbar.tools.mri.monitor.MethodStatistics;
+import com.highbar.tools.mri.monitor.ProfileSnapshot;
+import com.highbar.util.TreeNode;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   This class generates a flame graph of the calls recorded by the MRIProfiler, or of an existing xml or binary
+ *   report.  Every thread's call trees are folded into one set of call paths weighted by net time, so the JSPs,
+ *   JPOs and triggers where the time actually goes are the widest frames however many requests were profiled.
+ *   If there are no call trees, because the report was written without them, the call paths of the calling
+ *   context tree are drawn instead.
+ * <p/>
+ *   The format is chosen by the file extension: .folded writes the folded stacks as text for other flame graph
+ *   tools, .html writes a web page, and anything else a self-contained SVG.  The graphs show the full name and
+ *   net time of a frame when the mouse is over it, and zoom into a frame when it is clicked.
+ * <p/>
+ *   Reports are read as a stream and folded as they are read, so converting a report takes memory for its
+ *   distinct call paths only.  Run from the command line to convert a report:
+ *   <pre>MRIFlameGraphWriter &lt;report file&gt; &lt;flame graph file&gt;</pre>
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class MRIFlameGraphWriter
+{
+    public static final String FOLDED_EXTENSION = ".folded";
+    public static final String SVG_EXTENSION = ".svg";
+    public static final String HTML_EXTENSION = ".html";
+
+    private static final String ENCODING = "UTF-8";
+    private static final String NEWLINE = "\n";
+    private static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+
+    private static final int WIDTH = 1200;
+    private static final int PADDING = 10;
+    private static final int FRAME_HEIGHT = 16;
+    private static final int TITLE_HEIGHT = 40;
+    private static final int DETAILS_HEIGHT = 30;
+    private static final double CHARACTER_WIDTH = 7;
+
+    /**
+     * Frames narrower than this, in pixels, are left out along with their callees
+     */
+    private static final double MIN_FRAME_WIDTH = 0.1;
+
+    private static final String STYLE =
+            "text { font-family: Verdana, sans-serif; font-size: 12px; fill: #000 } " +
+            ".frame { cursor: pointer } .frame:hover rect { stroke: #000; stroke-width: 0.5 } " +
+            "#title { font-size: 17px } #reset { cursor: pointer }";
+
+    /**
+     * Zooms into a frame when it is clicked, shows its details when the mouse is over it and fits the labels
+     * to the frames.  Each frame remembers its position as a fraction of the graph's width and its depth
+     */
+    private static final String SCRIPT =
+            "(function() {\n" +
+            "  var frames = document.getElementById('frames').getElementsByTagName('g');\n" +
+            "  var details = document.getElementById('details'), reset = document.getElementById('reset');\n" +
+            "  var left = " + PADDING + ", span = " + ( WIDTH - 2 * PADDING ) + ", charWidth = " + CHARACTER_WIDTH + ";\n" +
+            "  function attr(g, name) { return parseFloat(g.getAttribute(name)); }\n" +
+            "  function tooltip(g) { return g.getElementsByTagName('title')[0].textContent; }\n" +
+            "  function place(g, x, w) {\n" +
+            "    var rect = g.getElementsByTagName('rect')[0], text = g.getElementsByTagName('text')[0];\n" +
+            "    var label = tooltip(g), chars = Math.floor((w * span - 3) / charWidth);\n" +
+            "    label = label.substring(0, label.lastIndexOf('\\n'));\n" +
+            "    rect.setAttribute('x', left + x * span);\n" +
+            "    rect.setAttribute('width', w * span);\n" +
+            "    text.setAttribute('x', left + x * span + 3);\n" +
+            "    text.textContent = chars < 3 ? '' : label.length > chars ? label.substring(0, chars - 2) + '..' : label;\n" +
+            "  }\n" +
+            "  function zoom(z) {\n" +
+            "    var zx = attr(z, 'data-x'), zw = attr(z, 'data-w'), zd = attr(z, 'data-depth'), e = 1e-9;\n" +
+            "    for (var i = 0; i < frames.length; i++) {\n" +
+            "      var g = frames[i], x = attr(g, 'data-x'), w = attr(g, 'data-w'), d = attr(g, 'data-depth');\n" +
+            "      var caller = d < zd && x <= zx + e && x + w >= zx + zw - e;\n" +
+            "      var callee = d >= zd && x >= zx - e && x + w <= zx + zw + e;\n" +
+            "      g.style.display = caller || callee ? '' : 'none';\n" +
+            "      if (caller) { place(g, 0, 1); } else if (callee) { place(g, (x - zx) / zw, w / zw); }\n" +
+            "    }\n" +
+            "    reset.style.display = zd == 0 ? 'none' : '';\n" +
+            "  }\n" +
+            "  for (var i = 0; i < frames.length; i++) {\n" +
+            "    frames[i].onclick = function() { zoom(this); };\n" +
+            "    frames[i].onmouseover = function() { details.textContent = tooltip(this).replace('\\n', '  -  '); };\n" +
+            "    frames[i].onmouseout = function() { details.textContent = ' '; };\n" +
+            "  }\n" +
+            "  reset.onclick = function() { zoom(frames[0]); };\n" +
+            "  reset.style.display = 'none';\n" +
+            "})();\n";
+
+    private XMLStreamWriter writer;
+    private ReportProgressListener progressListener;
+    private boolean includeStackTraces = true;
+    private String title = "MRI Flame Graph";
+
+    public static void main( String... args )
+    {
+        if ( args.length != 2 )
+        {
+            System.err.println( "Usage: MRIFlameGraphWriter <report file> <flame graph file>" );
+            System.exit( 1 );
+        }
+
+        try
+        {
+            MRIFlameGraphWriter writer = new MRIFlameGraphWriter();
+            writer.setTitle( "MRI Flame Graph - " + new File( args[0] ).getName() );
+            writer.convertReport( new File( args[0] ), args[1] );
+        }
+        catch( Exception e )
+        {
+            e.printStackTrace();
+            System.exit( 1 );
+        }
+    }
+
+    /**
+     * @param fileName the name of a file
+     * @return true if the file name has the extension of a flame graph format
+     */
+    public static boolean isFlameGraph( String fileName )
+    {
+        return fileName.endsWith( FOLDED_EXTENSION ) || fileName.endsWith( SVG_EXTENSION ) ||
+               fileName.endsWith( HTML_EXTENSION );
+    }
+
+    /**
+     * Generates a flame graph from a snapshot of the profiler
+     * @param outputFileName the name of the flame graph file to generate
+     * @param snapshot the snapshot to draw
+     * @throws IOException if the flame graph cannot be written
+     */
+    public void createReport( String outputFileName, ProfileSnapshot snapshot ) throws IOException
+    {
+        FoldedStacks stacks = new FoldedStacks();
+
+        if ( includeStackTraces )
+        {
+            Set<TreeNode<ExecutionNode>> rootExecutionNodes = snapshot.getRootExecutionNodes();
+
+            int threadsFolded = 0;
+            for ( TreeNode<ExecutionNode> root : rootExecutionNodes )
+            {
+                for ( TreeNode<ExecutionNode> node : root )
+                {
+                    if ( node.isRoot() )
+                    {
+                        continue;
+                    }
+
+                    ExecutionNode executionNode = node.getObject();
+                    stacks.add( node.getLevel(), executionNode.getType().toString(), executionNode.getName(),
+                            executionNode.getMethod(), executionNode.getNetTime() );
+                }
+                MRIReportWriter.fireThreadWritten( progressListener, ++threadsFolded, rootExecutionNodes.size() );
+            }
+        }
+
+        if ( stacks.isEmpty() )
+        {
+            addCallingContexts( snapshot.getCallingContextTree(), 1, stacks );
+        }
+
+        write( stacks, outputFileName );
+    }
+
+    /**
+     * Generates a flame graph from an existing report
+     * @param reportFile an xml report, or a binary report ending in .mri
+     * @param outputFileName the name of the flame graph file to generate
+     * @throws IOException if the report cannot be read or the flame graph cannot be written
+     */
+    public void convertReport( File reportFile, String outputFileName ) throws IOException
+    {
+        final FoldedStacks stacks = new FoldedStacks();
+        final FoldedStacks callPaths = new FoldedStacks();
+
+        MRIReportScanner.scan( reportFile, new ReportHandler()
+        {
+            @Override
+            public void callingContext( XCallingContext context )
+            {
+                callPaths.add( context.getDepth(), context.getType(), context.getName(), context.getMethod(),
+                        context.getNetTime() );
+            }
+
+            @Override
+            public void executionNode( XExecutionNode node )
+            {
+                stacks.add( node.getDepth(), node.getType(), node.getName(), node.getMethod(),
+                        node.getAdjustedTime() );
+            }
+        } );
+
+        write( stacks.isEmpty() ? callPaths : stacks, outputFileName );
+    }
+
+    /**
+     * @param progressListener notified as each thread's call tree is folded, may be null
+     */
+    public void setProgressListener( ReportProgressListener progressListener )
+    {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @param includeStackTraces false to draw the call paths of the calling context tree rather than fold every
+     *        thread's call trees.  The graph is the same unless the profiler has discarded call trees, in which
+     *        case the call paths still include their calls
+     */
+    public void setIncludeStackTraces( boolean includeStackTraces )
+    {
+        this.includeStackTraces = includeStackTraces;
+    }
+
+    /**
+     * @param title the title shown above the graph
+     */
+    public void setTitle( String title )
+    {
+        this.title = title;
+    }
+
+    private static void addCallingContexts( CallingContext context, int depth, FoldedStacks stacks )
+    {
+        for ( CallingContext callee : context.getCallees() )
+        {
+            MethodStatistics method = callee.getMethodStatistics();
+            stacks.add( depth, method.getType().toString(), method.getName(), method.getMethod(), callee.getNetTime() );
+            addCallingContexts( callee, depth + 1, stacks );
+        }
+    }
+
+    private void write( FoldedStacks stacks, String outputFileName ) throws IOException
+    {
+        stacks.measure();
+
+        OutputStream out = new BufferedOutputStream( new FileOutputStream( outputFileName ), 64 * 1024 );
+        try
+        {
+            if ( outputFileName.endsWith( FOLDED_EXTENSION ) )
+            {
+                Writer folded = new OutputStreamWriter( out, ENCODING );
+                stacks.writeFolded( folded );
+                folded.flush();
+            }
+            else
+            {
+                writer = XMLOutputFactory.newInstance().createXMLStreamWriter( out, ENCODING );
+
+                if ( outputFileName.endsWith( HTML_EXTENSION ) )
+                {
+                    writeHtml( stacks );
+                }
+                else
+                {
+                    writer.writeStartDocument( ENCODING, "1.0" );
+                    writeSvg( stacks );
+                    writer.writeEndDocument();
+                }
+
+                writer.writeCharacters( NEWLINE );
+                writer.flush();
+            }
+        }
+        catch( XMLStreamException e )
+        {
+            IOException ioe = new IOException( "Cannot write " + outputFileName + ": " + e.getMessage() );
+            ioe.initCause( e );
+            throw ioe;
+        }
+        finally
+        {
+            MRIReportWriter.close( out );
+        }
+    }
+
+    private void writeHtml( FoldedStacks stacks ) throws XMLStreamException
+    {
+        writer.writeDTD( "<!DOCTYPE html>" );
+        writer.writeCharacters( NEWLINE );
+        writer.writeStartElement( "html" );
+        writer.writeStartElement( "head" );
+        writer.writeEmptyElement( "meta" );
+        writer.writeAttribute( "charset", ENCODING );
+        writer.writeStartElement( "title" );
+        writer.writeCharacters( title );
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeCharacters( NEWLINE );
+        writer.writeStartElement( "body" );
+        writer.writeAttribute( "style", "margin: 0; background: #f8f8f8" );
+        writer.writeCharacters( NEWLINE );
+        writeSvg( stacks );
+        writer.writeCharacters( NEWLINE );
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private void writeSvg( FoldedStacks stacks ) throws XMLStreamException
+    {
+        FoldedStacks.Frame root = stacks.getRoot();
+        double scale = root.getTotalTime() == 0 ? 0 : ( WIDTH - 2 * PADDING ) / (double)root.getTotalTime();
+        int height = TITLE_HEIGHT + ( getDepth( root, scale ) + 1 ) * FRAME_HEIGHT + DETAILS_HEIGHT;
+
+        writer.writeStartElement( "svg" );
+        writer.writeDefaultNamespace( SVG_NAMESPACE );
+        writer.writeAttribute( "version", "1.1" );
+        writer.writeAttribute( "width", Integer.toString( WIDTH ) );
+        writer.writeAttribute( "height", Integer.toString( height ) );
+        writer.writeAttribute( "viewBox", "0 0 " + WIDTH + " " + height );
+
+        writer.writeCharacters( NEWLINE );
+        writer.writeStartElement( "style" );
+        writer.writeCharacters( STYLE );
+        writer.writeEndElement();
+
+        writer.writeCharacters( NEWLINE );
+        writer.writeEmptyElement( "rect" );
+        writer.writeAttribute( "width", "100%" );
+        writer.writeAttribute( "height", "100%" );
+        writer.writeAttribute( "fill", "#f8f8f8" );
+
+        writeText( "title", WIDTH / 2, 24, "middle", title );
+        writeText( "reset", PADDING, 24, null, "Reset Zoom" );
+        writeText( "details", PADDING, height - 10, null, " " );
+
+        writer.writeCharacters( NEWLINE );
+        writer.writeStartElement( "g" );
+        writer.writeAttribute( "id", "frames" );
+        writeFrame( root, 0, 0, scale, height - DETAILS_HEIGHT, root.getTotalTime() );
+        writer.writeCharacters( NEWLINE );
+        writer.writeEndElement();
+
+        writer.writeCharacters( NEWLINE );
+        writer.writeStartElement( "script" );
+        writer.writeAttribute( "type", "text/ecmascript" );
+        writer.writeCharacters( NEWLINE );
+        writer.writeCharacters( SCRIPT );
+        writer.writeEndElement();
+
+        writer.writeCharacters( NEWLINE );
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes a frame and, to its right, the frames it called
+     * @param start the net time of the frames to the left of this one
+     * @param bottom the y coordinate of the bottom of the graph
+     * @param total the net time of the whole graph
+     */
+    private void writeFrame( FoldedStacks.Frame frame, long start, int depth, double scale, int bottom, long total )
+            throws XMLStreamException
+    {
+        double x = PADDING + start * scale;
+        double width = depth == 0 ? WIDTH - 2 * PADDING : frame.getTotalTime() * scale;
+        int y = bottom - ( depth + 1 ) * FRAME_HEIGHT;
+
+        writer.writeCharacters( NEWLINE );
+        writer.writeStartElement( "g" );
+        writer.writeAttribute( "class", "frame" );
+        writer.writeAttribute( "data-x", Double.toString( total == 0 ? 0 : start / (double)total ) );
+        writer.writeAttribute( "data-w", Double.toString( depth == 0 || total == 0 ? 1 : frame.getTotalTime() / (double)total ) );
+        writer.writeAttribute( "data-depth", Integer.toString( depth ) );
+
+        writer.writeStartElement( "title" );
+        writer.writeCharacters( frame.getLabel() + NEWLINE + getDetails( frame, total ) );
+        writer.writeEndElement();
+
+        writer.writeEmptyElement( "rect" );
+        writer.writeAttribute( "x", format( x ) );
+        writer.writeAttribute( "y", Integer.toString( y ) );
+        writer.writeAttribute( "width", format( width ) );
+        writer.writeAttribute( "height", Integer.toString( FRAME_HEIGHT - 1 ) );
+        writer.writeAttribute( "rx", "2" );
+        writer.writeAttribute( "ry", "2" );
+        writer.writeAttribute( "fill", getColor( frame ) );
+
+        writer.writeStartElement( "text" );
+        writer.writeAttribute( "x", format( x + 3 ) );
+        writer.writeAttribute( "y", Integer.toString( y + FRAME_HEIGHT - 4 ) );
+        writer.writeCharacters( fitLabel( frame.getLabel(), width ) );
+        writer.writeEndElement();
+
+        writer.writeEndElement();
+
+        long calleeStart = start;
+        for ( FoldedStacks.Frame callee : frame.getCallees() )
+        {
+            if ( callee.getTotalTime() * scale >= MIN_FRAME_WIDTH )
+            {
+                writeFrame( callee, calleeStart, depth + 1, scale, bottom, total );
+            }
+            calleeStart += callee.getTotalTime();
+        }
+    }
+
+    /**
+     * @param anchor the text-anchor of the text, null for the start
+     */
+    private void writeText( String id, int x, int y, String anchor, String text ) throws XMLStreamException
+    {
+        writer.writeCharacters( NEWLINE );
+        writer.writeStartElement( "text" );
+        writer.writeAttribute( "id", id );
+        writer.writeAttribute( "x", Integer.toString( x ) );
+        writer.writeAttribute( "y", Integer.toString( y ) );
+        if ( anchor != null )
+        {
+            writer.writeAttribute( "text-anchor", anchor );
+        }
+        writer.writeCharacters( text );
+        writer.writeEndElement();
+    }
+
+    /**
+     * @return the depth of the deepest frame wide enough to be drawn
+     */
+    private static int getDepth( FoldedStacks.Frame frame, double scale )
+    {
+        int depth = 0;
+        for ( FoldedStacks.Frame callee : frame.getCallees() )
+        {
+            if ( callee.getTotalTime() * scale >= MIN_FRAME_WIDTH )
+            {
+                depth = Math.max( depth, getDepth( callee, scale ) + 1 );
+            }
+        }
+        return depth;
+    }
+
+    private static String getDetails( FoldedStacks.Frame frame, long total )
+    {
+        ExecutionNode.Type type = getType( frame );
+        DecimalFormat f = new DecimalFormat( "0.00" );
+
+        return ( type == ExecutionNode.Type.ROOT ? "All Threads" : type.toDisplayString() ) + ", " + f.format( frame.getTotalTime() / 1000000d ) + " ms (" +
+               f.format( total == 0 ? 100 : frame.getTotalTime() * 100d / total ) + "%), " +
+               f.format( frame.getNetTime() / 1000000d ) + " ms net";
+    }
+
+    /**
+     * @return the label cut short to fit a frame of the given width, or nothing if too little of it would fit
+     */
+    private static String fitLabel( String label, double width )
+    {
+        int characters = (int)( ( width - 3 ) / CHARACTER_WIDTH );
+        if ( characters < 3 )
+        {
+            return "";
+        }
+        return label.length() > characters ? label.substring( 0, characters - 2 ) + ".." : label;
+    }
+
+    /**
+     * @return a colour for the frame by its type, e.g. JSPs are yellow and triggers red, varied a little by its
+     *         label so neighbouring frames can be told apart
+     */
+    private static String getColor( FoldedStacks.Frame frame )
+    {
+        int v = ( frame.getLabel().hashCode() & 0x7fffffff ) % 55;
+
+        switch ( getType( frame ) )
+        {
+            case JSP:
+                return rgb( 235, 170 + v, 50 );
+            case JPO:
+                return rgb( 80 + v, 190 + v / 2, 80 );
+            case LG_CNS_API:
+            case MX_API:
+            case API:
+                return rgb( 90 + v, 160 + v, 235 );
+            case JAVA_TRIGGER:
+            case TCL_TRIGGER:
+            case TRIGGER:
+                return rgb( 225, 70 + v, 60 + v / 2 );
+            case TRIGGER_MANAGER:
+                return rgb( 170 + v, 120, 215 );
+            default:
+                return rgb( 190 + v / 2, 190 + v / 2, 190 + v / 2 );
+        }
+    }
+
+    /**
+     * @return the type of the frame, or ROOT for the frame of all threads or a type this version doesn't know
+     */
+    private static ExecutionNode.Type getType( FoldedStacks.Frame frame )
+    {
+        try
+        {
+            return ExecutionNode.Type.valueOf( frame.getType() );
+        }
+        catch( RuntimeException e )
+        {
+            return ExecutionNode.Type.ROOT;
+        }
+    }
+
+    private static String rgb( int r, int g, int b )
+    {
+        return "rgb(" + r + "," + g + "," + b + ")";
+    }
+
+    private static String format( double coordinate )
+    {
+        // always with a decimal point, whatever the locale
+        return new DecimalFormat( "0.##", new DecimalFormatSymbols( Locale.US ) ).format( coordinate );
+    }
+}
@@ -0,0 +1,509 @@
+package com.highbar.tools.mri.report;
+
+import com.highbar.tools.mri.jaxb.XCallingContext;
+import com.highbar.tools.mri.jaxb.XExecutionNode;
+import com.highbar.tools.mri.jaxb.XMethodSummary;
+import com.highbar.tools.mri.jaxb.XTrigger;
+import com.highbar.util.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Compares two reports of the same application, e.g. before and after a JPO or trigger was tuned, method by
+ *   method and trigger by trigger.  Methods are matched on their type, name and method, and triggers on their
+ *   name and revision, so a method or trigger found in only one of the reports is compared with nothing.
+ * <p/>
+ *   The invocations and net time of a method come from the method summary.  Its total time, including the
+ *   methods it called, is summed from the call paths of the calling context tree, or from the call trees if the
+ *   report has no call paths; a call made within another call to the same method is counted once.  Both reports
+ *   are read with the MRIReportScanner, so the comparison takes memory for the methods and triggers only,
+ *   however large the reports are.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class MRIReportComparison
+{
+    /**
+     * The index of each report in the arrays of the deltas
+     */
+    private static final int BEFORE = 0;
+    private static final int AFTER = 1;
+
+    private final File before;
+    private final File after;
+    private final List<MethodDelta> methodDeltas;
+    private final List<TriggerDelta> triggerDeltas;
+    private final long[] netTime;
+
+    private MRIReportComparison( File before, File after, List<MethodDelta> methodDeltas,
+                                 List<TriggerDelta> triggerDeltas, long[] netTime )
+    {
+        this.before = before;
+        this.after = after;
+        this.methodDeltas = methodDeltas;
+        this.triggerDeltas = triggerDeltas;
+        this.netTime = netTime;
+    }
+
+    /**
+     * Compares two reports
+     * @param before the report to compare against, xml or binary
+     * @param after the report compared, xml or binary
+     * @return the comparison
+     * @throws IOException if either report cannot be read
+     */
+    public static MRIReportComparison compare( File before, File after ) throws IOException
+    {
+        Map<String, MethodDelta> methods = new HashMap<String, MethodDelta>();
+        Map<String, TriggerDelta> triggers = new HashMap<String, TriggerDelta>();
+        long[] netTime = new long[2];
+
+        MRIReportScanner.scan( before, new DeltaReader( BEFORE, methods, triggers, netTime ) );
+        MRIReportScanner.scan( after, new DeltaReader( AFTER, methods, triggers, netTime ) );
+
+        List<MethodDelta> methodDeltas = new ArrayList<MethodDelta>( methods.values() );
+        Collections.sort( methodDeltas, new Comparator<MethodDelta>()
+        {
+            public int compare( MethodDelta one, MethodDelta two )
+            {
+                return compareLongs( two.getNetTimeChange(), one.getNetTimeChange() );
+            }
+        } );
+
+        List<TriggerDelta> triggerDeltas = new ArrayList<TriggerDelta>( triggers.values() );
+        Collections.sort( triggerDeltas, new Comparator<TriggerDelta>()
+        {
+            public int compare( TriggerDelta one, TriggerDelta two )
+            {
+                return compareLongs( two.getInvocationChange(), one.getInvocationChange() );
+            }
+        } );
+
+        return new MRIReportComparison( before, after, methodDeltas, triggerDeltas, netTime );
+    }
+
+    public File getBefore()
+    {
+        return before;
+    }
+
+    public File getAfter()
+    {
+        return after;
+    }
+
+    /**
+     * @return every method found in either report, the one whose net time grew the most first, so regressions
+     *         come first and improvements last
+     */
+    public List<MethodDelta> getMethodDeltas()
+    {
+        return methodDeltas;
+    }
+
+    /**
+     * @return every trigger found in either report, the one whose invocations grew the most first
+     */
+    public List<TriggerDelta> getTriggerDeltas()
+    {
+        return triggerDeltas;
+    }
+
+    /**
+     * @return the net time of every method in the report compared against
+     */
+    public long getNetTimeBefore()
+    {
+        return netTime[BEFORE];
+    }
+
+    /**
+     * @return the net time of every method in the report compared
+     */
+    public long getNetTimeAfter()
+    {
+        return netTime[AFTER];
+    }
+
+    private static int compareLongs( long one, long two )
+    {
+        return one < two ? -1 : ( one == two ? 0 : 1 );
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   Adds the methods and triggers of one of the reports to their deltas as the report is read
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private static class DeltaReader extends ReportHandler
+    {
+        private final int side;
+        private final Map<String, MethodDelta> methods;
+        private final Map<String, TriggerDelta> triggers;
+        private final long[] netTime;
+
+        /**
+         * The methods of the path of the last call read, indexed by depth, to tell a call made within another
+         * call to the same method
+         */
+        private MethodDelta[] path = new MethodDelta[32];
+        private boolean hasCallPaths;
+
+        DeltaReader( int side, Map<String, MethodDelta> methods, Map<String, TriggerDelta> triggers,
+                     long[] netTime )
+        {
+            this.side = side;
+            this.methods = methods;
+            this.triggers = triggers;
+            this.netTime = netTime;
+        }
+
+        @Override
+        public void methodSummary( XMethodSummary summary )
+        {
+            MethodDelta delta = getMethod( summary.getType(), summary.getName(), summary.getMethod() );
+            delta.invocations[side] += summary.getInvocations();
+            delta.netTime[side] += summary.getTotalTime();
+            netTime[side] += summary.getTotalTime();
+
+            if ( summary.getHistogram() != null )
+            {
+                LatencyHistogram latencies = LatencyHistogram.decode( summary.getHistogram() );
+                if ( delta.latencies[side] == null )
+                {
+                    delta.latencies[side] = latencies;
+                }
+                else
+                {
+                    delta.latencies[side].add( latencies );
+                }
+            }
+            else
+            {
+                // reports without histograms only have the percentile itself
+                delta.p99[side] = Math.max( delta.p99[side], summary.getP99() );
+            }
+        }
+
+        @Override
+        public void trigger( XTrigger trigger, boolean active )
+        {
+            String key = trigger.getName() + '\u0000' + trigger.getRevision();
+            TriggerDelta delta = triggers.get( key );
+            if ( delta == null )
+            {
+                delta = new TriggerDelta( trigger.getName(), trigger.getRevision(), trigger.getProgram(),
+                        trigger.getMethod() );
+                triggers.put( key, delta );
+            }
+            delta.invocations[side] += trigger.getInvocations();
+            delta.active[side] = active;
+        }
+
+        @Override
+        public void callingContext( XCallingContext context )
+        {
+            // the call paths come before the call trees, and have every call even if call trees were discarded
+            hasCallPaths = true;
+            addTotalTime( context.getDepth(), context.getType(), context.getName(), context.getMethod(),
+                    context.getTotalTime() );
+        }
+
+        @Override
+        public void executionNode( XExecutionNode node )
+        {
+            if ( !hasCallPaths )
+            {
+                addTotalTime( node.getDepth(), node.getType(), node.getName(), node.getMethod(),
+                        node.getTotalTime() );
+            }
+        }
+
+        private void addTotalTime( int depth, String type, String name, String method, long totalTime )
+        {
+            if ( depth < 1 )
+            {
+                return;
+            }
+
+            if ( depth >= path.length )
+            {
+                MethodDelta[] grown = new MethodDelta[Math.max( path.length * 2, depth + 1 )];
+                System.arraycopy( path, 0, grown, 0, path.length );
+                path = grown;
+            }
+
+            MethodDelta delta = getMethod( type, name, method );
+            path[depth] = delta;
+
+            for ( int i = 1; i < depth; i++ )
+            {
+                if ( path[i] == delta )
+                {
+                    // already counted in the time of the outer call
+                    return;
+                }
+            }
+            delta.totalTime[side] += totalTime;
+        }
+
+        private MethodDelta getMethod( String type, String name, String method )
+        {
+            String key = type + '\u0000' + name + '\u0000' + method;
+            MethodDelta delta = methods.get( key );
+            if ( delta == null )
+            {
+                delta = new MethodDelta( type, name, method );
+                methods.put( key, delta );
+            }
+            return delta;
+        }
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   The invocations and times of a method in each report.  A method that isn't in one of the reports has no
+     *   invocations or time there
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    public static class MethodDelta
+    {
+        private final String type;
+        private final String name;
+        private final String method;
+        private final long[] invocations = new long[2];
+        private final long[] netTime = new long[2];
+        private final long[] totalTime = new long[2];
+        private final long[] p99 = new long[2];
+        private final LatencyHistogram[] latencies = new LatencyHistogram[2];
+
+        MethodDelta( String type, String name, String method )
+        {
+            this.type = type;
+            this.name = name;
+            this.method = method;
+        }
+
+        public String getType()
+        {
+            return type;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getMethod()
+        {
+            return method;
+        }
+
+        public long getInvocationsBefore()
+        {
+            return invocations[BEFORE];
+        }
+
+        public long getInvocationsAfter()
+        {
+            return invocations[AFTER];
+        }
+
+        public long getInvocationChange()
+        {
+            return invocations[AFTER] - invocations[BEFORE];
+        }
+
+        public long getNetTimeBefore()
+        {
+            return netTime[BEFORE];
+        }
+
+        public long getNetTimeAfter()
+        {
+            return netTime[AFTER];
+        }
+
+        public long getNetTimeChange()
+        {
+            return netTime[AFTER] - netTime[BEFORE];
+        }
+
+        /**
+         * @return the change in net time as a percentage of the time before, or zero if there was no time before
+         */
+        public double getNetTimeChangePercent()
+        {
+            return netTime[BEFORE] == 0 ? 0 : getNetTimeChange() * 100d / netTime[BEFORE];
+        }
+
+        public long getTotalTimeBefore()
+        {
+            return totalTime[BEFORE];
+        }
+
+        public long getTotalTimeAfter()
+        {
+            return totalTime[AFTER];
+        }
+
+        public long getTotalTimeChange()
+        {
+            return totalTime[AFTER] - totalTime[BEFORE];
+        }
+
+        public long getAverageTimeBefore()
+        {
+            return invocations[BEFORE] == 0 ? 0 : netTime[BEFORE] / invocations[BEFORE];
+        }
+
+        public long getAverageTimeAfter()
+        {
+            return invocations[AFTER] == 0 ? 0 : netTime[AFTER] / invocations[AFTER];
+        }
+
+        /**
+         * @return the 99th percentile of the elapsed times of a single call in the report compared against
+         */
+        public long getP99Before()
+        {
+            return getP99( BEFORE );
+        }
+
+        /**
+         * @return the 99th percentile of the elapsed times of a single call in the report compared
+         */
+        public long getP99After()
+        {
+            return getP99( AFTER );
+        }
+
+        /**
+         * @return true if the method was only called in the report compared
+         */
+        public boolean isAdded()
+        {
+            return invocations[BEFORE] == 0 && invocations[AFTER] != 0;
+        }
+
+        /**
+         * @return true if the method was only called in the report compared against
+         */
+        public boolean isRemoved()
+        {
+            return invocations[BEFORE] != 0 && invocations[AFTER] == 0;
+        }
+
+        private long getP99( int side )
+        {
+            return latencies[side] == null ? p99[side] : latencies[side].getValueAtPercentile( 99 );
+        }
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   The invocations of a trigger in each report
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    public static class TriggerDelta
+    {
+        private final String name;
+        private final String revision;
+        private final String program;
+        private final String method;
+        private final long[] invocations = new long[2];
+        private final boolean[] active = new boolean[2];
+
+        TriggerDelta( String name, String revision, String program, String method )
+        {
+            this.name = name;
+            this.revision = revision;
+            this.program = program;
+            this.method = method;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getRevision()
+        {
+            return revision;
+        }
+
+        public String getProgram()
+        {
+            return program;
+        }
+
+        public String getMethod()
+        {
+            return method;
+        }
+
+        public long getInvocationsBefore()
+        {
+            return invocations[BEFORE];
+        }
+
+        public long getInvocationsAfter()
+        {
+            return invocations[AFTER];
+        }
+
+        public long getInvocationChange()
+        {
+            return invocations[AFTER] - invocations[BEFORE];
+        }
+
+        public boolean isActiveBefore()
+        {
+            return active[BEFORE];
+        }
+
+        public boolean isActiveAfter()
+        {
+            return active[AFTER];
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.highbar.tools.mri.report;
+
+import com.highbar.tools.mri.jaxb.XCallingContext;
+import com.highbar.tools.mri.jaxb.XEnoviaProfilerReport;
+import com.highbar.tools.mri.jaxb.XExecutionNode;
+import com.highbar.tools.mri.jaxb.XMethodSummary;
+import com.highbar.tools.mri.jaxb.XTrigger;
+import com.highbar.tools.mri.monitor.ExecutionNode;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Reads an xml or binary report from start to finish, handing each part of it to a ReportHandler as it is
+ *   read.  Nothing is kept once it has been handed over, so a report of any size is read in the same memory,
+ *   which makes the scanner the way to summarise or convert reports too big for the viewer.
+ * <p/>
+ *   The xml is read with StAX and the elements are copied into the JAXB classes by hand rather than
+ *   unmarshalled, which is several times faster for the execution nodes.  Method parameters are skipped.  The
+ *   small sections are handed over before the stack traces, as that is the order they are written in both
+ *   formats.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class MRIReportScanner
+{
+    private MRIReportScanner()
+    {
+    }
+
+    /**
+     * Reads a report
+     * @param reportFile an xml report, or a binary report ending in .mri
+     * @param handler receives the parts of the report as they are read
+     * @throws IOException if the report cannot be read
+     */
+    public static void scan( File reportFile, ReportHandler handler ) throws IOException
+    {
+        if ( reportFile.getName().endsWith( MRIBinaryReportWriter.FILE_EXTENSION ) )
+        {
+            scanBinary( reportFile, handler );
+        }
+        else
+        {
+            scanXml( reportFile, handler );
+        }
+    }
+
+    private static void scanBinary( File reportFile, ReportHandler handler ) throws IOException
+    {
+        MRIBinaryReportReader reader = new MRIBinaryReportReader( reportFile );
+        try
+        {
+            XEnoviaProfilerReport report = reader.getReport();
+
+            for ( XTrigger trigger : report.getActiveTriggers() )
+            {
+                handler.trigger( trigger, true );
+            }
+            for ( XCallingContext context : report.getCallingContexts() )
+            {
+                handler.callingContext( context );
+            }
+            for ( XTrigger trigger : report.getInactiveTriggers() )
+            {
+                handler.trigger( trigger, false );
+            }
+            for ( XMethodSummary summary : report.getMethodSummary() )
+            {
+                handler.methodSummary( summary );
+            }
+
+            // each thread starts with a root row, so a thread has ended when the next one starts
+            String threadId = null;
+            long threadTime = 0;
+            for ( XExecutionNode node : reader.getExecutionNodes() )
+            {
+                if ( ExecutionNode.Type.ROOT.toString().equals( node.getType() ) )
+                {
+                    if ( threadId != null )
+                    {
+                        handler.threadEnded( threadId, threadTime );
+                    }
+                    threadId = node.getName();
+                    threadTime = node.getTotalTime();
+                }
+                else
+                {
+                    handler.executionNode( node );
+                }
+            }
+
+            if ( threadId != null )
+            {
+                handler.threadEnded( threadId, threadTime );
+            }
+        }
+        finally
+        {
+            MRIReportWriter.close( reader );
+        }
+    }
+
+    private static void scanXml( File reportFile, ReportHandler handler ) throws IOException
+    {
+        InputStream in = new BufferedInputStream( new FileInputStream( reportFile ), 64 * 1024 );
+        try
+        {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader( in );
+            while ( reader.hasNext() )
+            {
+                if ( reader.next() != XMLStreamConstants.START_ELEMENT )
+                {
+                    continue;
+                }
+
+                String name = reader.getLocalName();
+                if ( "stackTraces".equals( name ) )
+                {
+                    readStackTrace( reader, handler );
+                }
+                else if ( "methodSummary".equals( name ) )
+                {
+                    handler.methodSummary( toMethodSummary( readFields( reader ) ) );
+                }
+                else if ( "activeTriggers".equals( name ) )
+                {
+                    handler.trigger( toTrigger( readFields( reader ) ), true );
+                }
+                else if ( "inactiveTriggers".equals( name ) )
+                {
+                    handler.trigger( toTrigger( readFields( reader ) ), false );
+                }
+                else if ( "callingContexts".equals( name ) )
+                {
+                    handler.callingContext( toCallingContext( readFields( reader ) ) );
+                }
+            }
+            reader.close();
+        }
+        catch( XMLStreamException e )
+        {
+            IOException ioe = new IOException( "Cannot read " + reportFile + ": " + e.getMessage() );
+            ioe.initCause( e );
+            throw ioe;
+        }
+        catch( NumberFormatException e )
+        {
+            IOException ioe = new IOException( "Cannot read " + reportFile + ": " + e.getMessage() );
+            ioe.initCause( e );
+            throw ioe;
+        }
+        finally
+        {
+            MRIReportWriter.close( in );
+        }
+    }
+
+    /**
+     * Reads a stackTraces element, leaving the reader on its end tag.  The thread id and total time follow the
+     * execution nodes
+     */
+    private static void readStackTrace( XMLStreamReader reader, ReportHandler handler ) throws XMLStreamException
+    {
+        String threadId = null;
+        long totalTime = 0;
+
+        int level = 1;
+        while ( level > 0 )
+        {
+            int event = reader.next();
+            if ( event == XMLStreamConstants.START_ELEMENT )
+            {
+                String name = reader.getLocalName();
+                if ( level == 1 && "executionNodes".equals( name ) )
+                {
+                    handler.executionNode( toExecutionNode( readFields( reader ) ) );
+                }
+                else if ( level == 1 && "threadId".equals( name ) )
+                {
+                    threadId = reader.getElementText();
+                }
+                else if ( level == 1 && "totalTime".equals( name ) )
+                {
+                    totalTime = Long.parseLong( reader.getElementText().trim() );
+                }
+                else
+                {
+                    level++;
+                }
+            }
+            else if ( event == XMLStreamConstants.END_ELEMENT )
+            {
+                level--;
+            }
+        }
+
+        handler.threadEnded( threadId, totalTime );
+    }
+
+    /**
+     * Reads the elements containing only text that are children of the element at the reader's position,
+     * skipping any others such as method parameters, and leaves the reader on its end tag
+     * @return the text of each child keyed on its name
+     */
+    private static Map<String, String> readFields( XMLStreamReader reader ) throws XMLStreamException
+    {
+        Map<String, String> fields = new HashMap<String, String>();
+
+        int level = 1;
+        while ( level > 0 )
+        {
+            int event = reader.next();
+            if ( event == XMLStreamConstants.START_ELEMENT )
+            {
+                if ( level == 1 && !"methodParameters".equals( reader.getLocalName() ) )
+                {
+                    fields.put( reader.getLocalName(), reader.getElementText() );
+                }
+                else
+                {
+                    level++;
+                }
+            }
+            else if ( event == XMLStreamConstants.END_ELEMENT )
+            {
+                level--;
+            }
+        }
+
+        return fields;
+    }
+
+    private static XExecutionNode toExecutionNode( Map<String, String> fields )
+    {
+        XExecutionNode node = new XExecutionNode();
+        node.setAdjustedTime( getLong( fields, "adjustedTime" ) );
+        node.setDepth( (int)getLong( fields, "depth" ) );
+        node.setMethod( fields.get( "method" ) );
+        node.setName( fields.get( "name" ) );
+        node.setOrder( (int)getLong( fields, "order" ) );
+        node.setTotalTime( getLong( fields, "totalTime" ) );
+        node.setType( fields.get( "type" ) );
+        return node;
+    }
+
+    private static XMethodSummary toMethodSummary( Map<String, String> fields )
+    {
+        XMethodSummary summary = new XMethodSummary();
+        summary.setAverageTime( getLong( fields, "averageTime" ) );
+        summary.setHistogram( fields.get( "histogram" ) );
+        summary.setInvocations( getLong( fields, "invocations" ) );
+        summary.setMaxTime( getLong( fields, "maxTime" ) );
+        summary.setMethod( fields.get( "method" ) );
+        summary.setName( fields.get( "name" ) );
+        summary.setP50( getLong( fields, "p50" ) );
+        summary.setP90( getLong( fields, "p90" ) );
+        summary.setP99( getLong( fields, "p99" ) );
+        summary.setP999( getLong( fields, "p999" ) );
+        summary.setTotalTime( getLong( fields, "totalTime" ) );
+        summary.setType( fields.get( "type" ) );
+        return summary;
+    }
+
+    private static XTrigger toTrigger( Map<String, String> fields )
+    {
+        XTrigger trigger = new XTrigger();
+        trigger.setInvocations( (int)getLong( fields, "invocations" ) );
+        trigger.setMethod( fields.get( "method" ) );
+        trigger.setName( fields.get( "name" ) );
+        trigger.setProgram( fields.get( "program" ) );
+        trigger.setRevision( fields.get( "revision" ) );
+        trigger.setSequence( fields.get( "sequence" ) );
+        return trigger;
+    }
+
+    private static XCallingContext toCallingContext( Map<String, String> fields )
+    {
+        XCallingContext context = new XCallingContext();
+        context.setDepth( (int)getLong( fields, "depth" ) );
+        context.setInvocations( getLong( fields, "invocations" ) );
+        context.setMaxTime( getLong( fields, "maxTime" ) );
+        context.setMethod( fields.get( "method" ) );
+        context.setMinTime( getLong( fields, "minTime" ) );
+        context.setName( fields.get( "name" ) );
+        context.setNetTime( getLong( fields, "netTime" ) );
+        context.setTotalTime( getLong( fields, "totalTime" ) );
+        context.setType( fields.get( "type" ) );
+        return context;
+    }
+
+    /**
+     * @return the value of a numeric field, or zero if the report doesn't have it, as older reports don't
+     */
+    private static long getLong( Map<String, String> fields, String name )
+    {
+        String value = fields.get( name );
+        return value == null ? 0 : Long.parseLong( value.trim() );
+    }
+}
@@ -1,17 +1,24 @@
 package com.highbar.tools.mri.report;
 
-import com.highbar.tools.mri.jaxb.*;
+import com.highbar.tools.mri.monitor.CallingContext;
 import com.highbar.tools.mri.monitor.ExecutionNode;
 import com.highbar.tools.mri.monitor.MRIProfiler;
+import com.highbar.tools.mri.monitor.MethodStatistics;
+import com.highbar.tools.mri.monitor.ParameterCapture;
+import com.highbar.tools.mri.monitor.ProfileSnapshot;
 import com.highbar.tools.trigger.cache.TriggerProgramParameters;
-import com.highbar.util.StopWatch;
+import com.highbar.util.LatencyHistogram;
 import com.highbar.util.TreeNode;
-import matrix.db.Context;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 /**
@@ -19,6 +26,15 @@ import java.util.*;
  * <dt><b>Description:</b>
  * <dd>
  *   This class generates an xml file containing information gathered by the MRIProfiler
+ * <p/>
+ *   The report is streamed to the file as each thread's call tree is walked, so memory use does not grow
+ *   with the size of the profile.  Call trees spilled to disk by the profiler are read back one at a time as
+ *   their turn comes, ahead of the thread's trees still in memory.  The elements are written in the same order
+ *   as the JAXB classes in com.highbar.tools.mri.jaxb declare them, so the viewer reads the report with the
+ *   usual unmarshaller.
+ * <p/>
+ *   The calling context tree is written as a flat list of call paths in preorder, each with its depth, the way the
+ *   execution nodes of a stack trace are.  A report can leave the stack traces out and keep only the call paths.
  * </dd>
  * </dt>
  * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
@@ -29,6 +45,15 @@ import java.util.*;
  */
 public class MRIReportWriter
 {
+    private static final String ENCODING = "UTF-8";
+    private static final String INDENT = "    ";
+    private static final String NEWLINE = "\n";
+
+    private XMLStreamWriter writer;
+    private int depth;
+    private ReportProgressListener progressListener;
+    private boolean includeStackTraces = true;
+
     /**
      * Generates a profile report with the specified file name
      * @param outputFileName the name of the report file to generate
@@ -36,89 +61,164 @@ public class MRIReportWriter
      */
     public void createReport( String outputFileName ) throws FileNotFoundException
     {
-        PrintWriter out = new PrintWriter( outputFileName );
+        ProfileSnapshot snapshot = MRIProfiler.INSTANCE.takeSnapshot();
+        try
+        {
+            createReport( outputFileName, snapshot );
+        }
+        catch( FileNotFoundException e )
+        {
+            throw e;
+        }
+        catch( IOException e )
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Generates a profile report from a snapshot of the profiler
+     * @param outputFileName the name of the report file to generate
+     * @param snapshot the snapshot to write
+     * @throws IOException if the report cannot be written
+     */
+    public void createReport( String outputFileName, ProfileSnapshot snapshot ) throws IOException
+    {
+        OutputStream out = new BufferedOutputStream( new FileOutputStream( outputFileName ), 64 * 1024 );
         try
         {
-            Set<TreeNode<ExecutionNode>> rootExecutionNodes = MRIProfiler.INSTANCE.getRootExecutionNodes();
-            Map<ExecutionNode, List<ExecutionNode>> executionNodeMap = MRIProfiler.INSTANCE.getExecutionNodeMap();
-            List<StopWatch> triggerOverhead = MRIProfiler.INSTANCE.getTriggerManagerOverhead();
-            Map<String, Integer> missingTriggers = MRIProfiler.INSTANCE.getMissingTriggers();
-            Map<TriggerProgramParameters, Integer> triggers = MRIProfiler.INSTANCE.getTriggers();
-
-            setAdjustedTimes( rootExecutionNodes );
-
-            XEnoviaProfilerReport report = new XEnoviaProfilerReport();
-            report.setOverhead( getTriggerManagerOverhead( triggerOverhead ) );
-            report.getActiveTriggers().addAll( getTriggers( triggers, true ) );
-            report.getInactiveTriggers().addAll( getTriggers( triggers, false ) );
-            report.getMissingTriggers().addAll( getMissingTriggers( missingTriggers ) );
-            report.getMethodSummary().addAll( getMethodSummary( executionNodeMap ) );
-
-            for ( TreeNode<ExecutionNode> root : rootExecutionNodes )
+            Set<TreeNode<ExecutionNode>> rootExecutionNodes = snapshot.getRootExecutionNodes();
+
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter( out, ENCODING );
+            depth = 0;
+
+            writer.writeStartDocument( ENCODING, "1.0" );
+            startElement( "EnoviaProfilerReport" );
+            writeTriggers( "activeTriggers", snapshot.getTriggers(), true );
+            writeCallingContexts( snapshot.getCallingContextTree() );
+            writeTriggers( "inactiveTriggers", snapshot.getTriggers(), false );
+            writeMethodSummary( snapshot.getMethodStatistics() );
+            writeMissingTriggers( snapshot.getMissingTriggers() );
+            writeTriggerManagerOverhead( snapshot.getTriggerManagerOverhead() );
+
+            if ( includeStackTraces )
             {
-                report.getStackTraces().add( getStackTrace( root ) );
+                int threadsWritten = 0;
+                for ( TreeNode<ExecutionNode> root : rootExecutionNodes )
+                {
+                    writeStackTrace( root );
+                    fireThreadWritten( progressListener, ++threadsWritten, rootExecutionNodes.size() );
+                }
             }
 
-            JAXBContext context = JAXBContext.newInstance( XEnoviaProfilerReport.class );
-            Marshaller m = context.createMarshaller();
-            m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            m.marshal(report, out);
+            endElement();
+            writer.writeCharacters( NEWLINE );
+            writer.writeEndDocument();
+            writer.flush();
         }
-        catch( Exception e )
+        catch( XMLStreamException e )
         {
-            e.printStackTrace(); 
+            IOException ioe = new IOException( "Cannot write " + outputFileName + ": " + e.getMessage() );
+            ioe.initCause( e );
+            throw ioe;
         }
         finally
         {
-            out.close();
-        }    
+            close( out );
+        }
     }
 
-    private List<XMissingTrigger> getMissingTriggers( Map<String, Integer> missingTriggers )
+    /**
+     * @param progressListener notified as each thread's call tree is written, may be null
+     */
+    public void setProgressListener( ReportProgressListener progressListener )
     {
-        List<XMissingTrigger> list = new ArrayList<XMissingTrigger>();
+        this.progressListener = progressListener;
+    }
 
-        for ( Map.Entry<String, Integer> entry : missingTriggers.entrySet() )
+    /**
+     * @param includeStackTraces false to leave out every thread's call trees, so the call paths of the calling
+     *        context tree are the only record of who called what.  The report is then a fraction of the size
+     */
+    public void setIncludeStackTraces( boolean includeStackTraces )
+    {
+        this.includeStackTraces = includeStackTraces;
+    }
+
+    /**
+     * Writes the calling context tree in preorder, each path followed by the paths extending it
+     * @param root the root of the tree, which isn't written itself
+     * @throws XMLStreamException if the tree cannot be written
+     */
+    private void writeCallingContexts( CallingContext root ) throws XMLStreamException
+    {
+        for ( CallingContext callee : root.getCallees() )
         {
-            XMissingTrigger t = new XMissingTrigger();
-            t.setName( entry.getKey() );
-            t.setAttempts( entry.getValue() );
-            list.add( t );
+            writeCallingContext( callee, 1 );
         }
+    }
 
-        return list;
+    private void writeCallingContext( CallingContext context, int contextDepth ) throws XMLStreamException
+    {
+        MethodStatistics method = context.getMethodStatistics();
+
+        startElement( "callingContexts" );
+        writeElement( "depth", contextDepth );
+        writeElement( "invocations", context.getInvocations() );
+        writeElement( "maxTime", context.getMaxTime() );
+        writeElement( "method", method.getMethod() );
+        writeElement( "minTime", context.getMinTime() );
+        writeElement( "name", method.getName() );
+        writeElement( "netTime", context.getNetTime() );
+        writeElement( "totalTime", context.getTotalTime() );
+        writeElement( "type", method.getType() );
+        endElement();
+
+        for ( CallingContext callee : context.getCallees() )
+        {
+            writeCallingContext( callee, contextDepth + 1 );
+        }
     }
 
-    private List<XTrigger> getTriggers( Map<TriggerProgramParameters, Integer> triggers, boolean active )
+    private void writeMissingTriggers( Map<String, Integer> missingTriggers ) throws XMLStreamException
     {
-        List<XTrigger> list = new ArrayList<XTrigger>();
+        for ( Map.Entry<String, Integer> entry : missingTriggers.entrySet() )
+        {
+            startElement( "missingTriggers" );
+            writeElement( "attempts", entry.getValue() );
+            writeElement( "name", entry.getKey() );
+            endElement();
+        }
+    }
 
+    private void writeTriggers( String elementName, Map<TriggerProgramParameters, Integer> triggers, boolean active )
+            throws XMLStreamException
+    {
         for ( Map.Entry<TriggerProgramParameters,Integer> entry : triggers.entrySet() )
         {
             TriggerProgramParameters trigger = entry.getKey();
 
             if ( trigger.isActive() == active )
             {
-                XTrigger t = new XTrigger();
-                t.setName( trigger.getName() );
-                t.setRevision( trigger.getRevision() );
-                t.setProgram( trigger.getProgramName() );
-                t.setMethod( trigger.getMethodName() );
-                t.setSequence( trigger.getSequenceNumber() );
-                t.setInvocations( entry.getValue() );
-
-                list.add( t );
+                startElement( elementName );
+                writeElement( "invocations", entry.getValue() );
+                writeElement( "method", trigger.getMethodName() );
+                writeElement( "name", trigger.getName() );
+                writeElement( "program", trigger.getProgramName() );
+                writeElement( "revision", trigger.getRevision() );
+                writeElement( "sequence", trigger.getSequenceNumber() );
+                endElement();
             }
         }
-
-        return list;
     }
 
-    private XStackTrace getStackTrace( TreeNode<ExecutionNode> rootExecutionNode )
+    private void writeStackTrace( TreeNode<ExecutionNode> rootExecutionNode ) throws XMLStreamException
     {
-        XStackTrace stackTrace = new XStackTrace();
-        stackTrace.setThreadId( rootExecutionNode.getObject().getThreadId() );
-        stackTrace.setTotalTime( getTotalTimeForThread( rootExecutionNode ));
+        startElement( "stackTraces" );
 
         int order = 0;
         for ( TreeNode<ExecutionNode> node : rootExecutionNode )
@@ -130,14 +230,10 @@ public class MRIReportWriter
 
             ExecutionNode executionNode = node.getObject();
 
-            XExecutionNode x = new XExecutionNode();
-            x.setOrder( order++ );
-            x.setDepth( node.getLevel() );
-            x.setType( executionNode.getType().toString() );
-            x.setName( executionNode.getName() );
-            x.setMethod( executionNode.getMethod() );
-            x.setTotalTime( executionNode.getStopWatch().getElapsedTime() );
-            x.setAdjustedTime( executionNode.getNetTime() );
+            startElement( "executionNodes" );
+            writeElement( "adjustedTime", executionNode.getNetTime() );
+            writeElement( "depth", node.getLevel() );
+            writeElement( "method", executionNode.getMethod() );
 
             if ( executionNode.getParameters() != null && executionNode.getParameters().length != 0 )
             {
@@ -148,28 +244,41 @@ public class MRIReportWriter
                 {
                     for( int i = 0; i < parameterTypes.length; i++ )
                     {
-                        XMethodParameter parameter = new XMethodParameter();
-                        parameter.setType( parameterTypes[i] );
-                        parameter.setValue( toXMLFriendly( getStringValue( parameterValues[i] ) ) );
-                        x.getMethodParameters().add( parameter );
+                        writeMethodParameter( parameterTypes[i],
+                                toXMLFriendly( ParameterCapture.toString( parameterValues[i] ) ) );
                     }
                 }
                 else
-                {   
-                    XMethodParameter parameter = new XMethodParameter();
-                    parameter.setType( "[Unable to Retrieve]" );
-                    parameter.setValue( "[Unable to Retrieve]" );
-                    x.getMethodParameters().add( parameter );
+                {
+                    writeMethodParameter( "[Unable to Retrieve]", "[Unable to Retrieve]" );
                 }
             }
 
-            stackTrace.getExecutionNodes().add( x );
+            writeElement( "name", executionNode.getName() );
+            writeElement( "order", order++ );
+            writeElement( "totalTime", executionNode.getTotalTime() );
+            writeElement( "type", executionNode.getType() );
+            endElement();
         }
 
-        return stackTrace;
+        writeElement( "threadId", rootExecutionNode.getObject().getThreadId() );
+        writeElement( "totalTime", getTotalTimeForThread( rootExecutionNode ) );
+        endElement();
     }
 
-    private String[] getParameterTypes( String methodSignature )
+    private void writeMethodParameter( String type, String value ) throws XMLStreamException
+    {
+        startElement( "methodParameters" );
+        writeElement( "type", type );
+        writeElement( "value", value );
+        endElement();
+    }
+
+    /**
+     * @param methodSignature a method signature such as "getInfo(matrix.db.Context, String)"
+     * @return the parameter types declared by the signature, or null if it has no parameter list
+     */
+    static String[] getParameterTypes( String methodSignature )
     {
         int start = methodSignature.indexOf( '(' );
         int end = methodSignature.lastIndexOf( ')' );
@@ -186,49 +295,131 @@ public class MRIReportWriter
         }
     }
 
-    private List<XMethodSummary> getMethodSummary( Map<ExecutionNode, List<ExecutionNode>> executionNodeMap )
+    private void writeMethodSummary( List<MethodStatistics> methodStatistics ) throws XMLStreamException
     {
-        List<XMethodSummary> summaryList = new ArrayList<XMethodSummary>();
+        for ( MethodStatistics statistics : getSortedMethodStatistics( methodStatistics ) )
+        {
+            long invocations = statistics.getInvocations();
 
-        Set<ExecutionNode> sortedExecutionNodes = getSortedKeySet( executionNodeMap );
+            if ( invocations == 0 )
+            {
+                // registered, but no invocation has completed yet
+                continue;
+            }
 
-        for ( ExecutionNode executionNode : sortedExecutionNodes )
-        {
-            List<ExecutionNode> nodes = executionNodeMap.get( executionNode );
+            long netTime = statistics.getNetTime();
+            LatencyHistogram latencies = statistics.getLatencies();
+
+            startElement( "methodSummary" );
+            writeElement( "averageTime", netTime / invocations );
+            writeElement( "histogram", latencies.encode() );
+            writeElement( "invocations", invocations );
+            writeElement( "maxTime", latencies.getMaxValue() );
+            writeElement( "method", statistics.getMethod() );
+            writeElement( "name", statistics.getName() );
+            writeElement( "p50", latencies.getValueAtPercentile( 50 ) );
+            writeElement( "p90", latencies.getValueAtPercentile( 90 ) );
+            writeElement( "p99", latencies.getValueAtPercentile( 99 ) );
+            writeElement( "p999", latencies.getValueAtPercentile( 99.9 ) );
+            writeElement( "totalTime", netTime );
+            writeElement( "type", statistics.getType() );
+            endElement();
+        }
+    }
 
-            XMethodSummary summary = new XMethodSummary();
-            summary.setType( executionNode.getType().toString() );
-            summary.setName( executionNode.getName() );
-            summary.setMethod( executionNode.getMethod() );
-            summary.setInvocations( nodes.size() );
-            summary.setAverageTime( getAverageTime( nodes ) );
-            summary.setTotalTime( getTotalTime( nodes ) );
+    private void writeTriggerManagerOverhead( List<Long> triggerOverhead ) throws XMLStreamException
+    {
+        startElement( "overhead" );
 
-            summaryList.add( summary );
+        for ( long elapsedTime : triggerOverhead )
+        {
+            writeElement( "timings", elapsedTime );
         }
 
-        return summaryList;
+        endElement();
     }
 
-    private XTriggerManagerOverhead getTriggerManagerOverhead( List<StopWatch> triggerOverhead )
+    /**
+     * Starts an element on a new, indented line
+     * @param name the element name
+     * @throws XMLStreamException if the element cannot be written
+     */
+    private void startElement( String name ) throws XMLStreamException
     {
-        XTriggerManagerOverhead xOverhead = new XTriggerManagerOverhead();
+        indent();
+        writer.writeStartElement( name );
+        depth++;
+    }
 
-        for ( StopWatch stopWatch : triggerOverhead )
+    /**
+     * Ends the element started by the matching call to startElement(), on a new line
+     * @throws XMLStreamException if the element cannot be written
+     */
+    private void endElement() throws XMLStreamException
+    {
+        depth--;
+        indent();
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes an element containing only text on a single line.  Nothing is written for a null value,
+     * which is how JAXB treats unset properties
+     * @param name the element name
+     * @param value the element's value
+     * @throws XMLStreamException if the element cannot be written
+     */
+    private void writeElement( String name, Object value ) throws XMLStreamException
+    {
+        if ( value != null )
         {
-            xOverhead.getTimings().add( stopWatch.getElapsedTime() );
+            indent();
+            writer.writeStartElement( name );
+            writer.writeCharacters( value.toString() );
+            writer.writeEndElement();
         }
+    }
 
-        return xOverhead;
+    private void indent() throws XMLStreamException
+    {
+        writer.writeCharacters( NEWLINE );
+        for ( int i = 0; i < depth; i++ )
+        {
+            writer.writeCharacters( INDENT );
+        }
     }
 
-    private Set<ExecutionNode> getSortedKeySet( final Map<ExecutionNode, List<ExecutionNode>> executionNodeMap )
+    static void close( Closeable closeable )
+    {
+        try
+        {
+            closeable.close();
+        }
+        catch( IOException e )
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param methodStatistics the statistics to sort
+     * @return a copy of the statistics sorted by net time, longest first
+     */
+    static List<MethodStatistics> getSortedMethodStatistics( List<MethodStatistics> methodStatistics )
     {
-        Set<ExecutionNode> sortedKeySet = new TreeSet<ExecutionNode>( new Comparator<ExecutionNode>() {
+        // the net times are summed once up front as the counters are still being updated
+        final Map<MethodStatistics, Long> netTimes = new HashMap<MethodStatistics, Long>();
+        for ( MethodStatistics statistics : methodStatistics )
+        {
+            netTimes.put( statistics, statistics.getNetTime() );
+        }
 
-            public int compare( ExecutionNode one, ExecutionNode two )
+        List<MethodStatistics> sorted = new ArrayList<MethodStatistics>( methodStatistics );
+        Collections.sort( sorted, new Comparator<MethodStatistics>() {
+
+            public int compare( MethodStatistics one, MethodStatistics two )
             {
-                long time = getTotalTime( executionNodeMap.get( two ) ) - getTotalTime( executionNodeMap.get( one ) );
+                long time = netTimes.get( two ) - netTimes.get( one );
 
                 if ( time == 0 )
                 {
@@ -245,58 +436,27 @@ public class MRIReportWriter
             }
         });
 
-        sortedKeySet.addAll( executionNodeMap.keySet() );
-
-        return sortedKeySet;
+        return sorted;
     }
 
-    private void setAdjustedTimes( Set<TreeNode<ExecutionNode>> rootExecutionNodes )
+    static void fireThreadWritten( ReportProgressListener progressListener, int threadsWritten, int threadCount )
     {
-        for ( TreeNode<ExecutionNode> rootNode : rootExecutionNodes )
+        if ( progressListener != null )
         {
-            for ( TreeNode<ExecutionNode> node : rootNode )
-            {
-                setAdjustedTime( node );
-            }
+            progressListener.threadWritten( threadsWritten, threadCount );
         }
     }
 
-    private void setAdjustedTime( TreeNode<ExecutionNode> node )
-    {
-        long t = node.getObject().getStopWatch().getElapsedTime();
-
-        for ( TreeNode<ExecutionNode> child : node.getChildren() )
-        {
-            t -= child.getObject().getStopWatch().getElapsedTime();
-        }
-        node.getObject().setNetTime( t );
-    }
-
-    private long getTotalTimeForThread( TreeNode<ExecutionNode> rootNode )
+    static long getTotalTimeForThread( TreeNode<ExecutionNode> rootNode )
     {
         long t = 0;
         for ( TreeNode<ExecutionNode> child : rootNode.getChildren() )
         {
-            t += child.getObject().getStopWatch().getElapsedTime();
+            t += child.getObject().getTotalTime();
         }
         return t;
     }
 
-    private long getTotalTime( List<ExecutionNode> nodes )
-    {
-        long t = 0;
-        for ( ExecutionNode node : nodes )
-        {
-            t += node.getNetTime();
-        }
-        return t;
-    }
-
-    private long getAverageTime( List<ExecutionNode> nodes )
-    {
-        return getTotalTime( nodes ) / nodes.size();
-    }
-
     private String toXMLFriendly( String s )
     {
         char[] chars = s.toCharArray();
@@ -317,56 +477,4 @@ public class MRIReportWriter
         // so I'm leaving it like this for now.
         return c != 0x07;
     }
-
-    private String  getStringValue( Object o )
-    {
-        StringBuilder s = new StringBuilder();
-
-        if ( o instanceof Object[] )
-        {
-            s.append( Arrays.toString( (Object[])o ) );
-        }
-        else if ( o instanceof int[] )
-        {
-            s.append( Arrays.toString( (int[])o ) );
-        }
-        else if ( o instanceof long[] )
-        {
-            s.append( Arrays.toString( (long[])o) );
-        }
-        else if ( o instanceof short[] )
-        {
-            s.append( Arrays.toString( (short[])o ) );
-        }
-        else if ( o instanceof char[] )
-        {
-            s.append( Arrays.toString( (char[])o ) );
-        }
-        else if ( o instanceof byte[] )
-        {
-            s.append( Arrays.toString( (byte[])o ) );
-        }
-        else if ( o instanceof boolean[] )
-        {
-            s.append( Arrays.toString( (boolean[])o ) );
-        }
-        else if ( o instanceof float[] )
-        {
-            s.append( Arrays.toString( (float[])o ) );
-        }
-        else if ( o instanceof double[] )
-        {
-            s.append( Arrays.toString( (double[])o ) );
-        }
-        else if ( o instanceof matrix.db.Context )
-        {
-            s.append( "Context (user: " ).append( ((Context)o).getUser() ).append( ')' );
-        }
-        else // some other object
-        {
-            s.append( o );
-        }
-
-        return s.toString();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,65 @@
+package com.highbar.tools.mri.report;
+
+import com.highbar.tools.mri.jaxb.XCallingContext;
+import com.highbar.tools.mri.jaxb.XExecutionNode;
+import com.highbar.tools.mri.jaxb.XMethodSummary;
+import com.highbar.tools.mri.jaxb.XTrigger;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Receives the parts of a report as the MRIReportScanner reads them.  Every method does nothing, so a handler
+ *   only overrides the parts it is interested in.  The objects passed are not retained by the scanner.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public abstract class ReportHandler
+{
+    /**
+     * Called for each method in the method summary
+     * @param summary the method's summary
+     */
+    public void methodSummary( XMethodSummary summary )
+    {
+    }
+
+    /**
+     * Called for each trigger program parameters object
+     * @param trigger the trigger and the number of times it was invoked
+     * @param active true if the trigger is active
+     */
+    public void trigger( XTrigger trigger, boolean active )
+    {
+    }
+
+    /**
+     * Called for each path of the calling context tree, in preorder
+     * @param context the path
+     */
+    public void callingContext( XCallingContext context )
+    {
+    }
+
+    /**
+     * Called for each call of a thread's call trees, in preorder.  The method parameters are not read
+     * @param node the call
+     */
+    public void executionNode( XExecutionNode node )
+    {
+    }
+
+    /**
+     * Called after the last call of a thread's call trees
+     * @param threadId the name of the thread
+     * @param totalTime the total time of the thread's top-level calls
+     */
+    public void threadEnded( String threadId, long totalTime )
+    {
+    }
+}
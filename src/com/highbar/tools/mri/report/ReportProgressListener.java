@@ -0,0 +1,25 @@
+package com.highbar.tools.mri.report;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Receives the progress of a report as it is written.  Most of the time spent writing a report is spent on
+ *   the call trees, so progress is measured in threads
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public interface ReportProgressListener
+{
+    /**
+     * Called on the writing thread after each thread's call tree has been written
+     * @param threadsWritten the number of threads written so far
+     * @param threadCount the number of threads in the report
+     */
+    void threadWritten( int threadsWritten, int threadCount );
+}
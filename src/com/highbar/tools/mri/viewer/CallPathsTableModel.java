@@ -0,0 +1,93 @@
+package com.highbar.tools.mri.viewer;
+
+import com.highbar.tools.mri.jaxb.XCallingContext;
+import com.highbar.tools.mri.monitor.ExecutionNode;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.List;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   The table that displays the calling context tree: each distinct call path, indented under its caller, with
+ *   the number of calls made along it and their total, net, average, shortest and longest times
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class CallPathsTableModel extends AbstractTableModel
+{
+    private final List<XCallingContext> callingContexts;
+
+    public CallPathsTableModel( List<XCallingContext> callingContexts )
+    {
+        this.callingContexts = callingContexts;
+    }
+
+    public int getRowCount()
+    {
+        return callingContexts.size();
+    }
+
+    public int getColumnCount()
+    {
+        return 10;
+    }
+
+    public String getColumnName( int columnIndex )
+    {
+        switch ( columnIndex )
+        {
+            case 0: return "Depth";
+            case 1: return "Type";
+            case 2: return "Name";
+            case 3: return "Method";
+            case 4: return "Invocations";
+            case 5: return "Total Time (ms)";
+            case 6: return "Net Time (ms)";
+            case 7: return "Avg. Time (ms)";
+            case 8: return "Min. Time (ms)";
+            case 9: return "Max. Time (ms)";
+            default:
+                throw new IllegalArgumentException( "Call Paths Table: Column Index out of Bounds" );
+        }
+    }
+
+    public Object getValueAt( int rowIndex, int columnIndex )
+    {
+        XCallingContext c = callingContexts.get( rowIndex );
+        switch ( columnIndex )
+        {
+            case 0: return getLevelString( c );
+            case 1: return ExecutionNode.Type.valueOf( c.getType() ).toDisplayString();
+            case 2: return c.getName();
+            case 3: return c.getMethod();
+            case 4: return c.getInvocations();
+            case 5: return NumberFormats.nanosToMillis( c.getTotalTime() );
+            case 6: return NumberFormats.nanosToMillis( c.getNetTime() );
+            case 7: return NumberFormats.nanosToMillis(
+                    c.getInvocations() == 0 ? 0 : c.getTotalTime() / c.getInvocations() );
+            case 8: return NumberFormats.nanosToMillis( c.getMinTime() );
+            case 9: return NumberFormats.nanosToMillis( c.getMaxTime() );
+            default:
+                throw new IllegalArgumentException( "Call Paths Table: Column Index out of Bounds" );
+        }
+    }
+
+    private String getLevelString( XCallingContext context )
+    {
+        StringBuilder s = new StringBuilder();
+        for ( int i = 0; i < context.getDepth(); i++ )
+        {
+            s.append( "    " );
+        }
+        s.append( ' ' );
+        s.append( context.getDepth() );
+        return s.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.highbar.tools.mri.viewer;
+
+import com.highbar.tools.mri.jaxb.XExecutionNode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Indexes the tree structure of the viewer's flat list of execution nodes.  The list holds each thread's
+ *   nodes in preorder after a thread row of depth -1, so the tree can be rebuilt from the depths alone.  For every
+ *   node the index keeps its parent and the end of its subtree, which makes ancestor chains and sibling navigation
+ *   O(depth) instead of a scan of the list.
+ * <p/>
+ *   Nodes are indexed as they are appended to the list, so the index can be built while a report is loading.
+ *   Thread rows are the roots of the tree.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class CallTreeIndex
+{
+    private static final int NONE = -1;
+
+    private int[] parents = new int[1024];
+    private int[] subtreeEnds = new int[1024];
+    private int size = 0;
+
+    /**
+     * Nodes whose subtrees may still grow, from the root down, and their levels
+     */
+    private int[] openNodes = new int[64];
+    private int[] openLevels = new int[64];
+    private int openCount = 0;
+
+    /**
+     * Indexes the nodes appended to the end of a list
+     * @param nodes the list of nodes
+     * @param fromIndex the index of the first node that has not been indexed yet
+     */
+    public void addAll( List<XExecutionNode> nodes, int fromIndex )
+    {
+        int nodeCount = nodes.size();
+        for ( int i = fromIndex; i < nodeCount; i++ )
+        {
+            add( nodes.get( i ).getDepth() );
+        }
+    }
+
+    /**
+     * Indexes the next node in the list
+     * @param depth the depth of the node, or -1 for a thread row
+     */
+    public void add( int depth )
+    {
+        int level = Math.max( depth, 0 );
+
+        while ( openCount > 0 && openLevels[ openCount - 1 ] >= level )
+        {
+            subtreeEnds[ openNodes[ --openCount ] ] = size;
+        }
+
+        if ( size == parents.length )
+        {
+            parents = Arrays.copyOf( parents, size * 2 );
+            subtreeEnds = Arrays.copyOf( subtreeEnds, size * 2 );
+        }
+        parents[size] = openCount == 0 ? NONE : openNodes[ openCount - 1 ];
+        subtreeEnds[size] = NONE;
+
+        if ( openCount == openNodes.length )
+        {
+            openNodes = Arrays.copyOf( openNodes, openCount * 2 );
+            openLevels = Arrays.copyOf( openLevels, openCount * 2 );
+        }
+        openNodes[openCount] = size;
+        openLevels[openCount] = level;
+        openCount++;
+        size++;
+    }
+
+    /**
+     * @return the number of nodes indexed
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the index of the node's parent, or -1 for a thread row
+     */
+    public int getParent( int index )
+    {
+        checkIndex( index );
+        return parents[index];
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the index just past the last node in the node's subtree
+     */
+    public int getSubtreeEnd( int index )
+    {
+        checkIndex( index );
+        return subtreeEnds[index] == NONE ? size : subtreeEnds[index];
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the index of the next node with the same parent, or -1 if there isn't one
+     */
+    public int getNextSibling( int index )
+    {
+        int next = getSubtreeEnd( index );
+        return next < size && parents[next] == parents[index] ? next : NONE;
+    }
+
+    /**
+     * @param index the index of a node
+     * @return the index of the previous node with the same parent, or -1 if there isn't one
+     */
+    public int getPreviousSibling( int index )
+    {
+        checkIndex( index );
+        int parent = parents[index];
+        int previous = index - 1;
+
+        // the node before this one is the parent, or is in the previous sibling's subtree
+        while ( previous != NONE && previous != parent && parents[previous] != parent )
+        {
+            previous = parents[previous];
+        }
+
+        return previous == parent ? NONE : previous;
+    }
+
+    private void checkIndex( int index )
+    {
+        if ( index < 0 || index >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.highbar.tools.mri.viewer;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Renders a signed change right justified, in red if it is an increase and in green if it is a decrease, so
+ *   regressions stand out when comparing reports
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class ChangeCellRenderer extends DefaultTableCellRenderer
+{
+    private static final Color INCREASE = new Color( 192, 0, 0 );
+    private static final Color DECREASE = new Color( 0, 128, 0 );
+
+    ChangeCellRenderer()
+    {
+        setHorizontalAlignment( SwingConstants.RIGHT );
+    }
+
+    @Override
+    public Component getTableCellRendererComponent( JTable table, Object value, boolean isSelected, boolean hasFocus,
+                                                    int row, int column )
+    {
+        super.getTableCellRendererComponent( table, value, isSelected, hasFocus, row, column );
+
+        if ( !isSelected )
+        {
+            String s = value == null ? "" : value.toString();
+            if ( s.startsWith( "+" ) )
+            {
+                setForeground( INCREASE );
+            }
+            else if ( s.startsWith( "-" ) )
+            {
+                setForeground( DECREASE );
+            }
+            else
+            {
+                setForeground( table.getForeground() );
+            }
+        }
+
+        return this;
+    }
+}
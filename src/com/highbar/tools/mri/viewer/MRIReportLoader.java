@@ -0,0 +1,395 @@
+package com.highbar.tools.mri.viewer;
+
+import com.highbar.tools.mri.jaxb.XCallingContext;
+import com.highbar.tools.mri.jaxb.XEnoviaProfilerReport;
+import com.highbar.tools.mri.jaxb.XMethodSummary;
+import com.highbar.tools.mri.jaxb.XMissingTrigger;
+import com.highbar.tools.mri.jaxb.XStackTrace;
+import com.highbar.tools.mri.jaxb.XTrigger;
+import com.highbar.tools.mri.jaxb.XTriggerManagerOverhead;
+
+import javax.swing.*;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Loads an xml report in the background so the viewer stays responsive.  The report is read with StAX: the
+ *   small sections (triggers, call paths, method summary and overhead) are unmarshalled as they are read, and each
+ *   stackTraces element is copied out of the stream and unmarshalled on a pool of threads, one per processor.
+ * <p/>
+ *   The listener is told about the small sections before any stack trace, and then receives the stack traces in
+ *   document order as they become available, all on the event dispatch thread.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class MRIReportLoader extends SwingWorker<XEnoviaProfilerReport, XStackTrace>
+{
+    private static final String JAXB_PACKAGE = "com.highbar.tools.mri.jaxb";
+    private static final String STACK_TRACES = "stackTraces";
+
+    private static JAXBContext context;
+
+    private final File file;
+    private final Listener listener;
+    private final int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param file the xml report to load
+     * @param listener notified as the report is loaded
+     */
+    public MRIReportLoader( File file, Listener listener )
+    {
+        this.file = file;
+        this.listener = listener;
+    }
+
+    /**
+     * Creating a JAXBContext is expensive, so one is shared by every load.  JAXBContext is thread safe,
+     * only the marshallers and unmarshallers created from it are not
+     * @return the context for the report classes
+     * @throws JAXBException if the context cannot be created
+     */
+    static synchronized JAXBContext getJAXBContext() throws JAXBException
+    {
+        if ( context == null )
+        {
+            context = JAXBContext.newInstance( JAXB_PACKAGE );
+        }
+        return context;
+    }
+
+    @Override
+    protected XEnoviaProfilerReport doInBackground() throws Exception
+    {
+        final XEnoviaProfilerReport report = new XEnoviaProfilerReport();
+        Unmarshaller unmarshaller = getJAXBContext().createUnmarshaller();
+        LinkedList<Future<XStackTrace>> pending = new LinkedList<Future<XStackTrace>>();
+        boolean sectionsLoaded = false;
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        InputStream in = new BufferedInputStream( new FileInputStream( file ), 64 * 1024 );
+        try
+        {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader( in );
+            reader.nextTag();
+            reader.next();
+
+            while ( toTag( reader ) == XMLStreamConstants.START_ELEMENT )
+            {
+                String name = reader.getLocalName();
+
+                if ( STACK_TRACES.equals( name ) )
+                {
+                    if ( !sectionsLoaded )
+                    {
+                        // stack traces come last in the report, so everything else has been read
+                        fireSectionsLoaded( report );
+                        sectionsLoaded = true;
+                    }
+
+                    pending.add( executor.submit( new StackTraceUnmarshaller( copyElement( reader ) ) ) );
+                    publishCompleted( pending, threads * 2 );
+                }
+                else if ( "activeTriggers".equals( name ) )
+                {
+                    report.getActiveTriggers().add( unmarshaller.unmarshal( reader, XTrigger.class ).getValue() );
+                }
+                else if ( "callingContexts".equals( name ) )
+                {
+                    report.getCallingContexts().add(
+                            unmarshaller.unmarshal( reader, XCallingContext.class ).getValue() );
+                }
+                else if ( "inactiveTriggers".equals( name ) )
+                {
+                    report.getInactiveTriggers().add( unmarshaller.unmarshal( reader, XTrigger.class ).getValue() );
+                }
+                else if ( "methodSummary".equals( name ) )
+                {
+                    report.getMethodSummary().add( unmarshaller.unmarshal( reader, XMethodSummary.class ).getValue() );
+                }
+                else if ( "missingTriggers".equals( name ) )
+                {
+                    report.getMissingTriggers().add( unmarshaller.unmarshal( reader, XMissingTrigger.class ).getValue() );
+                }
+                else if ( "overhead".equals( name ) )
+                {
+                    report.setOverhead( unmarshaller.unmarshal( reader, XTriggerManagerOverhead.class ).getValue() );
+                }
+                else
+                {
+                    skipElement( reader );
+                }
+            }
+
+            if ( !sectionsLoaded )
+            {
+                fireSectionsLoaded( report );
+            }
+
+            publishCompleted( pending, 0 );
+            reader.close();
+        }
+        finally
+        {
+            executor.shutdownNow();
+            in.close();
+        }
+
+        return report;
+    }
+
+    @Override
+    protected void process( List<XStackTrace> stackTraces )
+    {
+        listener.stackTracesLoaded( stackTraces );
+    }
+
+    @Override
+    protected void done()
+    {
+        try
+        {
+            listener.loadFinished( get() );
+        }
+        catch( InterruptedException e )
+        {
+            listener.loadFailed( e );
+        }
+        catch( ExecutionException e )
+        {
+            listener.loadFailed( e.getCause() );
+        }
+    }
+
+    private void fireSectionsLoaded( final XEnoviaProfilerReport report )
+    {
+        if ( report.getOverhead() == null )
+        {
+            report.setOverhead( new XTriggerManagerOverhead() );
+        }
+
+        SwingUtilities.invokeLater( new Runnable()
+        {
+            public void run()
+            {
+                listener.sectionsLoaded( report );
+            }
+        } );
+    }
+
+    /**
+     * Publishes the stack traces at the head of the queue that have been unmarshalled.  Stack traces are
+     * published in the order they were read, and the queue is kept to the given size so the buffered
+     * elements don't pile up when unmarshalling falls behind reading
+     */
+    private void publishCompleted( LinkedList<Future<XStackTrace>> pending, int maxPending )
+            throws InterruptedException, ExecutionException
+    {
+        while ( !pending.isEmpty() && ( pending.size() > maxPending || pending.getFirst().isDone() ) )
+        {
+            publish( pending.removeFirst().get() );
+        }
+    }
+
+    /**
+     * Advances the reader to the next start or end tag
+     * @return the type of the tag
+     */
+    private static int toTag( XMLStreamReader reader ) throws XMLStreamException
+    {
+        int event = reader.getEventType();
+        while ( event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT )
+        {
+            event = reader.next();
+        }
+        return event;
+    }
+
+    /**
+     * Copies the element at the reader's position into a string and leaves the reader just past its end tag
+     */
+    private static String copyElement( XMLStreamReader reader ) throws XMLStreamException
+    {
+        StringWriter s = new StringWriter();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter( s );
+        int depth = 0;
+
+        do
+        {
+            switch ( reader.getEventType() )
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    if ( isEmpty( reader.getNamespaceURI() ) )
+                    {
+                        writer.writeStartElement( reader.getLocalName() );
+                    }
+                    else
+                    {
+                        writer.writeStartElement( getPrefix( reader.getPrefix() ), reader.getLocalName(),
+                                reader.getNamespaceURI() );
+                    }
+                    for ( int i = 0; i < reader.getNamespaceCount(); i++ )
+                    {
+                        writer.writeNamespace( getPrefix( reader.getNamespacePrefix( i ) ), reader.getNamespaceURI( i ) );
+                    }
+                    for ( int i = 0; i < reader.getAttributeCount(); i++ )
+                    {
+                        if ( isEmpty( reader.getAttributeNamespace( i ) ) )
+                        {
+                            writer.writeAttribute( reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) );
+                        }
+                        else
+                        {
+                            writer.writeAttribute( getPrefix( reader.getAttributePrefix( i ) ),
+                                    reader.getAttributeNamespace( i ), reader.getAttributeLocalName( i ),
+                                    reader.getAttributeValue( i ) );
+                        }
+                    }
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    writer.writeEndElement();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    writer.writeCharacters( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                    break;
+            }
+            reader.next();
+        }
+        while ( depth > 0 );
+
+        writer.close();
+        return s.toString();
+    }
+
+    private static boolean isEmpty( String s )
+    {
+        return s == null || s.length() == 0;
+    }
+
+    private static String getPrefix( String prefix )
+    {
+        return prefix == null ? "" : prefix;
+    }
+
+    /**
+     * Skips the element at the reader's position, leaving the reader just past its end tag
+     */
+    private static void skipElement( XMLStreamReader reader ) throws XMLStreamException
+    {
+        int depth = 0;
+        do
+        {
+            if ( reader.isStartElement() )
+            {
+                depth++;
+            }
+            else if ( reader.isEndElement() )
+            {
+                depth--;
+            }
+            reader.next();
+        }
+        while ( depth > 0 );
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   Unmarshals a single stackTraces element.  Each task uses its own unmarshaller, as they are not thread safe
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    private static class StackTraceUnmarshaller implements Callable<XStackTrace>
+    {
+        private final String xml;
+
+        StackTraceUnmarshaller( String xml )
+        {
+            this.xml = xml;
+        }
+
+        public XStackTrace call() throws JAXBException
+        {
+            Unmarshaller unmarshaller = getJAXBContext().createUnmarshaller();
+            return unmarshaller.unmarshal( new StreamSource( new StringReader( xml ) ), XStackTrace.class ).getValue();
+        }
+    }
+
+    /**
+     * <dl>
+     * <dt><b>Description:</b>
+     * <dd>
+     *   Receives the parts of a report as they are loaded.  All methods are called on the event dispatch thread
+     * </dd>
+     * </dt>
+     * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+     * </dl>
+     *
+     * @author agent - agent@local
+     * @version 1.0
+     */
+    public interface Listener
+    {
+        /**
+         * Called once the triggers, call paths, method summary and overhead have been loaded
+         * @param report the report, without its stack traces
+         */
+        void sectionsLoaded( XEnoviaProfilerReport report );
+
+        /**
+         * Called as stack traces are loaded, in the order they appear in the report
+         * @param stackTraces the stack traces loaded since the last call
+         */
+        void stackTracesLoaded( List<XStackTrace> stackTraces );
+
+        /**
+         * Called when the whole report has been loaded
+         * @param report the report, without its stack traces
+         */
+        void loadFinished( XEnoviaProfilerReport report );
+
+        /**
+         * Called if the report could not be loaded
+         * @param cause the reason
+         */
+        void loadFailed( Throwable cause );
+    }
+}
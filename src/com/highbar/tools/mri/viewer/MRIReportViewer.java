@@ -1,6 +1,7 @@
 package com.highbar.tools.mri.viewer;
 
 import com.highbar.tools.mri.monitor.ExecutionNode;
+import com.highbar.tools.mri.jaxb.XCallingContext;
 import com.highbar.tools.mri.jaxb.XEnoviaProfilerReport;
 import com.highbar.tools.mri.jaxb.XExecutionNode;
 import com.highbar.tools.mri.jaxb.XMethodParameter;
@@ -8,6 +9,9 @@ import com.highbar.tools.mri.jaxb.XMethodSummary;
 import com.highbar.tools.mri.jaxb.XMissingTrigger;
 import com.highbar.tools.mri.jaxb.XStackTrace;
 import com.highbar.tools.mri.jaxb.XTrigger;
+import com.highbar.tools.mri.report.MRIBinaryReportReader;
+import com.highbar.tools.mri.report.MRIBinaryReportWriter;
+import com.highbar.tools.mri.report.MRIReportComparison;
 import com.highbar.util.Filter;
 import com.highbar.util.FilteredList;
 import com.intellij.uiDesigner.core.GridConstraints;
@@ -20,17 +24,26 @@ import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.awt.event.KeyEvent;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 /**
@@ -54,11 +67,13 @@ public class MRIReportViewer
     protected JTabbedPane triggersTabPane;
     protected JPanel summaryPanel;
     protected JPanel callStackPanel;
+    protected JPanel callPathsPanel;
     protected JPanel triggersPanel;
     protected JPanel triggerSummaryPanel;
     protected JPanel missingTriggerPanel;
     protected JPanel inactiveTriggerPanel;
     protected JPanel activeTriggerPanel;
+    protected JPanel comparePanel;
 
     private JPanel mainPanel;
     private JCheckBox triggerManagerCheckBox;
@@ -68,11 +83,14 @@ public class MRIReportViewer
     private JCheckBox apiCheckBox;
     private JTable mainSummaryTable;
     private JTable callStackTable;
+    private JTable callPathsTable;
     private JTable missingTriggerTable;
     private JTable inactiveTriggerTable;
     private JTable activeTriggerTable;
     private JTable methodParametersTable;
     private JTable methodAncestorsTable;
+    private JTable methodDeltasTable;
+    private JTable triggerDeltasTable;
     private JLabel triggerManagerInstancesLabel;
     private JLabel triggerManagerInstantiationOverheadLabel;
     private JLabel triggerManagerMxMainInvocationsLabel;
@@ -81,16 +99,25 @@ public class MRIReportViewer
     private JLabel inactiveTriggerEncounteredLabel;
     private JLabel missingTriggerProgramParametersLabel;
     private JLabel timingSliderValue;
+    private JLabel compareLabel;
     private JSlider timingSlider;
     private JButton scrollToRowButton;
+    private JButton compareButton;
 
     private static final int FILTER_MAX_MILLIS = 500;
 
-    private final List<XExecutionNode> allNodes = new ArrayList<XExecutionNode>();
+    private List<XExecutionNode> allNodes = new ArrayList<XExecutionNode>();
     private final CallStackTableFilter callStackTableFilter = new CallStackTableFilter();
 
     private FilteredList<XExecutionNode> filteredNodes;
+    private CallTreeIndex callTreeIndex;
     private XExecutionNode selectedNode;
+    private File reportFile;
+
+    /**
+     * The reader of the binary report being viewed, null if the report is xml
+     */
+    private MRIBinaryReportReader binaryReport;
 
     public MRIReportViewer()
     {
@@ -126,14 +153,33 @@ public class MRIReportViewer
     {
         if ( file != null )
         {
-            XEnoviaProfilerReport report = unmarshal( file );
+            closeBinaryReport();
+            reportFile = file;
             initTimingSlider();
             initStackRelatedCheckboxes();
-            initStackTraces( report.getStackTraces() );
-            initScrollToRowButton();
-            displayReport( report );
 
-            frame.setTitle( "MRI - Matrix Runtime Inspector - " + file.getName() );
+            if ( file.getName().endsWith( MRIBinaryReportWriter.FILE_EXTENSION ) )
+            {
+                // the call stack is indexed in the background, and shown once every record has been read
+                MRIBinaryReportReader reader = open( file );
+                binaryReport = reader;
+                allNodes = new ArrayList<XExecutionNode>();
+                initStackTraces();
+                displayReport( reader.getReport() );
+                frame.setTitle( "MRI - Matrix Runtime Inspector - Indexing " + file.getName() );
+                new StackTraceIndexer( file, reader.getExecutionNodes() ).execute();
+            }
+            else
+            {
+                // the stack traces are added to the table as they are loaded
+                allNodes = new ArrayList<XExecutionNode>();
+                initStackTraces();
+                frame.setTitle( "MRI - Matrix Runtime Inspector - Loading " + file.getName() );
+                new MRIReportLoader( file, new ReportLoadListener( file ) ).execute();
+            }
+
+            initScrollToRowButton();
+            initCompareButton();
         }
     }
 
@@ -193,6 +239,23 @@ public class MRIReportViewer
         } );
     }
 
+    void initCompareButton()
+    {
+        compareButton.addActionListener( new ActionListener()
+        {
+            public void actionPerformed( ActionEvent e )
+            {
+                File baseline = getFileFromUserInput();
+                if ( baseline != null )
+                {
+                    compareButton.setEnabled( false );
+                    compareLabel.setText( "Comparing with " + baseline.getName() + "..." );
+                    new ReportComparer( baseline ).execute();
+                }
+            }
+        } );
+    }
+
     public static void main( String[] args )
     {
         frame = new JFrame( "MRI - Matrix Runtime Inspector" );
@@ -206,8 +269,7 @@ public class MRIReportViewer
     {
         try
         {
-            JAXBContext jc = JAXBContext.newInstance( "com.highbar.tools.mri.jaxb" );
-            Unmarshaller u = jc.createUnmarshaller();
+            Unmarshaller u = MRIReportLoader.getJAXBContext().createUnmarshaller();
             return (XEnoviaProfilerReport)u.unmarshal( file );
         }
         catch ( JAXBException e )
@@ -217,15 +279,57 @@ public class MRIReportViewer
         }
     }
 
+    /**
+     * Opens a binary report.  The reader is left open for as long as the viewer displays the report, as the
+     * execution nodes are read from the file as they are displayed
+     * @param file the binary report file
+     * @return the reader
+     */
+    MRIBinaryReportReader open( File file )
+    {
+        try
+        {
+            return new MRIBinaryReportReader( file );
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace();
+            throw new Error( e );
+        }
+    }
+
+    /**
+     * Closes the binary report being viewed, if any, so its records are no longer mapped once another report is
+     * displayed
+     */
+    private void closeBinaryReport()
+    {
+        if ( binaryReport != null )
+        {
+            try
+            {
+                binaryReport.close();
+            }
+            catch ( IOException e )
+            {
+                e.printStackTrace();
+            }
+            binaryReport = null;
+        }
+    }
+
     void displayReport( XEnoviaProfilerReport report )
     {
         displaySummary( report.getMethodSummary() );
+        displayCallPaths( report.getCallingContexts() );
         displayTriggers( report );
     }
 
-    private void initStackTraces( List<XStackTrace> stackTraces )
+    private void initStackTraces()
     {
-        initExecutionNodeList( stackTraces );
+        filteredNodes = new FilteredList<XExecutionNode>( allNodes, callStackTableFilter.reset() );
+        callTreeIndex = new CallTreeIndex();
+        callTreeIndex.addAll( allNodes, 0 );
 
         // show the selected node's ancestors and parameter values when clicked
         ListSelectionModel selectionModel = callStackTable.getSelectionModel();
@@ -237,8 +341,9 @@ public class MRIReportViewer
                 int rowIndex = callStackTable.getSelectedRow();
                 if ( rowIndex != -1 )
                 {
-                    selectedNode = filteredNodes.get( rowIndex );
-                    List<XExecutionNode> methodAncestors = getMethodAncestors( selectedNode );
+                    int nodeIndex = filteredNodes.getSourceIndex( rowIndex );
+                    selectedNode = allNodes.get( nodeIndex );
+                    List<XExecutionNode> methodAncestors = getMethodAncestors( nodeIndex );
 
                     MethodAncestorsTableModel ancestorsModel = (MethodAncestorsTableModel)methodAncestorsTable.getModel();
                     MethodParametersTableModel parametersModel = (MethodParametersTableModel)methodParametersTable.getModel();
@@ -252,6 +357,12 @@ public class MRIReportViewer
             }
         } );
 
+        displayStackTraces();
+        initCallTreeNavigation();
+    }
+
+    private void displayStackTraces()
+    {
         callStackTable.setModel( new ThreadStackTableModel( filteredNodes ) );
 
         DefaultTableCellRenderer rightJustifyRenderer = new DefaultTableCellRenderer();
@@ -260,8 +371,99 @@ public class MRIReportViewer
         callStackTable.getColumnModel().getColumn( 6 ).setCellRenderer( rightJustifyRenderer );
     }
 
-    private void initExecutionNodeList( List<XStackTrace> stackTraces )
+    /**
+     * Binds keys for moving around the call tree: alt+left selects the parent of the selected node, and alt+up and
+     * alt+down select its previous and next siblings.  Nodes hidden by the filters are skipped
+     */
+    private void initCallTreeNavigation()
     {
+        InputMap inputMap = callStackTable.getInputMap( JComponent.WHEN_FOCUSED );
+        ActionMap actionMap = callStackTable.getActionMap();
+
+        inputMap.put( KeyStroke.getKeyStroke( KeyEvent.VK_LEFT, InputEvent.ALT_DOWN_MASK ), "selectParentNode" );
+        inputMap.put( KeyStroke.getKeyStroke( KeyEvent.VK_UP, InputEvent.ALT_DOWN_MASK ), "selectPreviousSibling" );
+        inputMap.put( KeyStroke.getKeyStroke( KeyEvent.VK_DOWN, InputEvent.ALT_DOWN_MASK ), "selectNextSibling" );
+
+        actionMap.put( "selectParentNode", new AbstractAction()
+        {
+            public void actionPerformed( ActionEvent e )
+            {
+                int nodeIndex = getSelectedNodeIndex();
+                if ( nodeIndex != -1 )
+                {
+                    do
+                    {
+                        nodeIndex = callTreeIndex.getParent( nodeIndex );
+                    }
+                    while ( nodeIndex != -1 && filteredNodes.indexOfSource( nodeIndex ) < 0 );
+
+                    selectNode( nodeIndex );
+                }
+            }
+        } );
+        actionMap.put( "selectPreviousSibling", new AbstractAction()
+        {
+            public void actionPerformed( ActionEvent e )
+            {
+                int nodeIndex = getSelectedNodeIndex();
+                if ( nodeIndex != -1 )
+                {
+                    do
+                    {
+                        nodeIndex = callTreeIndex.getPreviousSibling( nodeIndex );
+                    }
+                    while ( nodeIndex != -1 && filteredNodes.indexOfSource( nodeIndex ) < 0 );
+
+                    selectNode( nodeIndex );
+                }
+            }
+        } );
+        actionMap.put( "selectNextSibling", new AbstractAction()
+        {
+            public void actionPerformed( ActionEvent e )
+            {
+                int nodeIndex = getSelectedNodeIndex();
+                if ( nodeIndex != -1 )
+                {
+                    do
+                    {
+                        nodeIndex = callTreeIndex.getNextSibling( nodeIndex );
+                    }
+                    while ( nodeIndex != -1 && filteredNodes.indexOfSource( nodeIndex ) < 0 );
+
+                    selectNode( nodeIndex );
+                }
+            }
+        } );
+    }
+
+    /**
+     * @return the index in allNodes of the selected row, or -1 if nothing is selected
+     */
+    private int getSelectedNodeIndex()
+    {
+        int selectedRow = callStackTable.getSelectedRow();
+        return selectedRow == -1 ? -1 : filteredNodes.getSourceIndex( selectedRow );
+    }
+
+    /**
+     * Selects and scrolls to the row of a node, if it is visible
+     * @param nodeIndex the index of the node in allNodes
+     */
+    private void selectNode( int nodeIndex )
+    {
+        int row = nodeIndex == -1 ? -1 : filteredNodes.indexOfSource( nodeIndex );
+        if ( row >= 0 )
+        {
+            callStackTable.setRowSelectionInterval( row, row );
+            callStackTable.scrollRectToVisible( callStackTable.getCellRect( row, 0, true ) );
+        }
+    }
+
+    private List<XExecutionNode> getExecutionNodeList( List<XStackTrace> stackTraces )
+    {
+        List<XExecutionNode> nodes = new ArrayList<XExecutionNode>();
+
         for ( XStackTrace stackTrace : stackTraces )
         {
             XExecutionNode threadRoot = new XExecutionNode();
@@ -270,27 +472,46 @@ public class MRIReportViewer
             threadRoot.setType( ExecutionNode.Type.ROOT.toString() );
             threadRoot.setName( stackTrace.getThreadId() );
             threadRoot.setTotalTime( stackTrace.getTotalTime() );
-            allNodes.add( threadRoot );
-            allNodes.addAll( stackTrace.getExecutionNodes() );
+            nodes.add( threadRoot );
+            nodes.addAll( stackTrace.getExecutionNodes() );
         }
 
-        filteredNodes = new FilteredList<XExecutionNode>( allNodes, new XExecutionNodeFilter() );
+        return nodes;
+    }
+
+    /**
+     * Adds stack traces to the bottom of the call stack table
+     * @param stackTraces the stack traces to add
+     */
+    private void appendStackTraces( List<XStackTrace> stackTraces )
+    {
+        int firstNode = allNodes.size();
+        int firstRow = filteredNodes.size();
+
+        allNodes.addAll( getExecutionNodeList( stackTraces ) );
+        callTreeIndex.addAll( allNodes, firstNode );
+
+        if ( filteredNodes.onElementsAppended( firstNode ) != 0 )
+        {
+            ( (ThreadStackTableModel)callStackTable.getModel() ).fireTableRowsInserted( firstRow,
+                    filteredNodes.size() - 1 );
+        }
     }
 
-    private List<XExecutionNode> getMethodAncestors( XExecutionNode node )
+    private List<XExecutionNode> getMethodAncestors( int nodeIndex )
     {
         final List<XExecutionNode> methodAncestors = new ArrayList<XExecutionNode>();
-        int index = allNodes.indexOf( node );
+        methodAncestors.add( allNodes.get( nodeIndex ) );
 
-        methodAncestors.add( node );
-        while ( node != null && node.getDepth() != 0 && index-- != 0 )
+        // stop at the thread row
+        for ( int index = callTreeIndex.getParent( nodeIndex ); index != -1; index = callTreeIndex.getParent( index ) )
         {
             XExecutionNode parent = allNodes.get( index );
-            if ( parent.getDepth() == node.getDepth() - 1 )
+            if ( parent.getDepth() < 1 )
             {
-                methodAncestors.add( 0, parent );
-                node = parent;
+                break;
             }
+            methodAncestors.add( 0, parent );
         }
 
         return methodAncestors;
@@ -302,9 +523,54 @@ public class MRIReportViewer
 
         DefaultTableCellRenderer rightJustifyRenderer = new DefaultTableCellRenderer();
         rightJustifyRenderer.setHorizontalAlignment( SwingConstants.RIGHT );
-        mainSummaryTable.getColumnModel().getColumn( 3 ).setCellRenderer( rightJustifyRenderer );
-        mainSummaryTable.getColumnModel().getColumn( 4 ).setCellRenderer( rightJustifyRenderer );
-        mainSummaryTable.getColumnModel().getColumn( 5 ).setCellRenderer( rightJustifyRenderer );
+        for ( int column = 3; column < mainSummaryTable.getColumnCount(); column++ )
+        {
+            mainSummaryTable.getColumnModel().getColumn( column ).setCellRenderer( rightJustifyRenderer );
+        }
+    }
+
+    private void displayCallPaths( List<XCallingContext> callingContexts )
+    {
+        callPathsTable.setModel( new CallPathsTableModel( callingContexts ) );
+
+        DefaultTableCellRenderer rightJustifyRenderer = new DefaultTableCellRenderer();
+        rightJustifyRenderer.setHorizontalAlignment( SwingConstants.RIGHT );
+        for ( int column = 4; column < callPathsTable.getColumnCount(); column++ )
+        {
+            callPathsTable.getColumnModel().getColumn( column ).setCellRenderer( rightJustifyRenderer );
+        }
+    }
+
+    private void displayComparison( MRIReportComparison comparison )
+    {
+        compareLabel.setText( "Compared with " + comparison.getBefore().getName() + ", net time " +
+                NumberFormats.nanosToMillis( comparison.getNetTimeBefore() ) + "ms before, " +
+                NumberFormats.nanosToMillis( comparison.getNetTimeAfter() ) + "ms after (" +
+                NumberFormats.nanosToMillisChange( comparison.getNetTimeAfter() - comparison.getNetTimeBefore() ) +
+                "ms)" );
+
+        methodDeltasTable.setModel( new MethodDeltasTableModel( comparison.getMethodDeltas() ) );
+        triggerDeltasTable.setModel( new TriggerDeltasTableModel( comparison.getTriggerDeltas() ) );
+
+        DefaultTableCellRenderer rightJustifyRenderer = new DefaultTableCellRenderer();
+        rightJustifyRenderer.setHorizontalAlignment( SwingConstants.RIGHT );
+        ChangeCellRenderer changeRenderer = new ChangeCellRenderer();
+
+        for ( int column = 3; column < methodDeltasTable.getColumnCount(); column++ )
+        {
+            methodDeltasTable.getColumnModel().getColumn( column ).setCellRenderer( rightJustifyRenderer );
+        }
+        for ( int column : MethodDeltasTableModel.CHANGE_COLUMNS )
+        {
+            methodDeltasTable.getColumnModel().getColumn( column ).setCellRenderer( changeRenderer );
+        }
+
+        triggerDeltasTable.getColumnModel().getColumn( 4 ).setCellRenderer( rightJustifyRenderer );
+        triggerDeltasTable.getColumnModel().getColumn( 5 ).setCellRenderer( rightJustifyRenderer );
+        for ( int column : TriggerDeltasTableModel.CHANGE_COLUMNS )
+        {
+            triggerDeltasTable.getColumnModel().getColumn( column ).setCellRenderer( changeRenderer );
+        }
     }
 
     private void displayTriggers( XEnoviaProfilerReport report )
@@ -337,7 +603,7 @@ public class MRIReportViewer
         triggerManagerInstantiationOverheadLabel.setText( getTriggerInstantiationOverhead(
                 report.getOverhead().getTimings() ) + "ms" );
 
-        int triggerManagerInvocations = 0;
+        long triggerManagerInvocations = 0;
         long triggerManagerTime = 0;
         List<XMethodSummary> methodSummaries = report.getMethodSummary();
 
@@ -508,6 +774,17 @@ public class MRIReportViewer
         methodAncestorsTable.setShowHorizontalLines( true );
         methodAncestorsTable.setShowVerticalLines( true );
         scrollPane4.setViewportView( methodAncestorsTable );
+        callPathsPanel = new JPanel();
+        callPathsPanel.setLayout( new GridLayoutManager( 1, 1, new Insets( 0, 0, 0, 0 ), -1, -1 ) );
+        mainTabbedPane.addTab( "Call Paths", callPathsPanel );
+        final JScrollPane scrollPane8 = new JScrollPane();
+        callPathsPanel.add( scrollPane8,
+                new GridConstraints( 0, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH,
+                        GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW,
+                        GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, null, null,
+                        0, false ) );
+        callPathsTable = new JTable();
+        scrollPane8.setViewportView( callPathsTable );
         triggersPanel = new JPanel();
         triggersPanel.setLayout( new GridLayoutManager( 1, 1, new Insets( 0, 0, 0, 0 ), -1, -1 ) );
         mainTabbedPane.addTab( "Triggers", triggersPanel );
@@ -646,6 +923,37 @@ public class MRIReportViewer
                         0, false ) );
         missingTriggerTable = new JTable();
         scrollPane7.setViewportView( missingTriggerTable );
+        comparePanel = new JPanel();
+        comparePanel.setLayout( new GridLayoutManager( 2, 1, new Insets( 0, 0, 0, 0 ), -1, -1 ) );
+        mainTabbedPane.addTab( "Compare", comparePanel );
+        final JPanel panel2 = new JPanel();
+        panel2.setLayout( new FlowLayout( FlowLayout.LEFT, 5, 5 ) );
+        comparePanel.add( panel2,
+                new GridConstraints( 0, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH,
+                        GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW,
+                        GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false ) );
+        compareButton = new JButton();
+        compareButton.setText( "Compare With Baseline..." );
+        compareButton.setMnemonic( 'B' );
+        compareButton.setDisplayedMnemonicIndex( 13 );
+        panel2.add( compareButton );
+        compareLabel = new JLabel();
+        compareLabel.setText( "" );
+        panel2.add( compareLabel );
+        final JTabbedPane tabbedPane1 = new JTabbedPane();
+        comparePanel.add( tabbedPane1,
+                new GridConstraints( 1, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH,
+                        GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW,
+                        GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, null,
+                        new Dimension( 200, 200 ), null, 0, false ) );
+        final JScrollPane scrollPane9 = new JScrollPane();
+        tabbedPane1.addTab( "Methods", scrollPane9 );
+        methodDeltasTable = new JTable();
+        scrollPane9.setViewportView( methodDeltasTable );
+        final JScrollPane scrollPane10 = new JScrollPane();
+        tabbedPane1.addTab( "Triggers", scrollPane10 );
+        triggerDeltasTable = new JTable();
+        scrollPane10.setViewportView( triggerDeltasTable );
     }
 
     /**
@@ -654,8 +962,174 @@ public class MRIReportViewer
     public JComponent $$$getRootComponent$$$()
     { return mainPanel; }
 
+    private class ReportLoadListener implements MRIReportLoader.Listener
+    {
+        private final File file;
+
+        ReportLoadListener( File file )
+        {
+            this.file = file;
+        }
+
+        public void sectionsLoaded( XEnoviaProfilerReport report )
+        {
+            displayReport( report );
+        }
+
+        public void stackTracesLoaded( List<XStackTrace> stackTraces )
+        {
+            appendStackTraces( stackTraces );
+        }
+
+        public void loadFinished( XEnoviaProfilerReport report )
+        {
+            callStackTableFilter.indexTimings();
+            frame.setTitle( "MRI - Matrix Runtime Inspector - " + file.getName() );
+        }
+
+        public void loadFailed( Throwable cause )
+        {
+            cause.printStackTrace();
+            frame.setTitle( "MRI - Matrix Runtime Inspector" );
+            JOptionPane.showMessageDialog( frame, "Unable to load " + file.getName() + ": " + cause.getMessage(),
+                    "MRI - Matrix Runtime Inspector", JOptionPane.ERROR_MESSAGE );
+        }
+    }
+
+    /**
+     * Reads every execution node of a binary report once, off the event dispatch thread, to filter the call stack
+     * and index the call tree and the timings.  The nodes are read from the memory mapped file and dropped as they
+     * are indexed, and the call stack is shown when the indexing is done
+     */
+    private class StackTraceIndexer extends SwingWorker<int[], Void>
+    {
+        private final File file;
+        private final List<XExecutionNode> nodes;
+        private final XExecutionNodeFilter filter = callStackTableFilter.reset();
+        private CallTreeIndex treeIndex;
+        private TimingIndex timingIndex;
+
+        StackTraceIndexer( File file, List<XExecutionNode> nodes )
+        {
+            this.file = file;
+            this.nodes = nodes;
+        }
+
+        @Override
+        protected int[] doInBackground()
+        {
+            int size = nodes.size();
+            int[] accepted = new int[size];
+            int acceptedCount = 0;
+            CallTreeIndex index = new CallTreeIndex();
+
+            for ( int i = 0; i < size; i++ )
+            {
+                XExecutionNode node = nodes.get( i );
+                if ( filter.accept( node ) )
+                {
+                    accepted[acceptedCount++] = i;
+                }
+                index.add( node.getDepth() );
+            }
+
+            treeIndex = index;
+            timingIndex = new TimingIndex( nodes, FILTER_MAX_MILLIS );
+            return Arrays.copyOf( accepted, acceptedCount );
+        }
+
+        @Override
+        protected void done()
+        {
+            // another report has been opened since, and this one's reader has been closed
+            if ( file != reportFile )
+            {
+                return;
+            }
+
+            try
+            {
+                int[] accepted = get();
+                allNodes = nodes;
+                callTreeIndex = treeIndex;
+                filteredNodes = new FilteredList<XExecutionNode>( nodes, filter, accepted );
+                displayStackTraces();
+                frame.setTitle( "MRI - Matrix Runtime Inspector - " + file.getName() );
+
+                // catch up with any change made to the filter settings while indexing
+                callStackTableFilter.indexed( filter, timingIndex );
+                if ( !filter.hasSameSettings( new XExecutionNodeFilter() ) )
+                {
+                    callStackTableFilter.filter();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                e.printStackTrace();
+            }
+            catch ( ExecutionException e )
+            {
+                e.getCause().printStackTrace();
+                frame.setTitle( "MRI - Matrix Runtime Inspector" );
+                JOptionPane.showMessageDialog( frame, "Unable to load " + file.getName() + ": " +
+                        e.getCause().getMessage(), "MRI - Matrix Runtime Inspector", JOptionPane.ERROR_MESSAGE );
+            }
+        }
+    }
+
+    /**
+     * Compares the report being viewed with a baseline report.  Both reports are read again from their files, off
+     * the event dispatch thread, as they may be too large to hold in memory together
+     */
+    private class ReportComparer extends SwingWorker<MRIReportComparison, Void>
+    {
+        private final File baseline;
+        private final File file = reportFile;
+
+        ReportComparer( File baseline )
+        {
+            this.baseline = baseline;
+        }
+
+        protected MRIReportComparison doInBackground() throws IOException
+        {
+            return MRIReportComparison.compare( baseline, file );
+        }
+
+        protected void done()
+        {
+            compareButton.setEnabled( true );
+            try
+            {
+                displayComparison( get() );
+            }
+            catch ( InterruptedException e )
+            {
+                compareLabel.setText( "" );
+            }
+            catch ( ExecutionException e )
+            {
+                e.getCause().printStackTrace();
+                compareLabel.setText( "" );
+                JOptionPane.showMessageDialog( frame, "Unable to compare with " + baseline.getName() + ": " +
+                        e.getCause().getMessage(), "MRI - Matrix Runtime Inspector", JOptionPane.ERROR_MESSAGE );
+            }
+        }
+    }
+
+    /**
+     * The call stack filter.  It holds a copy of the filter settings taken on the event dispatch thread, so it can be
+     * applied on other threads while the user goes on changing them
+     */
     private class XExecutionNodeFilter implements Filter<XExecutionNode>
     {
+        private final boolean api = apiCheckBox.isSelected();
+        private final boolean triggerManager = triggerManagerCheckBox.isSelected();
+        private final boolean jpo = jpoCheckBox.isSelected();
+        private final boolean jsp = jspCheckBox.isSelected();
+        private final boolean triggers = triggersCheckBox.isSelected();
+        private final int minimumMillis = timingSlider.getValue();
+
         // this method references deprecated enum values on purpose
         // for backward compatibility only
         @SuppressWarnings( "deprecation" )
@@ -669,21 +1143,21 @@ public class MRIReportViewer
                 case LG_CNS_API:
                 case MX_API:
                 case API: // for backward compatibility with older version
-                    accept = apiCheckBox.isSelected();
+                    accept = api;
                     break;
                 case TRIGGER_MANAGER:
-                    accept = triggerManagerCheckBox.isSelected();
+                    accept = triggerManager;
                     break;
                 case JPO:
-                    accept = jpoCheckBox.isSelected();
+                    accept = jpo;
                     break;
                 case JSP:
-                    accept = jspCheckBox.isSelected();
+                    accept = jsp;
                     break;
                 case JAVA_TRIGGER:
                 case TCL_TRIGGER:
                 case TRIGGER: // for backward compatibility with older version
-                    accept = triggersCheckBox.isSelected();
+                    accept = triggers;
                     break;
                 default:
                     accept = true;
@@ -692,111 +1166,242 @@ public class MRIReportViewer
             // the timing filter, but always keep root nodes
             if ( accept && type != ExecutionNode.Type.ROOT )
             {
-                accept = (value.getAdjustedTime() / 1000000) >= timingSlider.getValue();
+                accept = (value.getAdjustedTime() / 1000000) >= minimumMillis;
             }
 
             return accept;
         }
+
+        /**
+         * @param filter another filter
+         * @return true if both filters accept the same types of node, so they differ only in their timing threshold
+         */
+        boolean hasSameTypes( XExecutionNodeFilter filter )
+        {
+            return api == filter.api && triggerManager == filter.triggerManager && jpo == filter.jpo &&
+                   jsp == filter.jsp && triggers == filter.triggers;
+        }
+
+        /**
+         * @param filter another filter
+         * @return true if both filters accept the same nodes
+         */
+        boolean hasSameSettings( XExecutionNodeFilter filter )
+        {
+            return hasSameTypes( filter ) && minimumMillis == filter.minimumMillis;
+        }
     }
 
+    /**
+     * Applies changes to the call stack filter settings.  Changes to the timing threshold alone are applied
+     * incrementally: raising it only rechecks the visible rows, and lowering it only checks the nodes in the
+     * timing index between the two thresholds.  Any other change rescans every node, in parallel off the event
+     * dispatch thread when there are enough of them.  Either way the table gets a single change event
+     */
     private class CallStackTableFilter
     {
-        private void filter()
+        /**
+         * The number of nodes below which a rescan is done on the event dispatch thread
+         */
+        private static final int PARALLEL_THRESHOLD = 100000;
+
+        private final int threads = Runtime.getRuntime().availableProcessors();
+        private final ExecutorService executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
         {
-            int selectedRow = callStackTable.getSelectedRow();
-            if ( selectedRow != -1 )
+            public Thread newThread( Runnable r )
             {
-                // try to keep track of the selected item in the table. there
-                // is a bug in one of these methods where it sometimes selects
-                // the wrong row, but I'm now quite sure why at this point
-                String parentThreadName = getParentThreadName( selectedRow );
-                int orderOfSelectedRow = getOrderOfSelectedRow( selectedRow );
+                Thread thread = new Thread( r, "Call Stack Filter" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
 
-                apply();
+        private XExecutionNodeFilter current;
+        private TimingIndex timingIndex;
+        private Rescan pending;
 
-                int newSelectedRow = getNewSelectedRowIndex( parentThreadName, orderOfSelectedRow );
-                callStackTable.setRowSelectionInterval( newSelectedRow, newSelectedRow );
-            }
-            else
+        /**
+         * Starts filtering a new list of nodes
+         * @return the filter for the current settings
+         */
+        private XExecutionNodeFilter reset()
+        {
+            if ( pending != null )
             {
-                apply();
+                pending.cancel( false );
+                pending = null;
             }
+            timingIndex = null;
+            current = new XExecutionNodeFilter();
+            return current;
         }
 
-        private int getNewSelectedRowIndex( String parentThreadName, int orderOfSelectedRow )
+        /**
+         * Indexes the nodes by time once they have all been loaded, which allows lowering the timing threshold
+         * without a rescan
+         */
+        private void indexTimings()
         {
-            int newSelectedRow = 0;
+            timingIndex = new TimingIndex( allNodes, FILTER_MAX_MILLIS );
+        }
 
-            boolean startLooking = false;
+        /**
+         * Takes on the result of indexing a list of nodes in the background
+         * @param filter the filter the view was built with
+         * @param timingIndex the nodes indexed by time
+         */
+        private void indexed( XExecutionNodeFilter filter, TimingIndex timingIndex )
+        {
+            this.current = filter;
+            this.timingIndex = timingIndex;
+        }
 
-            for ( int i = 0; i < filteredNodes.size(); i++ )
-            {
-                XExecutionNode n = filteredNodes.get( i );
+        private void filter()
+        {
+            XExecutionNodeFilter filter = new XExecutionNodeFilter();
 
-                // looking for the thread that contains the selected execution node. once we
-                // find that, then we can start looking at the order of each node in that
-                // thread to determine if it should be selected in the UI or not
-                if ( n.getDepth() == -1 && n.getName().equals( parentThreadName ) )
+            if ( pending == null && filter.hasSameTypes( current ) )
+            {
+                if ( filter.minimumMillis >= current.minimumMillis )
                 {
-                    startLooking = true;
+                    int selectedNodeIndex = getSelectedNodeIndex();
+                    filteredNodes.narrow( filter );
+                    applied( filter, selectedNodeIndex );
+                    return;
                 }
-
-                if ( startLooking )
+                else if ( timingIndex != null )
                 {
-                    if ( n.getOrder() == orderOfSelectedRow )
-                    {
-                        // the row is still in the filtered view - select it
-                        newSelectedRow = i;
-                        break;
-                    }
-                    else if ( n.getOrder() > orderOfSelectedRow )
-                    {
-                        // the row is no longer in view. select the closest visible previous row
-                        newSelectedRow = i - 1;
-                        break;
-                    }
+                    int selectedNodeIndex = getSelectedNodeIndex();
+                    filteredNodes.widen( filter, timingIndex.getNodes(), timingIndex.getStart( filter.minimumMillis ),
+                            timingIndex.getStart( current.minimumMillis ) );
+                    applied( filter, selectedNodeIndex );
+                    return;
                 }
             }
 
-            return newSelectedRow;
+            if ( pending != null )
+            {
+                // superseded by this change
+                pending.cancel( false );
+                pending = null;
+            }
+
+            if ( allNodes.size() < PARALLEL_THRESHOLD )
+            {
+                int selectedNodeIndex = getSelectedNodeIndex();
+                filteredNodes.setFilter( filter );
+                applied( filter, selectedNodeIndex );
+            }
+            else
+            {
+                // while a report is loading, the nodes are still being added to the list
+                List<XExecutionNode> nodes = timingIndex == null && allNodes instanceof ArrayList ?
+                        new ArrayList<XExecutionNode>( allNodes ) : allNodes;
+                pending = new Rescan( filter, nodes );
+                pending.execute();
+            }
         }
 
-        private void apply()
+        private void applied( XExecutionNodeFilter filter, int selectedNodeIndex )
         {
-            filteredNodes.onFilterModify();
+            current = filter;
             ((ThreadStackTableModel)callStackTable.getModel()).fireTableDataChanged();
+
+            if ( selectedNodeIndex != -1 && filteredNodes.size() != 0 )
+            {
+                // keep the selected node selected, or select the closest visible previous row if it's now hidden
+                int newSelectedRow = filteredNodes.indexOfSource( selectedNodeIndex );
+                if ( newSelectedRow < 0 )
+                {
+                    newSelectedRow = Math.max( -newSelectedRow - 2, 0 );
+                }
+                callStackTable.setRowSelectionInterval( newSelectedRow, newSelectedRow );
+            }
         }
 
-        private int getOrderOfSelectedRow( int selectedRow )
+        /**
+         * Scans the nodes in pieces on the executor and applies the result when every piece is done
+         */
+        private class Rescan extends SwingWorker<int[], Void>
         {
-            int orderOfSelectedRow;
-            try
+            private final XExecutionNodeFilter filter;
+            private final List<XExecutionNode> nodes;
+            private final int size;
+
+            Rescan( XExecutionNodeFilter filter, List<XExecutionNode> nodes )
             {
-                orderOfSelectedRow = (Integer)callStackTable.getModel().getValueAt( selectedRow, 0 );
+                this.filter = filter;
+                this.nodes = nodes;
+                this.size = nodes.size();
             }
-            catch ( ClassCastException e )
+
+            @Override
+            protected int[] doInBackground() throws Exception
             {
-                // no value because it's a thread id
-                orderOfSelectedRow = -1;
-            }
+                int pieces = threads * 4;
+                int pieceSize = ( size + pieces - 1 ) / pieces;
+                List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
 
-            return orderOfSelectedRow;
-        }
+                for ( int from = 0; from < size; from += pieceSize )
+                {
+                    final int fromIndex = from;
+                    final int toIndex = Math.min( from + pieceSize, size );
+                    futures.add( executor.submit( new Callable<int[]>()
+                    {
+                        public int[] call()
+                        {
+                            return FilteredList.scan( nodes, filter, fromIndex, toIndex );
+                        }
+                    } ) );
+                }
 
-        private String getParentThreadName( int selectedRow )
-        {
-            // find the index of the parent thread for the selected item as the order resets with each
-            String parentThreadName = null;
-            for ( int i = selectedRow; i != -1; i-- )
-            {
-                Object order = callStackTable.getModel().getValueAt( i, 0 );
-                if ( order instanceof String )
+                List<int[]> results = new ArrayList<int[]>();
+                int accepted = 0;
+                for ( Future<int[]> future : futures )
                 {
-                    parentThreadName = (String)callStackTable.getModel().getValueAt( i, 1 );
+                    if ( isCancelled() )
+                    {
+                        return null;
+                    }
+                    int[] result = future.get();
+                    results.add( result );
+                    accepted += result.length;
                 }
+
+                int[] indices = new int[accepted];
+                int position = 0;
+                for ( int[] result : results )
+                {
+                    System.arraycopy( result, 0, indices, position, result.length );
+                    position += result.length;
+                }
+                return indices;
             }
 
-            return parentThreadName;
+            @Override
+            protected void done()
+            {
+                if ( pending != this || isCancelled() )
+                {
+                    return;
+                }
+                pending = null;
+
+                try
+                {
+                    int selectedNodeIndex = getSelectedNodeIndex();
+                    filteredNodes.setFilter( filter, get(), size );
+                    applied( filter, selectedNodeIndex );
+                }
+                catch( InterruptedException e )
+                {
+                    e.printStackTrace();
+                }
+                catch( ExecutionException e )
+                {
+                    e.getCause().printStackTrace();
+                }
+            }
         }
     }
-}
\ No newline at end of file
+}
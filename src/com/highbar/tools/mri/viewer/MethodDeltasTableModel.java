@@ -0,0 +1,92 @@
+package com.highbar.tools.mri.viewer;
+
+import com.highbar.tools.mri.monitor.ExecutionNode;
+import com.highbar.tools.mri.report.MRIReportComparison;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.List;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   The table that compares each method of the report with a baseline report: its invocations, net time and
+ *   total time in each, and how much they changed.  The methods whose net time grew the most are listed first
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class MethodDeltasTableModel extends AbstractTableModel
+{
+    /**
+     * The columns holding a change, which are coloured by whether it is an increase or a decrease
+     */
+    static final int[] CHANGE_COLUMNS = { 5, 8, 9, 12 };
+
+    private final List<MRIReportComparison.MethodDelta> methodDeltas;
+
+    public MethodDeltasTableModel( List<MRIReportComparison.MethodDelta> methodDeltas )
+    {
+        this.methodDeltas = methodDeltas;
+    }
+
+    public int getRowCount()
+    {
+        return methodDeltas.size();
+    }
+
+    public int getColumnCount()
+    {
+        return 13;
+    }
+
+    public String getColumnName( int columnIndex )
+    {
+        switch ( columnIndex )
+        {
+            case 0: return "Type";
+            case 1: return "Name";
+            case 2: return "Method";
+            case 3: return "Invocations Before";
+            case 4: return "Invocations After";
+            case 5: return "Invocations Change";
+            case 6: return "Net Time Before (ms)";
+            case 7: return "Net Time After (ms)";
+            case 8: return "Net Time Change (ms)";
+            case 9: return "Net Time Change";
+            case 10: return "Total Time Before (ms)";
+            case 11: return "Total Time After (ms)";
+            case 12: return "Total Time Change (ms)";
+            default:
+                throw new IllegalArgumentException( "Method Deltas Table: Column Index out of Bounds" );
+        }
+    }
+
+    public Object getValueAt( int rowIndex, int columnIndex )
+    {
+        MRIReportComparison.MethodDelta d = methodDeltas.get( rowIndex );
+        switch ( columnIndex )
+        {
+            case 0: return ExecutionNode.Type.valueOf( d.getType() ).toDisplayString();
+            case 1: return d.getName();
+            case 2: return d.getMethod();
+            case 3: return d.getInvocationsBefore();
+            case 4: return d.getInvocationsAfter();
+            case 5: return ( d.getInvocationChange() > 0 ? "+" : "" ) + d.getInvocationChange();
+            case 6: return NumberFormats.nanosToMillis( d.getNetTimeBefore() );
+            case 7: return NumberFormats.nanosToMillis( d.getNetTimeAfter() );
+            case 8: return NumberFormats.nanosToMillisChange( d.getNetTimeChange() );
+            case 9: return d.isAdded() ? "+new" : ( d.isRemoved() ? "-gone" :
+                    NumberFormats.percentChange( d.getNetTimeChangePercent() ) );
+            case 10: return NumberFormats.nanosToMillis( d.getTotalTimeBefore() );
+            case 11: return NumberFormats.nanosToMillis( d.getTotalTimeAfter() );
+            case 12: return NumberFormats.nanosToMillisChange( d.getTotalTimeChange() );
+            default:
+                throw new IllegalArgumentException( "Method Deltas Table: Column Index out of Bounds" );
+        }
+    }
+}
@@ -10,8 +10,8 @@ import java.util.List;
  * <dl>
  * <dt><b>Description:</b>
  * <dd>
- *   The table that displays the method invocation summary, including number of executions and total
- *   invocation time
+ *   The table that displays the method invocation summary, including number of executions, total
+ *   invocation time and the percentiles of the elapsed time of an invocation
  * </dd>
  * </dt>
  * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
@@ -36,7 +36,7 @@ class MethodSummaryTableModel  extends AbstractTableModel
 
     public int getColumnCount()
     {
-        return 6;
+        return 11;
     }
 
     public String getColumnName( int columnIndex )
@@ -55,6 +55,16 @@ class MethodSummaryTableModel  extends AbstractTableModel
                 return "Total Time (ms)";
             case 5:
                 return "Avg. Time (ms)";
+            case 6:
+                return "p50 (ms)";
+            case 7:
+                return "p90 (ms)";
+            case 8:
+                return "p99 (ms)";
+            case 9:
+                return "p99.9 (ms)";
+            case 10:
+                return "Max. Time (ms)";
             default:
                 throw new IllegalArgumentException( "Main Summary Table: Column Index out of Bounds" );
         }
@@ -77,6 +87,16 @@ class MethodSummaryTableModel  extends AbstractTableModel
                 return NumberFormats.nanosToMillis( m.getTotalTime() );
             case 5:
                 return NumberFormats.nanosToMillis( m.getAverageTime() );
+            case 6:
+                return NumberFormats.nanosToMillis( m.getP50() );
+            case 7:
+                return NumberFormats.nanosToMillis( m.getP90() );
+            case 8:
+                return NumberFormats.nanosToMillis( m.getP99() );
+            case 9:
+                return NumberFormats.nanosToMillis( m.getP999() );
+            case 10:
+                return NumberFormats.nanosToMillis( m.getMaxTime() );
             default:
                 throw new IllegalArgumentException( "Main Summary Table: Column Index out of Bounds" );
         }
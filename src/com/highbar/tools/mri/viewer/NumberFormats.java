@@ -21,4 +21,20 @@ public class NumberFormats
     {
         return new DecimalFormat( "0.00" ).format( nanos / 1000000d );
     }
+
+    /**
+     * @return the change in milliseconds, signed so an increase reads as one
+     */
+    public static String nanosToMillisChange( double nanos )
+    {
+        return ( nanos > 0 ? "+" : "" ) + nanosToMillis( nanos );
+    }
+
+    /**
+     * @return the change as a signed percentage
+     */
+    public static String percentChange( double percent )
+    {
+        return ( percent > 0 ? "+" : "" ) + new DecimalFormat( "0.0" ).format( percent ) + "%";
+    }
 }
@@ -0,0 +1,100 @@
+package com.highbar.tools.mri.viewer;
+
+import com.highbar.tools.mri.jaxb.XExecutionNode;
+import com.highbar.tools.mri.monitor.ExecutionNode;
+
+import java.util.List;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   Groups the execution nodes by their net time in whole milliseconds, the unit of the call stack's timing
+ *   filter.  When the timing threshold is lowered, the nodes that may become visible are exactly those in the
+ *   buckets between the new and old thresholds, so they can be found without scanning every node.
+ * <p/>
+ *   The index is built with a counting sort, one pass to size the buckets and one to fill them.  Thread rows are
+ *   left out as the timing filter doesn't apply to them.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class TimingIndex
+{
+    private final int maxMillis;
+    private final int[] bucketStarts;
+    private final int[] nodes;
+
+    /**
+     * Indexes a list of execution nodes
+     * @param executionNodes the nodes to index
+     * @param maxMillis the highest threshold the filter uses, longer times share its bucket
+     */
+    public TimingIndex( List<XExecutionNode> executionNodes, int maxMillis )
+    {
+        this.maxMillis = maxMillis;
+        this.bucketStarts = new int[ maxMillis + 2 ];
+
+        int size = executionNodes.size();
+        int[] buckets = new int[size];
+        int indexed = 0;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            buckets[i] = getBucket( executionNodes.get( i ) );
+            if ( buckets[i] != -1 )
+            {
+                bucketStarts[ buckets[i] + 1 ]++;
+                indexed++;
+            }
+        }
+
+        for ( int i = 1; i < bucketStarts.length; i++ )
+        {
+            bucketStarts[i] += bucketStarts[ i - 1 ];
+        }
+
+        int[] next = bucketStarts.clone();
+        nodes = new int[indexed];
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( buckets[i] != -1 )
+            {
+                nodes[ next[ buckets[i] ]++ ] = i;
+            }
+        }
+    }
+
+    /**
+     * @return the indices of the indexed nodes, ordered by net time in milliseconds
+     */
+    public int[] getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * @param millis a timing threshold
+     * @return the position in getNodes() of the first node whose net time is at least the threshold
+     */
+    public int getStart( int millis )
+    {
+        return bucketStarts[ Math.max( 0, Math.min( millis, maxMillis + 1 ) ) ];
+    }
+
+    private int getBucket( XExecutionNode node )
+    {
+        if ( ExecutionNode.Type.ROOT.toString().equals( node.getType() ) )
+        {
+            return -1;
+        }
+
+        // the same rounding as the filter
+        long millis = node.getAdjustedTime() / 1000000;
+        return millis < 0 ? -1 : (int)Math.min( millis, maxMillis );
+    }
+}
@@ -0,0 +1,90 @@
+package com.highbar.tools.mri.viewer;
+
+import com.highbar.tools.mri.report.MRIReportComparison;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.List;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   The table that compares the invocations of each trigger in the report with a baseline report
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+class TriggerDeltasTableModel extends AbstractTableModel
+{
+    /**
+     * The columns holding a change, which are coloured by whether it is an increase or a decrease
+     */
+    static final int[] CHANGE_COLUMNS = { 6 };
+
+    private final List<MRIReportComparison.TriggerDelta> triggerDeltas;
+
+    public TriggerDeltasTableModel( List<MRIReportComparison.TriggerDelta> triggerDeltas )
+    {
+        this.triggerDeltas = triggerDeltas;
+    }
+
+    public int getRowCount()
+    {
+        return triggerDeltas.size();
+    }
+
+    public int getColumnCount()
+    {
+        return 9;
+    }
+
+    public String getColumnName( int columnIndex )
+    {
+        switch ( columnIndex )
+        {
+            case 0: return "Trigger Name";
+            case 1: return "Trigger Revision";
+            case 2: return "Program";
+            case 3: return "Method";
+            case 4: return "Invocations Before";
+            case 5: return "Invocations After";
+            case 6: return "Invocations Change";
+            case 7: return "Before";
+            case 8: return "After";
+            default:
+                throw new IllegalArgumentException( "Trigger Deltas Table: Column Index out of Bounds" );
+        }
+    }
+
+    public Object getValueAt( int rowIndex, int columnIndex )
+    {
+        MRIReportComparison.TriggerDelta t = triggerDeltas.get( rowIndex );
+        switch ( columnIndex )
+        {
+            case 0: return t.getName();
+            case 1: return t.getRevision();
+            case 2: return t.getProgram();
+            case 3: return t.getMethod();
+            case 4: return t.getInvocationsBefore();
+            case 5: return t.getInvocationsAfter();
+            case 6: return ( t.getInvocationChange() > 0 ? "+" : "" ) + t.getInvocationChange();
+            case 7: return getStatus( t.getInvocationsBefore(), t.isActiveBefore() );
+            case 8: return getStatus( t.getInvocationsAfter(), t.isActiveAfter() );
+            default:
+                throw new IllegalArgumentException( "Trigger Deltas Table: Column Index out of Bounds" );
+        }
+    }
+
+    private String getStatus( long invocations, boolean active )
+    {
+        if ( invocations == 0 )
+        {
+            return "";
+        }
+        return active ? "Active" : "Inactive";
+    }
+}
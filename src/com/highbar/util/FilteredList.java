@@ -1,14 +1,22 @@
 package com.highbar.util;
 
 import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ArrayList;
 
 /**
  * <dl>
  * <dt><b>Description:</b>
  * <dd>
  *   List implementation that enables custom content filtering
+ * <p/>
+ *   The view keeps the indices of the accepted elements in the underlying list rather than the elements
+ *   themselves, so an element's position in either list can be found from the other.
+ * <p/>
+ *   Besides re-scanning the whole list, the view can be updated incrementally when a filter changes: a filter
+ *   that accepts a subset of what the previous one did only needs the visible elements checked, and a filter that
+ *   accepts a superset only needs the candidates that could have been added.  Large lists can be scanned in
+ *   pieces on other threads and the results applied in one step.
  * </dd>
  * </dt>
  * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
@@ -20,7 +28,8 @@ import java.util.ArrayList;
 public class FilteredList<T> extends AbstractList<T> implements FilterModifiedListener
 {
     private List<T> unfilteredList;
-    private List<T> filteredList;
+    private int[] sourceIndices = new int[16];
+    private int size = 0;
     private Filter<T> filter;
 
     /**
@@ -32,20 +41,55 @@ public class FilteredList<T> extends AbstractList<T> implements FilterModifiedLi
     {
         this.unfilteredList = list;
         this.filter = filter;
-        this.filteredList = new ArrayList<T>();
         onFilterModify();
     }
 
+    /**
+     * Creates a filtered view of the specified list from the result of scanning it, without scanning it again
+     * @param list the list for which the filter is to be applied
+     * @param filter the filter implementation
+     * @param acceptedIndices the indices of the accepted elements in increasing order, as returned by scan()
+     */
+    public FilteredList( List<T> list, Filter<T> filter, int[] acceptedIndices )
+    {
+        this.unfilteredList = list;
+        setFilter( filter, acceptedIndices, list.size() );
+    }
+
     @Override
     public T get( int index )
     {
-        return filteredList.get( index );
+        return unfilteredList.get( getSourceIndex( index ) );
     }
 
     @Override
     public int size()
     {
-        return filteredList.size();
+        return size;
+    }
+
+    /**
+     * @param index an index in this list
+     * @return the index of the element in the underlying list
+     */
+    public int getSourceIndex( int index )
+    {
+        if ( index < 0 || index >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+        }
+        return sourceIndices[index];
+    }
+
+    /**
+     * Finds an element of the underlying list in this list
+     * @param sourceIndex the index of the element in the underlying list
+     * @return the index of the element in this list if it passed through the filter, otherwise
+     *         (-(insertion point) - 1) where the insertion point is the index of the next element that did
+     */
+    public int indexOfSource( int sourceIndex )
+    {
+        return Arrays.binarySearch( sourceIndices, 0, size, sourceIndex );
     }
 
     /**
@@ -53,13 +97,157 @@ public class FilteredList<T> extends AbstractList<T> implements FilterModifiedLi
      */
     public void onFilterModify()
     {
-        filteredList.clear();
-        for ( T element : unfilteredList )
+        size = 0;
+        filter( 0 );
+    }
+
+    /**
+     * Replaces the filter and updates the view by scanning the whole underlying list
+     * @param filter the new filter
+     */
+    public void setFilter( Filter<T> filter )
+    {
+        this.filter = filter;
+        onFilterModify();
+    }
+
+    /**
+     * Replaces the filter with one that accepts no element the current filter rejects.  Only the elements
+     * currently in the view are checked
+     * @param filter the new filter
+     */
+    public void narrow( Filter<T> filter )
+    {
+        this.filter = filter;
+
+        int accepted = 0;
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( filter.accept( unfilteredList.get( sourceIndices[i] ) ) )
+            {
+                sourceIndices[accepted++] = sourceIndices[i];
+            }
+        }
+        size = accepted;
+    }
+
+    /**
+     * Replaces the filter with one that accepts every element the current filter accepts.  Only the given
+     * candidates are checked, so they must include every element the new filter accepts that the old one didn't
+     * @param filter the new filter
+     * @param candidates an array holding the indices in the underlying list of the candidates, in any order
+     * @param fromIndex the index of the first candidate in the array
+     * @param toIndex the index after the last candidate in the array
+     */
+    public void widen( Filter<T> filter, int[] candidates, int fromIndex, int toIndex )
+    {
+        this.filter = filter;
+
+        int[] added = new int[ toIndex - fromIndex ];
+        int addedCount = 0;
+        for ( int i = fromIndex; i < toIndex; i++ )
+        {
+            if ( indexOfSource( candidates[i] ) < 0 && filter.accept( unfilteredList.get( candidates[i] ) ) )
+            {
+                added[addedCount++] = candidates[i];
+            }
+        }
+
+        if ( addedCount != 0 )
+        {
+            Arrays.sort( added, 0, addedCount );
+            sourceIndices = merge( sourceIndices, size, added, addedCount );
+            size += addedCount;
+        }
+    }
+
+    /**
+     * Replaces the filter and the view with the result of scanning the underlying list.  Elements appended
+     * after the scanned range are checked against the new filter
+     * @param filter the new filter
+     * @param acceptedIndices the indices of the accepted elements in increasing order, as returned by scan()
+     * @param scannedSize the number of elements of the underlying list that were scanned
+     */
+    public void setFilter( Filter<T> filter, int[] acceptedIndices, int scannedSize )
+    {
+        this.filter = filter;
+        this.sourceIndices = acceptedIndices.length == 0 ? new int[16] : acceptedIndices;
+        this.size = acceptedIndices.length;
+        filter( scannedSize );
+    }
+
+    /**
+     * Finds the elements of a list accepted by a filter.  This doesn't touch the view, so a large list can be
+     * scanned in pieces on other threads, and the view replaced with setFilter( filter, acceptedIndices, size )
+     * @param list the list to scan
+     * @param filter the filter
+     * @param fromIndex the index of the first element to check
+     * @param toIndex the index after the last element to check
+     * @return the indices of the accepted elements in increasing order
+     */
+    public static <T> int[] scan( List<T> list, Filter<T> filter, int fromIndex, int toIndex )
+    {
+        int[] accepted = new int[ toIndex - fromIndex ];
+        int acceptedCount = 0;
+        for ( int i = fromIndex; i < toIndex; i++ )
         {
-            if ( filter.accept( element ) )
+            if ( filter.accept( list.get( i ) ) )
             {
-                filteredList.add( element );
+                accepted[acceptedCount++] = i;
             }
         }
+        return Arrays.copyOf( accepted, acceptedCount );
+    }
+
+    /**
+     * Updates the view after elements have been appended to the underlying list.  Only the new elements are
+     * checked against the filter
+     * @param fromIndex the index in the underlying list of the first appended element
+     * @return the number of appended elements that passed through the filter
+     */
+    public int onElementsAppended( int fromIndex )
+    {
+        int oldSize = size;
+        filter( fromIndex );
+        return size - oldSize;
+    }
+
+    private void filter( int fromIndex )
+    {
+        int unfilteredSize = unfilteredList.size();
+        for ( int i = fromIndex; i < unfilteredSize; i++ )
+        {
+            if ( filter.accept( unfilteredList.get( i ) ) )
+            {
+                if ( size == sourceIndices.length )
+                {
+                    sourceIndices = Arrays.copyOf( sourceIndices, size * 2 );
+                }
+                sourceIndices[size++] = i;
+            }
+        }
+    }
+
+    private static int[] merge( int[] a, int aLength, int[] b, int bLength )
+    {
+        int[] merged = new int[ Math.max( ( aLength + bLength ) * 3 / 2, 16 ) ];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+
+        while ( i < aLength && j < bLength )
+        {
+            merged[k++] = a[i] < b[j] ? a[i++] : b[j++];
+        }
+        while ( i < aLength )
+        {
+            merged[k++] = a[i++];
+        }
+        while ( j < bLength )
+        {
+            merged[k++] = b[j++];
+        }
+
+        return merged;
     }
-}
\ No newline at end of file
+}
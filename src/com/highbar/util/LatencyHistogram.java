@@ -0,0 +1,256 @@
+package com.highbar.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   A histogram of times in nanoseconds with a bounded amount of memory and a bounded relative error.  Values
+ *   below 64 are counted exactly.  Above that, each power of two is split into 32 equal buckets, so a value is
+ *   known to within about 3% of itself however large it is.  Values of 2^45 nanoseconds (nearly ten hours) or
+ *   more share the last bucket.  The buckets of each power of two are only allocated once a value falls in
+ *   them, and the times of a single method seldom span more than a few powers of two, so a histogram usually
+ *   takes a KB or two.  It never takes more than a little over 10KB.
+ * <p/>
+ *   Recording a value is a single atomic increment, so any number of threads can record into the same histogram
+ *   without locking.  Histograms can be added together, and can be encoded as a string to be stored in a report
+ *   and decoded again, so histograms from separate reports can be merged.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 44;
+    private static final int ROWS = MAX_EXPONENT - SUB_BUCKET_BITS + 2;
+    private static final int BUCKETS = ROWS * SUB_BUCKETS;
+
+    /**
+     * The counts in rows of SUB_BUCKETS buckets, one row per power of two.  A row is null until a value is
+     * counted in it
+     */
+    private final AtomicReferenceArray<AtomicLongArray> counts = new AtomicReferenceArray<AtomicLongArray>( ROWS );
+    private final AtomicLong maxValue = new AtomicLong( 0 );
+
+    /**
+     * Counts a single value
+     * @param value the value, negative values are counted as zero
+     */
+    public void record( long value )
+    {
+        value = Math.max( value, 0 );
+        int bucket = getBucket( value );
+        getRow( bucket ).incrementAndGet( bucket % SUB_BUCKETS );
+
+        long max = maxValue.get();
+        while ( value > max && !maxValue.compareAndSet( max, value ) )
+        {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one
+     * @param histogram the histogram to add
+     */
+    public void add( LatencyHistogram histogram )
+    {
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            long count = histogram.getCount( i );
+            if ( count != 0 )
+            {
+                getRow( i ).addAndGet( i % SUB_BUCKETS, count );
+            }
+        }
+
+        long value = histogram.getMaxValue();
+        long max = maxValue.get();
+        while ( value > max && !maxValue.compareAndSet( max, value ) )
+        {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * @return the number of values counted
+     */
+    public long getCount()
+    {
+        long count = 0;
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            count += getCount( i );
+        }
+        return count;
+    }
+
+    /**
+     * @return the largest value counted, or zero if there are none
+     */
+    public long getMaxValue()
+    {
+        return maxValue.get();
+    }
+
+    /**
+     * Finds the value below which the given percentage of the counted values fall.  The result is the highest
+     * value of the bucket holding that value, but no higher than the largest value counted
+     * @param percentile the percentage, from 0 to 100
+     * @return the value at the percentile, or zero if there are no values
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        if ( percentile < 0 || percentile > 100 )
+        {
+            throw new IllegalArgumentException( "Percentile must be between 0 and 100: " + percentile );
+        }
+
+        // copy the counts first so the total and the search agree while other threads are recording
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            snapshot[i] = getCount( i );
+            total += snapshot[i];
+        }
+
+        if ( total == 0 )
+        {
+            return 0;
+        }
+
+        long rank = Math.max( 1, (long)Math.ceil( percentile / 100 * total ) );
+        long seen = 0;
+        int bucket = 0;
+        while ( bucket < BUCKETS - 1 && ( seen += snapshot[bucket] ) < rank )
+        {
+            bucket++;
+        }
+
+        return Math.min( getHighestValue( bucket ), getMaxValue() );
+    }
+
+    /**
+     * Encodes the histogram as its largest value followed by the index and count of each bucket that
+     * isn't empty, e.g. "1523;12:4,40:1"
+     * @return the encoded histogram
+     */
+    public String encode()
+    {
+        StringBuilder s = new StringBuilder();
+        s.append( getMaxValue() ).append( ';' );
+
+        String separator = "";
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            long count = getCount( i );
+            if ( count != 0 )
+            {
+                s.append( separator ).append( i ).append( ':' ).append( count );
+                separator = ",";
+            }
+        }
+
+        return s.toString();
+    }
+
+    /**
+     * Rebuilds a histogram from the result of encode()
+     * @param encoded the encoded histogram
+     * @return the histogram
+     * @throws IllegalArgumentException if the string is not an encoded histogram
+     */
+    public static LatencyHistogram decode( String encoded )
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        try
+        {
+            int separator = encoded.indexOf( ';' );
+            histogram.maxValue.set( Long.parseLong( encoded.substring( 0, separator ) ) );
+
+            String buckets = encoded.substring( separator + 1 );
+            if ( buckets.length() != 0 )
+            {
+                for ( String bucket : buckets.split( "," ) )
+                {
+                    int colon = bucket.indexOf( ':' );
+                    int i = Integer.parseInt( bucket.substring( 0, colon ) );
+                    histogram.getRow( i ).set( i % SUB_BUCKETS, Long.parseLong( bucket.substring( colon + 1 ) ) );
+                }
+            }
+        }
+        catch( RuntimeException e )
+        {
+            throw new IllegalArgumentException( "Not an encoded histogram: " + encoded, e );
+        }
+
+        return histogram;
+    }
+
+    /**
+     * @param bucket a bucket index
+     * @return the count of the bucket, zero if its row hasn't been allocated
+     */
+    private long getCount( int bucket )
+    {
+        AtomicLongArray row = counts.get( bucket / SUB_BUCKETS );
+        return row == null ? 0 : row.get( bucket % SUB_BUCKETS );
+    }
+
+    /**
+     * @param bucket a bucket index
+     * @return the row holding the bucket, allocated if it hasn't been yet
+     */
+    private AtomicLongArray getRow( int bucket )
+    {
+        int i = bucket / SUB_BUCKETS;
+        AtomicLongArray row = counts.get( i );
+        if ( row == null )
+        {
+            counts.compareAndSet( i, null, new AtomicLongArray( SUB_BUCKETS ) );
+            row = counts.get( i );
+        }
+        return row;
+    }
+
+    private static int getBucket( long value )
+    {
+        if ( value < 2 * SUB_BUCKETS )
+        {
+            return (int)value;
+        }
+
+        int exponent = Math.min( 63 - Long.numberOfLeadingZeros( value ), MAX_EXPONENT );
+        if ( exponent == MAX_EXPONENT && value >= 1L << ( MAX_EXPONENT + 1 ) )
+        {
+            return BUCKETS - 1;
+        }
+
+        // the shifted value is between SUB_BUCKETS and 2 * SUB_BUCKETS - 1
+        int shift = exponent - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int)( value >>> shift );
+    }
+
+    private static long getHighestValue( int bucket )
+    {
+        if ( bucket < 2 * SUB_BUCKETS )
+        {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long)( bucket % SUB_BUCKETS + SUB_BUCKETS ) << shift;
+        return lowest + ( 1L << shift ) - 1;
+    }
+}
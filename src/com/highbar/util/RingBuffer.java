@@ -0,0 +1,168 @@
+package com.highbar.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   A bounded buffer that keeps the most recently added elements.  Once the buffer is full, adding an
+ *   element discards the oldest one.  The backing array grows on demand up to the capacity, so a buffer
+ *   with a large capacity costs nothing until it is used.  All methods are synchronized so that one thread
+ *   can add elements while another takes a snapshot.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class RingBuffer<T>
+{
+    /**
+     * Capacity to use for a buffer that should never discard anything
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private static final int INITIAL_SIZE = 16;
+
+    private Object[] elements = new Object[0];
+    private int head = 0;
+    private int size = 0;
+    private int capacity;
+
+    /**
+     * Creates an empty buffer
+     * @param capacity the maximum number of elements to keep, must be positive
+     */
+    public RingBuffer( int capacity )
+    {
+        setCapacity( capacity );
+    }
+
+    /**
+     * Adds an element to the buffer, discarding the oldest element if the buffer is full
+     * @param element the element to add
+     * @return the element that was discarded, or null if nothing was
+     */
+    @SuppressWarnings( "unchecked" )
+    public synchronized T add( T element )
+    {
+        T discarded = null;
+
+        if ( size < capacity )
+        {
+            if ( size == elements.length )
+            {
+                resize( (int)Math.min( Math.max( elements.length * 2L, INITIAL_SIZE ), capacity ) );
+            }
+            elements[ ( head + size ) % elements.length ] = element;
+            size++;
+        }
+        else
+        {
+            discarded = (T)elements[head];
+            elements[head] = element;
+            head = ( head + 1 ) % elements.length;
+        }
+
+        return discarded;
+    }
+
+    /**
+     * @return the oldest element in the buffer, or null if it is empty
+     */
+    @SuppressWarnings( "unchecked" )
+    public synchronized T getOldest()
+    {
+        return size == 0 ? null : (T)elements[head];
+    }
+
+    /**
+     * Removes the oldest element, as long as it is still the given one.  Another thread may have added enough
+     * elements to discard it since it was looked at
+     * @param element the element expected to be the oldest
+     * @return true if the element was removed
+     */
+    public synchronized boolean removeOldest( T element )
+    {
+        if ( size == 0 || elements[head] != element )
+        {
+            return false;
+        }
+
+        elements[head] = null;
+        head = ( head + 1 ) % elements.length;
+        size--;
+        return true;
+    }
+
+    /**
+     * @return the elements in the buffer from oldest to newest
+     */
+    @SuppressWarnings( "unchecked" )
+    public synchronized List<T> toList()
+    {
+        List<T> list = new ArrayList<T>( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            list.add( (T)elements[ ( head + i ) % elements.length ] );
+        }
+        return list;
+    }
+
+    /**
+     * Changes the maximum number of elements kept.  If the buffer holds more elements than the new
+     * capacity, the oldest ones are discarded
+     * @param capacity the new capacity, must be positive
+     */
+    public synchronized void setCapacity( int capacity )
+    {
+        if ( capacity <= 0 )
+        {
+            throw new IllegalArgumentException( "capacity must be positive: " + capacity );
+        }
+
+        this.capacity = capacity;
+
+        if ( size > capacity )
+        {
+            head = ( head + size - capacity ) % elements.length;
+            size = capacity;
+        }
+        if ( elements.length > capacity )
+        {
+            resize( capacity );
+        }
+    }
+
+    public synchronized int getCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    public synchronized void clear()
+    {
+        elements = new Object[0];
+        head = 0;
+        size = 0;
+    }
+
+    private void resize( int length )
+    {
+        Object[] resized = new Object[length];
+        for ( int i = 0; i < size; i++ )
+        {
+            resized[i] = elements[ ( head + i ) % elements.length ];
+        }
+        elements = resized;
+        head = 0;
+    }
+}
@@ -0,0 +1,130 @@
+package com.highbar.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <dl>
+ * <dt><b>Description:</b>
+ * <dd>
+ *   A counter that spreads its updates across several cells once many threads add to it at the same time, so
+ *   they don't contend on a single memory location.  The counter starts out as a single value, and only
+ *   allocates its cells the first time an update loses a race with another thread, so a counter that is never
+ *   contended takes no more memory than an AtomicLong.  Each thread then updates the cell chosen by its id and
+ *   the cells are only summed when the value is read.  There are a small, fixed number of cells, spaced a cache
+ *   line apart to avoid false sharing.
+ * </dd>
+ * </dt>
+ * <dt><b>Copyright</b><dd>&copy 2009 Highbar Software Corporation</dd></dt>
+ * </dl>
+ *
+ * @author agent - agent@local
+ * @version 1.0
+ */
+public class StripedCounter
+{
+    /**
+     * number of longs in a (64 byte) cache line
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * number of cells, a power of two no more than twice the number of processors and at most 8
+     */
+    private static final int STRIPES = getStripeCount();
+
+    /**
+     * The value added before the counter was first contended
+     */
+    private final AtomicLong base = new AtomicLong();
+
+    /**
+     * null until an update is contended
+     */
+    private volatile AtomicLongArray cells;
+
+    /**
+     * Adds the given value to the counter
+     * @param value the amount to add
+     */
+    public void add( long value )
+    {
+        AtomicLongArray c = cells;
+        if ( c == null )
+        {
+            long b = base.get();
+            if ( base.compareAndSet( b, b + value ) )
+            {
+                return;
+            }
+            c = getCells();
+        }
+        c.getAndAdd( getCellIndex(), value );
+    }
+
+    /**
+     * Adds one to the counter
+     */
+    public void increment()
+    {
+        add( 1 );
+    }
+
+    /**
+     * @return the current value of the counter.  The result is not an atomic snapshot if other threads
+     *         are updating the counter at the same time
+     */
+    public long sum()
+    {
+        long sum = base.get();
+        AtomicLongArray c = cells;
+        if ( c != null )
+        {
+            for ( int i = 0; i < STRIPES; i++ )
+            {
+                sum += c.get( i * PADDING );
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Sets the counter back to zero
+     */
+    public void reset()
+    {
+        base.set( 0 );
+        AtomicLongArray c = cells;
+        if ( c != null )
+        {
+            for ( int i = 0; i < STRIPES; i++ )
+            {
+                c.set( i * PADDING, 0 );
+            }
+        }
+    }
+
+    private synchronized AtomicLongArray getCells()
+    {
+        if ( cells == null )
+        {
+            cells = new AtomicLongArray( STRIPES * PADDING );
+        }
+        return cells;
+    }
+
+    private static int getCellIndex()
+    {
+        return ( (int)Thread.currentThread().getId() & ( STRIPES - 1 ) ) * PADDING;
+    }
+
+    private static int getStripeCount()
+    {
+        int stripes = 1;
+        while ( stripes < Runtime.getRuntime().availableProcessors() * 2 && stripes < 8 )
+        {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}